@@ -0,0 +1,44 @@
+package Benchmarks;
+
+import Config.Constants;
+import Services.AuditService;
+import Utils.AuditOverflowPolicy;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of AuditService.log for the calling thread, with the overflow policies that never block
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuditBenchmark {
+    @Param({"COUNT", "DROP"})
+    public AuditOverflowPolicy policy;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Before AuditService is loaded, so the project's audit log is left alone
+        Path auditDir = Files.createTempDirectory("chat-bench-audit");
+        System.setProperty(Constants.AUDIT_DIR_PROPERTY, auditDir.toString());
+        AuditService.getInstance().setOverflowPolicy(policy);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        AuditService.getInstance().shutdown();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void log() {
+        AuditService.getInstance().log("SEND", "room: 1, user: " + BenchmarkFixture.SENDER + ", message: hello");
+    }
+}
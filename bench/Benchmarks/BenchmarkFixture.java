@@ -0,0 +1,158 @@
+package Benchmarks;
+
+import Config.Constants;
+import Config.DatabaseConnection;
+import Config.MigrationRunner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Embedded H2 database (MySQL mode) seeded with generated users, rooms and message history.
+ * JMH runs every parameter combination in its own fork, so each trial gets a fresh database.
+ */
+public class BenchmarkFixture {
+    private static final String[] WORDS = {
+            "hello", "meeting", "tomorrow", "project", "deadline", "lunch", "review", "deploy", "coffee", "report",
+            "weekend", "server", "bug", "release", "design", "test", "budget", "client", "call", "update"
+    };
+    private static final int WORDS_PER_MESSAGE = 8;
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    public static final String SENDER = "user0";
+
+    private BenchmarkFixture() {
+    }
+
+    /**
+     * Point DatabaseConnection at a new in-memory database, create the schema with the migrations and seed it.
+     * Must run before anything touches DatabaseConnection in the fork.
+     * @param rooms The number of group rooms
+     * @param members The number of members of every room, all rooms share the same users
+     * @param history The number of messages in every room
+     */
+    public static void start(int rooms, int members, int history) throws IOException, SQLException {
+        Path properties = Files.createTempFile("chat-bench", ".properties");
+        properties.toFile().deleteOnExit();
+        Files.write(properties, List.of(
+                "jdbc:h2:mem:chat;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                "sa",
+                "",
+                Constants.POOL_MAX_SIZE + "=" + Math.max(Constants.DEFAULT_POOL_MAX_SIZE, Runtime.getRuntime().availableProcessors() * 2)));
+        System.setProperty(Constants.FISIER_DB_PROPERTY, properties.toString());
+        Path auditDir = Files.createTempDirectory("chat-bench-audit");
+        System.setProperty(Constants.AUDIT_DIR_PROPERTY, auditDir.toString());
+        // A fresh archive, so history reads never reach the archive of a real deployment
+        Path archiveDir = Files.createTempDirectory("chat-bench-archive");
+        System.setProperty(Constants.ARCHIVE_DIR_PROPERTY, archiveDir.toString());
+
+        // The services print their results, keep them out of the JMH output
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        if (!MigrationRunner.migrate()) {
+            throw new SQLException("Could not create the benchmark schema");
+        }
+        try (Connection conn = DatabaseConnection.getDatabaseConnection()) {
+            conn.setAutoCommit(false);
+            seed(conn, rooms, members, history);
+            conn.commit();
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private static void seed(Connection conn, int rooms, int members, int history) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + Constants.USER_TABLE + " (username, status) VALUES (?, 'OFFLINE')")) {
+            for (int i = 0; i < members; i++) {
+                stmt.setString(1, "user" + i);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+
+        try (PreparedStatement roomStmt = conn.prepareStatement("INSERT INTO " + Constants.CHATROOM_TABLE
+                     + " (id, name, room_type, max_users) VALUES (?, ?, 'GROUP', ?)");
+             PreparedStatement memberStmt = conn.prepareStatement("INSERT INTO " + Constants.PARTICIPANTS_TABLE
+                     + " (chatroom_id, username, permission) VALUES (?, ?, ?)")) {
+            for (int room = 1; room <= rooms; room++) {
+                roomStmt.setInt(1, room);
+                roomStmt.setString(2, "room" + room);
+                roomStmt.setInt(3, Math.max(50, members));
+                roomStmt.addBatch();
+                for (int i = 0; i < members; i++) {
+                    memberStmt.setInt(1, room);
+                    memberStmt.setString(2, "user" + i);
+                    memberStmt.setString(3, i == 0 ? "OWNER" : "MEMBER");
+                    memberStmt.addBatch();
+                }
+            }
+            roomStmt.executeBatch();
+            memberStmt.executeBatch();
+        }
+
+        Random random = new Random(42);
+        LocalDateTime start = LocalDateTime.now().minusDays(30);
+        int messageId = 0;
+        try (PreparedStatement messageStmt = conn.prepareStatement("INSERT INTO " + Constants.MESSAGE_TABLE
+                     + " (id, content, sender_username, chatroom_id, timestamp) VALUES (?, ?, ?, ?, ?)");
+             PreparedStatement statusStmt = conn.prepareStatement("INSERT INTO " + Constants.MESSAGE_DELIVERY_TABLE
+                     + " (message_id, username, status) VALUES (?, ?, ?)")) {
+            int pending = 0;
+            for (int room = 1; room <= rooms; room++) {
+                for (int i = 0; i < history; i++) {
+                    messageId++;
+                    int sender = random.nextInt(members);
+                    messageStmt.setInt(1, messageId);
+                    messageStmt.setString(2, randomText(random));
+                    messageStmt.setString(3, "user" + sender);
+                    messageStmt.setInt(4, room);
+                    messageStmt.setTimestamp(5, Timestamp.valueOf(start.plusSeconds(messageId)));
+                    messageStmt.addBatch();
+                    for (int member = 0; member < members; member++) {
+                        statusStmt.setInt(1, messageId);
+                        statusStmt.setString(2, "user" + member);
+                        statusStmt.setString(3, member == sender ? "SENT" : random.nextBoolean() ? "READ" : "RECEIVED");
+                        statusStmt.addBatch();
+                    }
+                    if (++pending == INSERT_BATCH_SIZE) {
+                        messageStmt.executeBatch();
+                        statusStmt.executeBatch();
+                        pending = 0;
+                    }
+                }
+            }
+            messageStmt.executeBatch();
+            statusStmt.executeBatch();
+        }
+
+        // Explicit IDs were inserted, new messages and rooms must continue after them
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE " + Constants.MESSAGE_TABLE + " ALTER COLUMN id RESTART WITH " + (messageId + 1));
+            stmt.execute("ALTER TABLE " + Constants.CHATROOM_TABLE + " ALTER COLUMN id RESTART WITH " + (rooms + 1));
+        }
+    }
+
+    /**
+     * @return A message of WORDS_PER_MESSAGE words picked from a small vocabulary, so searches have matches
+     */
+    public static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < WORDS_PER_MESSAGE; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
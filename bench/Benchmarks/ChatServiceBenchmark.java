@@ -0,0 +1,53 @@
+package Benchmarks;
+
+import Entities.ChatRoom;
+import Entities.User;
+import Services.ChatService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service path of the SEND command, from several threads so sends are committed in batches.
+ * Sending grows the room during the measurement, which is what happens in production as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChatServiceBenchmark {
+    @Param({"4"})
+    public int rooms;
+
+    @Param({"10", "50"})
+    public int members;
+
+    @Param({"1000", "10000"})
+    public int history;
+
+    private ChatService chatService;
+    private ChatRoom room;
+    private User sender;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkFixture.start(rooms, members, history);
+        chatService = new ChatService();
+        room = chatService.getRoomById(1);
+        sender = chatService.getUserByName(BenchmarkFixture.SENDER);
+    }
+
+    @State(Scope.Thread)
+    public static class Content {
+        private final Random random = new Random();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void sendMessage(Content content) {
+        chatService.sendMessage(room, sender, BenchmarkFixture.randomText(content.random));
+    }
+}
@@ -0,0 +1,54 @@
+package Benchmarks;
+
+import Entities.ChatRoom;
+import Entities.Message;
+import Repository.ChatRoomJdbcService;
+import Repository.MessageJdbcService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths of the repositories: loading a room's whole history, and loading a room with and without the room cache
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBenchmark {
+    @Param({"4"})
+    public int rooms;
+
+    @Param({"10", "50"})
+    public int members;
+
+    @Param({"1000", "10000"})
+    public int history;
+
+    private int roomId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkFixture.start(rooms, members, history);
+        roomId = 1;
+    }
+
+    @Benchmark
+    public List<Message> getMessagesByChatRoomId() {
+        return MessageJdbcService.getInstance().getMessagesByChatRoomId(roomId);
+    }
+
+    @Benchmark
+    public ChatRoom getChatRoomByIdCached() {
+        return ChatRoomJdbcService.getInstance().getChatRoomById(roomId);
+    }
+
+    @Benchmark
+    public ChatRoom getChatRoomByIdUncached() {
+        ChatRoomJdbcService.getInstance().getRoomCache().invalidate(roomId);
+        return ChatRoomJdbcService.getInstance().getChatRoomById(roomId);
+    }
+}
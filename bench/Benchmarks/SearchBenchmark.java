@@ -0,0 +1,47 @@
+package Benchmarks;
+
+import Entities.ChatRoom;
+import Services.ChatService;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service path of the SEARCH command once the room is indexed: a single term, two terms and a prefix
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"4"})
+    public int rooms;
+
+    @Param({"10"})
+    public int members;
+
+    @Param({"1000", "10000"})
+    public int history;
+
+    @Param({"meeting", "deploy tomorrow", "rev*"})
+    public String query;
+
+    private ChatService chatService;
+    private ChatRoom room;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        BenchmarkFixture.start(rooms, members, history);
+        chatService = new ChatService();
+        room = chatService.getRoomById(1);
+        // Build the search index outside of the measurement
+        chatService.searchMessages(room, query);
+    }
+
+    @Benchmark
+    public void searchMessages() {
+        chatService.searchMessages(room, query);
+    }
+}
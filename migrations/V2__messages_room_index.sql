@@ -0,0 +1,2 @@
+-- Room history is read and paged by (chatroom_id, id): keyset pagination, SHOW MSG and room scans
+CREATE INDEX idx_messages_chatroom_id ON messages (chatroom_id, id);
@@ -0,0 +1,18 @@
+-- Unread messages per user and room, maintained on send and read
+CREATE TABLE IF NOT EXISTS unread_counters (
+    username VARCHAR(50) NOT NULL,
+    chatroom_id INT NOT NULL,
+    unread_count INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (username, chatroom_id),
+    FOREIGN KEY (username) REFERENCES users(username) ON DELETE CASCADE,
+    FOREIGN KEY (chatroom_id) REFERENCES chatrooms(id) ON DELETE CASCADE
+);
+
+-- Counters of the messages already delivered and not yet read
+INSERT INTO unread_counters (username, chatroom_id, unread_count)
+SELECT d.username, m.chatroom_id, COUNT(*)
+FROM message_delivery_status d
+JOIN messages m ON (m.id = d.message_id)
+WHERE d.status = 'RECEIVED'
+GROUP BY d.username, m.chatroom_id
+ON DUPLICATE KEY UPDATE unread_count = VALUES(unread_count);
@@ -0,0 +1,11 @@
+-- Read watermarks per user and room (alternative to message_delivery_status)
+CREATE TABLE IF NOT EXISTS read_watermarks (
+    username VARCHAR(50) NOT NULL,
+    chatroom_id INT NOT NULL,
+    joined_id INT NOT NULL DEFAULT 0, -- Messages up to this id were sent before the user joined
+    delivered_id INT NOT NULL DEFAULT 0,
+    read_id INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (chatroom_id, username),
+    FOREIGN KEY (username) REFERENCES users(username) ON DELETE CASCADE,
+    FOREIGN KEY (chatroom_id) REFERENCES chatrooms(id) ON DELETE CASCADE
+);
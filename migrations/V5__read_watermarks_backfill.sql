@@ -0,0 +1,25 @@
+-- Converts the existing message_delivery_status rows into read_watermarks.
+-- MigrationRunner runs these statements again at startup whenever messages.readWatermarks is turned on.
+
+-- Users with delivery rows: they joined just before their first message, everything they have rows for
+-- was delivered, and everything before their oldest unread message was read
+INSERT INTO read_watermarks (username, chatroom_id, joined_id, delivered_id, read_id)
+SELECT d.username, m.chatroom_id,
+       MIN(m.id) - 1,
+       MAX(m.id),
+       COALESCE(MIN(CASE WHEN d.status = 'RECEIVED' THEN m.id END) - 1, MAX(m.id))
+FROM message_delivery_status d
+JOIN messages m ON (m.id = d.message_id)
+GROUP BY d.username, m.chatroom_id
+ON DUPLICATE KEY UPDATE joined_id = VALUES(joined_id), delivered_id = VALUES(delivered_id), read_id = VALUES(read_id);
+
+-- Participants without any delivery rows start at the current end of their room
+INSERT IGNORE INTO read_watermarks (username, chatroom_id, joined_id, delivered_id, read_id)
+SELECT p.username, p.chatroom_id, COALESCE(MAX(m.id), 0), COALESCE(MAX(m.id), 0), COALESCE(MAX(m.id), 0)
+FROM chat_participants p
+LEFT JOIN messages m ON (m.chatroom_id = p.chatroom_id)
+GROUP BY p.username, p.chatroom_id;
+
+-- The rows are no longer read once the watermarks are enabled. They are kept, and completed from the
+-- watermarks when the switch is undone; to reclaim the space while the watermarks are in use run:
+-- DELETE FROM message_delivery_status;
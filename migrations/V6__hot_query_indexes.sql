@@ -0,0 +1,18 @@
+-- Secondary indexes for the queries of the Repository package.
+-- Room history, paging and scans already use idx_messages_chatroom_id (chatroom_id, id) from V2.
+
+-- Open sessions: SHOW_ALL ACTIVE_SESSIONS filters on logout_time IS NULL
+CREATE INDEX idx_user_sessions_logout_time ON user_sessions (logout_time);
+
+-- Closing the open sessions of a user on logout
+CREATE INDEX idx_user_sessions_username_open ON user_sessions (username, logout_time);
+
+-- Unread messages and read marking of one user filter on (username, status);
+-- message_id completes the key so these lookups never read the table rows
+CREATE INDEX idx_delivery_username_status ON message_delivery_status (username, status, message_id);
+
+-- Rooms of a user (login, SHOW ROOMS, CREATE GROUP); the primary key starts with chatroom_id
+CREATE INDEX idx_participants_username ON chat_participants (username, chatroom_id);
+
+-- Marking a room read skips the user's own messages within an id range of the room
+CREATE INDEX idx_messages_chatroom_sender ON messages (chatroom_id, sender_username, id);
@@ -0,0 +1,9 @@
+-- Facts about the stored data that the application checks at startup
+CREATE TABLE IF NOT EXISTS settings (
+    setting_name VARCHAR(50) PRIMARY KEY,
+    setting_value VARCHAR(100) NOT NULL
+);
+
+-- How delivery statuses are stored: DELIVERY_ROWS (message_delivery_status) or READ_WATERMARKS.
+-- Updated by MigrationRunner when it converts them after messages.readWatermarks changed.
+INSERT INTO settings (setting_name, setting_value) VALUES ('status_model', 'DELIVERY_ROWS');
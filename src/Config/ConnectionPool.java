@@ -0,0 +1,439 @@
+package Config;
+
+import Utils.QueryCounter;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe pool of JDBC connections.
+ * Borrowed connections are handed out as proxies whose close() returns the physical
+ * connection to the pool, so callers use them with try-with-resources as usual.
+ */
+public class ConnectionPool {
+    // Connections used more recently than this are not pinged again on borrow
+    private static final long VALIDATION_BYPASS_MILLIS = 500;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    private final String dbUrl, username, pass;
+    private final int maxSize, minIdle, statementCacheSize;
+    private final long maxWaitMillis, idleTimeoutMillis;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService evictor;
+
+    // Metrics
+    private final AtomicInteger active = new AtomicInteger();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    public ConnectionPool(String dbUrl, String username, String pass, int maxSize, int minIdle,
+                          long maxWaitMillis, long idleTimeoutMillis, int statementCacheSize) {
+        this.dbUrl = dbUrl;
+        this.username = username;
+        this.pass = pass;
+        this.maxSize = maxSize;
+        this.minIdle = Math.min(minIdle, maxSize);
+        this.statementCacheSize = statementCacheSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "db-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(idleTimeoutMillis / 2, 1000);
+        evictor.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connection, waiting at most maxWaitMillis for one to become available
+     * @return A pooled connection, to be closed by the caller to give it back
+     * @throws SQLException If no connection could be obtained in time or the database is unreachable
+     */
+    public Connection borrow() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                timeouts.increment();
+                throw new SQLException("Timed out after " + maxWaitMillis + " ms waiting for a database connection");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        } finally {
+            waitNanos.add(System.nanoTime() - start);
+        }
+
+        try {
+            PooledConnection pooled = takeValidIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(dbUrl, username, pass));
+                created.increment();
+            }
+            active.incrementAndGet();
+            borrows.increment();
+            return pooled.lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeValidIdle() {
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - pooled.lastUsed < VALIDATION_BYPASS_MILLIS || isValid(pooled)) {
+                return pooled;
+            }
+            validationFailures.increment();
+            closeQuietly(pooled);
+        }
+        return null;
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        try {
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void release(PooledConnection pooled) {
+        active.decrementAndGet();
+        try {
+            if (pooled.physical.isClosed()) {
+                return;
+            }
+            pooled.releaseStatements();
+            // Never hand out a connection with a half finished transaction
+            if (!pooled.physical.getAutoCommit()) {
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            closeQuietly(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Close the connections that have been idle longer than idleTimeoutMillis, keeping at least minIdle of them
+     */
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        // The least recently used connections sit at the tail of the deque
+        Iterator<PooledConnection> iterator = idle.descendingIterator();
+        while (iterator.hasNext() && idle.size() > minIdle) {
+            PooledConnection pooled = iterator.next();
+            if (now - pooled.lastUsed > idleTimeoutMillis && idle.remove(pooled)) {
+                evicted.increment();
+                closeQuietly(pooled);
+            }
+        }
+    }
+
+    private void closeQuietly(PooledConnection pooled) {
+        try {
+            pooled.physical.close();
+        } catch (SQLException ignored) {
+            // The connection is being discarded anyway
+        }
+    }
+
+    /**
+     * Close every idle connection and stop the eviction thread
+     */
+    public void shutdown() {
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled);
+        }
+    }
+
+    public int getActiveCount() { return active.get(); }
+    public int getIdleCount() { return idle.size(); }
+    public int getMaxSize() { return maxSize; }
+    public long getBorrowCount() { return borrows.sum(); }
+    public long getTimeoutCount() { return timeouts.sum(); }
+    public long getCreatedCount() { return created.sum(); }
+    public long getEvictedCount() { return evicted.sum(); }
+    public long getValidationFailureCount() { return validationFailures.sum(); }
+    public long getStatementCacheHits() { return statementHits.sum(); }
+    public long getStatementCacheMisses() { return statementMisses.sum(); }
+
+    public double getAverageWaitMillis() {
+        long count = borrows.sum() + timeouts.sum();
+        return count == 0 ? 0 : waitNanos.sum() / 1_000_000.0 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Pool[active=%d, idle=%d, max=%d, borrows=%d, avgWait=%.3f ms, timeouts=%d, created=%d, evicted=%d, invalid=%d, stmtHits=%d, stmtMisses=%d]",
+                getActiveCount(), getIdleCount(), maxSize, getBorrowCount(), getAverageWaitMillis(),
+                getTimeoutCount(), getCreatedCount(), getEvictedCount(), getValidationFailureCount(),
+                getStatementCacheHits(), getStatementCacheMisses());
+    }
+
+    /**
+     * A physical connection owned by the pool, together with its prepared statement cache.
+     * A physical connection is only used by one borrower at a time, so the cache needs no locking.
+     */
+    private class PooledConnection {
+        private final Connection physical;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        // Prepared statements by SQL text, least recently used first
+        private final Map<String, CachedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+                eldest.getValue().evict();
+                return true;
+            }
+        };
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        private Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new LeaseHandler(this));
+        }
+
+        /**
+         * Reuse the cached statement for this SQL, or prepare and cache a new one.
+         * If the cached statement is still open elsewhere (nested use of the same query),
+         * an uncached statement is returned that the caller closes normally.
+         */
+        private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys + ":" + sql;
+            CachedStatement cached = statements.get(key);
+            if (cached != null && !cached.inUse) {
+                statementHits.increment();
+                return cached.checkOut();
+            }
+            statementMisses.increment();
+            PreparedStatement statement = physical.prepareStatement(sql, autoGeneratedKeys);
+            if (cached != null || statementCacheSize <= 0) {
+                return counted(PreparedStatement.class, statement);
+            }
+            cached = new CachedStatement(statement);
+            statements.put(key, cached);
+            return cached.checkOut();
+        }
+
+        /**
+         * Return the statements a borrower forgot to close to the cache
+         */
+        private void releaseStatements() {
+            for (CachedStatement cached : statements.values()) {
+                cached.checkIn();
+            }
+        }
+    }
+
+    /**
+     * A prepared statement kept open across borrows. Closing the handle given to the caller
+     * only clears its parameters and makes it available again.
+     */
+    private static class CachedStatement implements InvocationHandler {
+        private final PreparedStatement physical;
+        private final PreparedStatement handle;
+        private boolean inUse = false;
+        private boolean evicted = false;
+
+        private CachedStatement(PreparedStatement physical) {
+            this.physical = physical;
+            this.handle = (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, this);
+        }
+
+        private PreparedStatement checkOut() {
+            inUse = true;
+            return handle;
+        }
+
+        private void checkIn() {
+            if (!inUse) {
+                return;
+            }
+            inUse = false;
+            try {
+                if (evicted) {
+                    physical.close();
+                } else {
+                    physical.clearParameters();
+                    physical.clearBatch();
+                }
+            } catch (SQLException ignored) {
+                // A broken statement will fail on its next use and the connection will be discarded
+            }
+        }
+
+        private void evict() {
+            evicted = true;
+            if (!inUse) {
+                try {
+                    physical.close();
+                } catch (SQLException ignored) {
+                    // Already unusable
+                }
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    checkIn();
+                    return null;
+                case "isClosed":
+                    return !inUse || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+            }
+            return invokeCounted(physical, method, args);
+        }
+    }
+
+    /**
+     * A statement the pool does not cache, only wrapped to count its executions
+     */
+    private static class CountingStatement implements InvocationHandler {
+        private final Statement physical;
+
+        private CountingStatement(Statement physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+            }
+            return invokeCounted(physical, method, args);
+        }
+    }
+
+    private static <T extends Statement> T counted(Class<T> type, T statement) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new CountingStatement(statement)));
+    }
+
+    /**
+     * Call a statement method, reporting every execution to QueryCounter.
+     * A batch counts as one round trip carrying one statement per batched entry.
+     */
+    private static Object invokeCounted(Statement physical, Method method, Object[] args) throws Throwable {
+        boolean execution = method.getName().startsWith("execute");
+        Object result;
+        try {
+            result = method.invoke(physical, args);
+        } catch (InvocationTargetException e) {
+            if (execution) {
+                QueryCounter.executed(1);
+            }
+            throw e.getCause();
+        }
+        if (execution) {
+            QueryCounter.executed(method.getName().endsWith("Batch") ? Array.getLength(result) : 1);
+        }
+        return result;
+    }
+
+    /**
+     * Delegates to the physical connection until closed, then gives it back to the pool.
+     * Each lease gets its own handler so a stale reference cannot touch a connection lent to someone else.
+     */
+    private class LeaseHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean closed = false;
+
+        private LeaseHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.physical;
+            }
+            if (closed) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (method.getName().equals("prepareStatement") && args.length <= 2
+                    && (args.length == 1 || args[1] instanceof Integer)) {
+                return pooled.prepare((String) args[0],
+                        args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS);
+            }
+            Object result;
+            try {
+                result = method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (method.getName().equals("commit") || method.getName().equals("rollback")
+                    || method.getName().equals("setAutoCommit")) {
+                QueryCounter.roundTrip();
+            }
+            if (result instanceof Statement statement) {
+                return counted(method.getReturnType().asSubclass(Statement.class), statement);
+            }
+            return result;
+        }
+    }
+}
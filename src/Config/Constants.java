@@ -1,8 +1,31 @@
 package Config;
 
+import Utils.AuditOverflowPolicy;
+import Utils.StorageBackend;
+
 public class Constants {
     // Database configuration
     public static final String FISIER_DB = "db.properties";
+    // System property naming another db file, e.g. the embedded database of the benchmarks
+    public static final String FISIER_DB_PROPERTY = "chat.db.properties";
+    // Where data is kept unless --storage is given at startup
+    public static final StorageBackend STORAGE_BACKEND = StorageBackend.MYSQL;
+    // Schema migration scripts, applied at startup
+    public static final String MIGRATIONS_DIR = "migrations";
+    // System property naming another migrations directory
+    public static final String MIGRATIONS_DIR_PROPERTY = "chat.migrations.dir";
+
+    // Connection pool settings (optional key=value lines in the db file) and their defaults
+    public static final String POOL_MAX_SIZE = "pool.maxSize";
+    public static final String POOL_MIN_IDLE = "pool.minIdle";
+    public static final String POOL_MAX_WAIT_MILLIS = "pool.maxWaitMillis";
+    public static final String POOL_IDLE_TIMEOUT_MILLIS = "pool.idleTimeoutMillis";
+    public static final String POOL_STATEMENT_CACHE_SIZE = "pool.statementCacheSize";
+    public static final int DEFAULT_POOL_MAX_SIZE = 10;
+    public static final int DEFAULT_POOL_MIN_IDLE = 2;
+    public static final int DEFAULT_POOL_MAX_WAIT_MILLIS = 5000;
+    public static final int DEFAULT_POOL_IDLE_TIMEOUT_MILLIS = 300000;
+    public static final int DEFAULT_POOL_STATEMENT_CACHE_SIZE = 64;
     
     // Table names
     public static final String USER_TABLE = "users";
@@ -11,7 +34,83 @@ public class Constants {
     public static final String PARTICIPANTS_TABLE = "chat_participants";
     public static final String MESSAGE_DELIVERY_TABLE = "message_delivery_status";
     public static final String USER_SESSION_TABLE = "user_sessions";
+    public static final String UNREAD_COUNTER_TABLE = "unread_counters";
+    public static final String READ_WATERMARK_TABLE = "read_watermarks";
+    public static final String SCHEMA_VERSION_TABLE = "schema_version";
+    public static final String SETTINGS_TABLE = "settings";
+
+    // Message status model: per (user, room) read watermarks instead of one row per recipient and message.
+    // Chosen with a key=value line of the db file; the stored statuses are converted at startup when it changes.
+    public static final String READ_WATERMARKS = "messages.readWatermarks";
+    public static final boolean DEFAULT_READ_WATERMARKS = false;
     
+    // Caches
+    public static final int USER_CACHE_MAX_SIZE = 1000;
+    public static final long USER_CACHE_TTL_MILLIS = 5 * 60 * 1000;
+    public static final int ROOM_CACHE_MAX_SIZE = 500;
+    public static final long ROOM_CACHE_TTL_MILLIS = 60 * 1000;
+    // Member permissions of the rooms checked recently, kept up to date by participant changes
+    public static final int ACL_CACHE_MAX_SIZE = 2000;
+    public static final long ACL_CACHE_TTL_MILLIS = 10 * 60 * 1000;
+
+    // Chat history
+    public static final int MESSAGE_PAGE_SIZE = 20;
+    public static final int SEARCH_RESULT_LIMIT = 50;
+    // Inbox: rooms per page of SHOW ROOMS, and characters of the latest message shown for each
+    public static final int INBOX_PAGE_SIZE = 20;
+    public static final int INBOX_PREVIEW_LENGTH = 50;
+
+    // Background jobs
+    public static final long UNREAD_RECONCILE_INTERVAL_MINUTES = 60;
+
+    // Cold storage: messages older than ARCHIVE_AFTER_DAYS move from the database to compressed segment files
+    public static final String ARCHIVE_DIR = "archive";
+    // System property naming another archive directory
+    public static final String ARCHIVE_DIR_PROPERTY = "chat.archive.dir";
+    public static final long ARCHIVE_AFTER_DAYS = 90;
+    public static final long ARCHIVE_INTERVAL_MINUTES = 24 * 60;
+    // Messages read from a room per round of the archival job
+    public static final int ARCHIVE_BATCH_SIZE = 1000;
+    // Messages per compressed block, the unit the sparse index points to
+    public static final int ARCHIVE_BLOCK_MESSAGES = 128;
+    public static final long ARCHIVE_SEGMENT_MAX_BYTES = 64 * 1024 * 1024;
+
+    // Server mode
+    public static final int SERVER_PORT = 5555;
+    public static final int SERVER_MAX_CONNECTIONS = 1000;
+    public static final int SERVER_OUTPUT_BUFFER_SIZE = 8192;
+
+    // Message ingestion: sends are committed together, up to a batch size or after a short wait
+    public static final int INGEST_BATCH_SIZE = 100;
+    public static final long INGEST_LINGER_MILLIS = 2;
+    public static final int INGEST_QUEUE_CAPACITY = 10000;
+
+    // Batch mode: commands committed together in one transaction
+    public static final int BATCH_TRANSACTION_SIZE = 500;
+
+    // Presence: users without a command for PRESENCE_TIMEOUT_MILLIS are logged out by a timer wheel
+    public static final long PRESENCE_TIMEOUT_MILLIS = 15 * 60 * 1000;
+    public static final long PRESENCE_TICK_MILLIS = 1000;
+    public static final int PRESENCE_WHEEL_SLOTS = 512;
+    public static final long PRESENCE_SHUTDOWN_WAIT_MILLIS = 5000;
+
+    // Messages waiting to be pushed to one session before new ones are skipped
+    public static final int SUBSCRIBER_QUEUE_CAPACITY = 256;
+
     // Audit
-    public static final String AUDIT_FILE = "audit.csv";
+    public static final String AUDIT_DIR = "audit";
+    // System property naming another audit directory
+    public static final String AUDIT_DIR_PROPERTY = "chat.audit.dir";
+    public static final int AUDIT_QUEUE_CAPACITY = 10000;
+    public static final int AUDIT_BATCH_SIZE = 256;
+    public static final long AUDIT_FLUSH_INTERVAL_MILLIS = 1000;
+    public static final AuditOverflowPolicy AUDIT_OVERFLOW_POLICY = AuditOverflowPolicy.COUNT;
+    // Segment rotation, by size or age, and compression of the closed segments
+    public static final long AUDIT_SEGMENT_MAX_BYTES = 16 * 1024 * 1024;
+    public static final long AUDIT_SEGMENT_MAX_MILLIS = 24 * 60 * 60 * 1000;
+    public static final boolean AUDIT_COMPRESS_SEGMENTS = true;
+    // Beyond this many users a segment index stops listing them
+    public static final int AUDIT_INDEX_MAX_USERS = 1000;
+    public static final int AUDIT_READ_BUFFER_SIZE = 64 * 1024;
+    public static final int AUDIT_QUERY_LIMIT = 100;
 }
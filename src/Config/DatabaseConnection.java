@@ -1,39 +1,236 @@
 package Config;
 
-import javax.xml.crypto.Data;
 import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
 
 import static Utils.FilesUtils.citireProprietati;
 
 public class DatabaseConnection {
-    private static Connection databaseConnection = null;
-
-    private final static String dbUrl, username, pass;
+    private static final ConnectionPool pool;
+    private static final boolean readWatermarks;
+    // Connection of the transaction bound to the current thread, see beginThreadTransaction
+    private static final ThreadLocal<Connection> threadConnection = new ThreadLocal<>();
+    // Actions waiting for the thread's transaction to commit, see afterCommit
+    private static final ThreadLocal<List<Runnable>> pendingActions = ThreadLocal.withInitial(ArrayList::new);
 
     static {
         try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            dbUrl = citireProprietati(Constants.FISIER_DB).get(0);
-            username = citireProprietati(Constants.FISIER_DB).get(1);
-            pass = citireProprietati(Constants.FISIER_DB).get(2);
+            List<String> properties = citireProprietati(System.getProperty(Constants.FISIER_DB_PROPERTY, Constants.FISIER_DB));
+            String dbUrl = properties.get(0);
+            if (dbUrl.startsWith("jdbc:mysql:")) {
+                Class.forName("com.mysql.cj.jdbc.Driver");
+            }
+            String username = properties.get(1);
+            String pass = properties.get(2);
+
+            // The lines after the credentials hold optional key=value pool settings
+            pool = new ConnectionPool(dbUrl, username, pass,
+                    intProperty(properties, Constants.POOL_MAX_SIZE, Constants.DEFAULT_POOL_MAX_SIZE),
+                    intProperty(properties, Constants.POOL_MIN_IDLE, Constants.DEFAULT_POOL_MIN_IDLE),
+                    intProperty(properties, Constants.POOL_MAX_WAIT_MILLIS, Constants.DEFAULT_POOL_MAX_WAIT_MILLIS),
+                    intProperty(properties, Constants.POOL_IDLE_TIMEOUT_MILLIS, Constants.DEFAULT_POOL_IDLE_TIMEOUT_MILLIS),
+                    intProperty(properties, Constants.POOL_STATEMENT_CACHE_SIZE, Constants.DEFAULT_POOL_STATEMENT_CACHE_SIZE));
+            readWatermarks = booleanProperty(properties, Constants.READ_WATERMARKS, Constants.DEFAULT_READ_WATERMARKS);
         } catch (RuntimeException | ClassNotFoundException | IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public DatabaseConnection() throws SQLException, IOException {
-        if (databaseConnection == null) {
-            databaseConnection = DriverManager.getConnection(dbUrl, username, pass);
+    /**
+     * Borrow a connection from the pool. It must be closed after use to return it.
+     * @return A pooled connection
+     * @throws SQLException If no connection is available in time or the database is unreachable
+     */
+    public static Connection getDatabaseConnection() throws SQLException {
+        Connection bound = threadConnection.get();
+        if (bound != null) {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new SharedConnectionHandler(bound));
         }
+        return pool.borrow();
     }
 
-    public static Connection getDatabaseConnection() throws SQLException {
-        if (databaseConnection == null) {
-            databaseConnection = DriverManager.getConnection(dbUrl, username, pass);
+    /**
+     * Start a transaction that every connection obtained on this thread takes part in, until it ends.
+     * Used to group many commands into one commit.
+     * @throws SQLException If no connection could be borrowed
+     */
+    public static void beginThreadTransaction() throws SQLException {
+        if (threadConnection.get() != null) {
+            throw new SQLException("A transaction is already bound to this thread");
+        }
+        Connection conn = pool.borrow();
+        conn.setAutoCommit(false);
+        threadConnection.set(conn);
+    }
+
+    /**
+     * Commit the work done on this thread so far, the transaction stays bound for the next group.
+     * If the commit fails the work is rolled back and the RollbackListeners are run.
+     */
+    public static void commitThreadTransaction() throws SQLException {
+        Connection conn = threadConnection.get();
+        if (conn == null) {
+            return;
+        }
+        List<Runnable> actions = pendingActions.get();
+        try {
+            conn.commit();
+        } catch (SQLException e) {
+            actions.clear();
+            try {
+                conn.rollback();
+            } catch (SQLException ignored) {
+                // The connection is broken, the pool discards it when the transaction ends
+            }
+            RollbackListeners.rolledBack();
+            throw e;
+        }
+        List<Runnable> committed = new ArrayList<>(actions);
+        actions.clear();
+        for (Runnable action : committed) {
+            action.run();
+        }
+    }
+
+    /**
+     * Unbind the thread's transaction, rolling back whatever was not committed, and run the RollbackListeners
+     */
+    public static void endThreadTransaction() {
+        Connection conn = threadConnection.get();
+        if (conn == null) {
+            return;
+        }
+        threadConnection.remove();
+        pendingActions.remove();
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            System.err.println("Error rolling back thread transaction: " + e.getMessage());
+        }
+        try {
+            conn.close();
+        } catch (SQLException ignored) {
+            // The pool resets or discards the connection
+        }
+        RollbackListeners.rolledBack();
+    }
+
+    /**
+     * Run an action that must only see committed work, such as updating an index of the rows just written.
+     * It runs right away, unless a thread transaction is bound: a commit inside it is only a savepoint, so the
+     * action waits for commitThreadTransaction, and is dropped if the transaction is rolled back instead.
+     */
+    public static void afterCommit(Runnable action) {
+        if (threadConnection.get() != null) {
+            pendingActions.get().add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    public static boolean inThreadTransaction() {
+        return threadConnection.get() != null;
+    }
+
+    public static ConnectionPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return True if delivery statuses are kept as read watermarks per user and room,
+     * false if they are kept as one row per recipient and message
+     */
+    public static boolean useReadWatermarks() {
+        return readWatermarks;
+    }
+
+    /**
+     * A handle on the thread's transaction connection. Closing it does not give the connection back, and a
+     * transaction the caller runs on it becomes a savepoint, so a failed operation is undone on its own
+     * while the surrounding group carries on.
+     */
+    private static class SharedConnectionHandler implements InvocationHandler {
+        private final Connection shared;
+        private Savepoint savepoint = null;
+        private boolean closed = false;
+
+        private SharedConnectionHandler(Connection shared) {
+            this.shared = shared;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    closed = true;
+                    return null;
+                case "isClosed":
+                    return closed || shared.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "getAutoCommit":
+                    return savepoint == null;
+                case "setAutoCommit":
+                    if (!(Boolean) args[0] && savepoint == null) {
+                        savepoint = shared.setSavepoint();
+                    } else if ((Boolean) args[0]) {
+                        savepoint = null;
+                    }
+                    return null;
+                case "commit":
+                    // Made durable by the owner of the thread transaction; a later rollback only undoes what follows
+                    if (savepoint != null) {
+                        savepoint = shared.setSavepoint();
+                    }
+                    return null;
+                case "rollback":
+                    if (args == null) {
+                        if (savepoint != null) {
+                            shared.rollback(savepoint);
+                        }
+                        return null;
+                    }
+                    break;
+            }
+            if (closed) {
+                throw new SQLException("Connection has already been closed");
+            }
+            try {
+                return method.invoke(shared, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static int intProperty(List<String> properties, String key, int defaultValue) {
+        String value = property(properties, key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static boolean booleanProperty(List<String> properties, String key, boolean defaultValue) {
+        String value = property(properties, key);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    private static String property(List<String> properties, String key) {
+        for (String line : properties.subList(Math.min(3, properties.size()), properties.size())) {
+            String[] parts = line.split("=", 2);
+            if (parts.length == 2 && parts[0].trim().equals(key)) {
+                return parts[1].trim();
+            }
         }
-        return databaseConnection;
+        return null;
     }
 }
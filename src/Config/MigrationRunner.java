@@ -0,0 +1,311 @@
+package Config;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Brings the database schema up to date at startup from the scripts in the migrations directory.
+ * Scripts are named V[version]__[description].sql and applied in version order; every applied version
+ * is recorded in the schema_version table with the checksum of its script.
+ * A database created by init.sql before migrations existed is recorded at version 1 without running it.
+ * Startup is refused when the applied history no longer matches the scripts (schema drift).
+ * Once the schema is current, the stored delivery statuses are converted if the status model of the
+ * db file (messages.readWatermarks) changed since the last start.
+ */
+public class MigrationRunner {
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+    private static final int BASELINE_VERSION = 1;
+    // The script converting delivery rows into read watermarks, run again on every switch to watermarks
+    private static final int WATERMARK_BACKFILL_VERSION = 5;
+    private static final String STATUS_MODEL_SETTING = "status_model";
+    private static final String DELIVERY_ROWS = "DELIVERY_ROWS";
+    private static final String READ_WATERMARKS = "READ_WATERMARKS";
+    // Back to delivery rows: every member gets the row of each message the watermarks delivered to them
+    private static final String DELIVERY_ROWS_FROM_WATERMARKS = "INSERT INTO " + Constants.MESSAGE_DELIVERY_TABLE
+            + " (message_id, username, status) SELECT m.id, w.username,"
+            + " CASE WHEN m.sender_username = w.username THEN 'SENT' WHEN m.id <= w.read_id THEN 'READ' ELSE 'RECEIVED' END"
+            + " FROM " + Constants.READ_WATERMARK_TABLE + " w JOIN " + Constants.MESSAGE_TABLE + " m"
+            + " ON (m.chatroom_id = w.chatroom_id AND m.id > w.joined_id AND m.id <= w.delivered_id)"
+            + " ON DUPLICATE KEY UPDATE status = VALUES(status)";
+
+    private MigrationRunner() {
+    }
+
+    /**
+     * Apply every pending migration
+     * @return True if the schema is at the latest version, false if a migration failed or drift was found
+     */
+    public static boolean migrate() {
+        Path directory = Paths.get(System.getProperty(Constants.MIGRATIONS_DIR_PROPERTY, Constants.MIGRATIONS_DIR));
+        try (Connection conn = DatabaseConnection.getDatabaseConnection()) {
+            List<Migration> migrations = readMigrations(directory);
+            createVersionTable(conn);
+            NavigableMap<Integer, Long> applied = getAppliedChecksums(conn);
+
+            if (applied.isEmpty() && tableExists(conn, Constants.USER_TABLE)) {
+                Migration baseline = find(migrations, BASELINE_VERSION);
+                if (baseline == null) {
+                    System.err.println("Error migrating schema: no V" + BASELINE_VERSION + " script to baseline the existing database");
+                    return false;
+                }
+                record(conn, baseline);
+                applied.put(baseline.version, baseline.checksum);
+                System.err.println("Existing schema recorded at version " + BASELINE_VERSION);
+            }
+
+            if (!checkDrift(migrations, applied)) {
+                return false;
+            }
+
+            for (Migration migration : migrations) {
+                if (!applied.containsKey(migration.version)) {
+                    apply(conn, migration);
+                }
+            }
+            if (!checkTables(conn)) {
+                return false;
+            }
+            applyStatusModel(conn, migrations);
+            return true;
+        } catch (SQLException | IOException e) {
+            System.err.println("Error migrating schema: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static List<Migration> readMigrations(Path directory) throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+        try (DirectoryStream<Path> scripts = Files.newDirectoryStream(directory, "V*.sql")) {
+            for (Path script : scripts) {
+                Matcher matcher = SCRIPT_NAME.matcher(script.getFileName().toString());
+                if (!matcher.matches()) {
+                    throw new IOException("Migration script " + script.getFileName() + " is not named V[version]__[description].sql");
+                }
+                byte[] content = Files.readAllBytes(script);
+                CRC32 checksum = new CRC32();
+                checksum.update(content);
+                migrations.add(new Migration(Integer.parseInt(matcher.group(1)), matcher.group(2).replace('_', ' '),
+                        new String(content, StandardCharsets.UTF_8), checksum.getValue()));
+            }
+        }
+        migrations.sort(Comparator.comparingInt(migration -> migration.version));
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).version == migrations.get(i - 1).version) {
+                throw new IOException("Two migration scripts have version " + migrations.get(i).version);
+            }
+        }
+        return migrations;
+    }
+
+    /**
+     * The applied history must be a prefix of the scripts, each with the checksum it was applied with
+     */
+    private static boolean checkDrift(List<Migration> migrations, NavigableMap<Integer, Long> applied) {
+        int latestApplied = applied.isEmpty() ? 0 : applied.lastKey();
+        boolean consistent = true;
+        for (Map.Entry<Integer, Long> entry : applied.entrySet()) {
+            Migration migration = find(migrations, entry.getKey());
+            if (migration == null) {
+                System.err.println("Schema drift: version " + entry.getKey() + " is applied but its script is missing");
+                consistent = false;
+            } else if (migration.checksum != entry.getValue()) {
+                System.err.println("Schema drift: the script of version " + entry.getKey() + " changed after it was applied");
+                consistent = false;
+            }
+        }
+        for (Migration migration : migrations) {
+            if (migration.version < latestApplied && !applied.containsKey(migration.version)) {
+                System.err.println("Schema drift: version " + migration.version + " is older than the applied version " + latestApplied);
+                consistent = false;
+            }
+        }
+        return consistent;
+    }
+
+    private static void apply(Connection conn, Migration migration) throws SQLException {
+        System.err.println("Applying schema version " + migration.version + ": " + migration.description);
+        // MySQL commits DDL implicitly, so the transaction only keeps the version row with the last statement
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            for (String sql : splitStatements(migration.script)) {
+                stmt.execute(sql);
+            }
+            record(conn, migration);
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("version " + migration.version + " failed: " + e.getMessage(), e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Convert the stored delivery statuses to the model chosen in the db file, if it is not the one they are
+     * stored in: to read watermarks with the statements of the backfill migration, back to delivery rows by
+     * writing the rows of the messages stored meanwhile. The conversion and the new setting are one transaction.
+     */
+    private static void applyStatusModel(Connection conn, List<Migration> migrations) throws SQLException {
+        String wanted = DatabaseConnection.useReadWatermarks() ? READ_WATERMARKS : DELIVERY_ROWS;
+        String stored = null;
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT setting_value FROM " + Constants.SETTINGS_TABLE + " WHERE setting_name = ?")) {
+            stmt.setString(1, STATUS_MODEL_SETTING);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    stored = rs.getString("setting_value");
+                }
+            }
+        }
+        if (wanted.equals(stored)) {
+            return;
+        }
+
+        List<String> statements;
+        if (wanted.equals(READ_WATERMARKS)) {
+            Migration backfill = find(migrations, WATERMARK_BACKFILL_VERSION);
+            if (backfill == null) {
+                throw new SQLException("no V" + WATERMARK_BACKFILL_VERSION + " script to convert the delivery statuses");
+            }
+            statements = splitStatements(backfill.script);
+        } else {
+            statements = List.of(DELIVERY_ROWS_FROM_WATERMARKS);
+        }
+
+        System.err.println("Converting message delivery statuses from " + stored + " to " + wanted);
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement();
+             PreparedStatement update = conn.prepareStatement(
+                     "UPDATE " + Constants.SETTINGS_TABLE + " SET setting_value = ? WHERE setting_name = ?")) {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+            update.setString(1, wanted);
+            update.setString(2, STATUS_MODEL_SETTING);
+            update.executeUpdate();
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw new SQLException("converting delivery statuses failed: " + e.getMessage(), e);
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Split a script on semicolons after removing -- comments. Scripts must not use either inside string literals.
+     */
+    private static List<String> splitStatements(String script) {
+        StringBuilder code = new StringBuilder();
+        for (String line : script.split("\\R")) {
+            int comment = line.indexOf("--");
+            code.append(comment >= 0 ? line.substring(0, comment) : line).append('\n');
+        }
+        List<String> statements = new ArrayList<>();
+        for (String statement : code.toString().split(";")) {
+            if (!statement.isBlank()) {
+                statements.add(statement.trim());
+            }
+        }
+        return statements;
+    }
+
+    private static void createVersionTable(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS " + Constants.SCHEMA_VERSION_TABLE + " ("
+                    + "version INT PRIMARY KEY, description VARCHAR(200) NOT NULL, "
+                    + "checksum BIGINT NOT NULL, installed_on DATETIME NOT NULL)");
+        }
+    }
+
+    private static NavigableMap<Integer, Long> getAppliedChecksums(Connection conn) throws SQLException {
+        NavigableMap<Integer, Long> applied = new TreeMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT version, checksum FROM " + Constants.SCHEMA_VERSION_TABLE);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getLong("checksum"));
+            }
+        }
+        return applied;
+    }
+
+    private static void record(Connection conn, Migration migration) throws SQLException {
+        String sql = "INSERT INTO " + Constants.SCHEMA_VERSION_TABLE + " (version, description, checksum, installed_on) VALUES (?, ?, ?, ?)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, migration.version);
+            stmt.setString(2, migration.description);
+            stmt.setLong(3, migration.checksum);
+            stmt.setTimestamp(4, Timestamp.valueOf(LocalDateTime.now()));
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Every table the repositories use must exist once the migrations ran
+     */
+    private static boolean checkTables(Connection conn) throws SQLException {
+        boolean complete = true;
+        for (String table : new String[]{Constants.USER_TABLE, Constants.CHATROOM_TABLE, Constants.USER_SESSION_TABLE,
+                Constants.MESSAGE_TABLE, Constants.PARTICIPANTS_TABLE, Constants.MESSAGE_DELIVERY_TABLE,
+                Constants.UNREAD_COUNTER_TABLE, Constants.READ_WATERMARK_TABLE, Constants.SETTINGS_TABLE}) {
+            if (!tableExists(conn, table)) {
+                System.err.println("Schema drift: table " + table + " is missing");
+                complete = false;
+            }
+        }
+        return complete;
+    }
+
+    private static boolean tableExists(Connection conn, String table) throws SQLException {
+        DatabaseMetaData metaData = conn.getMetaData();
+        // Restricted to the connection's own schema, where the database has one, so a system table of the
+        // same name (such as H2's INFORMATION_SCHEMA.USERS) is not taken for ours
+        try (ResultSet rs = metaData.getTables(conn.getCatalog(), conn.getSchema(), table, new String[]{"TABLE"})) {
+            return rs.next();
+        }
+    }
+
+    private static Migration find(List<Migration> migrations, int version) {
+        for (Migration migration : migrations) {
+            if (migration.version == version) {
+                return migration;
+            }
+        }
+        return null;
+    }
+
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String script;
+        private final long checksum;
+
+        private Migration(int version, String description, String script, long checksum) {
+            this.version = version;
+            this.description = description;
+            this.script = script;
+            this.checksum = checksum;
+        }
+    }
+}
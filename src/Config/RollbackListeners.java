@@ -0,0 +1,28 @@
+package Config;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Callbacks dropping state kept outside the database, such as the repository caches, that may hold rows
+ * written in a thread transaction (see DatabaseConnection.beginThreadTransaction).
+ * They run after such a transaction is rolled back: when a group commit fails, and when the transaction
+ * ends, since whatever was not committed by then is lost.
+ * Kept apart from DatabaseConnection so registering does not start the connection pool.
+ */
+public class RollbackListeners {
+    private static final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    private RollbackListeners() {
+    }
+
+    public static void register(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    static void rolledBack() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+}
@@ -1,30 +1,69 @@
 package Entities;
 
-import Repository.ChatRoomJdbcService;
+import Config.Constants;
+import Repository.Repositories;
 import Services.AuditService; // Added import
 import Services.ChatService;
+import Services.MessageBroker;
+import Services.PresenceRegistry;
 import Services.SessionService;
+import Services.StatsService;
 import Services.UserService;
+import Utils.ThreadOutputRouter;
 
 import java.nio.channels.SeekableByteChannel;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
 public class CommandHandler {
+    // Commands whose second word selects a different operation, timed separately by STATS
+    private static final Set<String> SUBCOMMANDS = Set.of(
+            "SHOW_ALL USERS", "SHOW_ALL ROOMS", "SHOW_ALL ACTIVE_SESSIONS", "SHOW_ALL INACTIVE_SESSIONS",
+            "SHOW ROOMS", "SHOW MSG", "SHOW PARTICIPANTS", "SHOW EMPTY_SLOTS",
+            "CREATE GROUP", "CREATE PRIVATE", "DELETE GROUP", "DELETE MSG");
+    private static final Set<String> COMMANDS = Set.of(
+            "SHOW_ALL", "REGISTER", "LOGIN", "LOGOUT", "SHOW", "SEND", "ADD_TO", "KICK", "CREATE", "SEARCH",
+            "MSG_STATUS", "READ", "UNREAD", "UNREAD_CNT", "ADMIN", "REM_ADMIN", "ROLES", "EDIT", "DELETE", "AUDIT", "STATS");
     private String[] tokens;
     private String input;
     ChatService chatService;
     SessionService sessionService;
     UserService userService = null;
+    // Pushes the messages of the user's rooms to this session while logged in
+    private MessageBroker.Subscriber subscription = null;
+    // The share of this session in the user's presence while logged in
+    private PresenceRegistry.Login login = null;
     private final AuditService auditService; // Added AuditService field
+    // False for remote clients, which may not run the operator commands (AUDIT, STATS RESET)
+    private final boolean console;
 
     public CommandHandler(ChatService chatService, SessionService sessionService) {
+        this(chatService, sessionService, true);
+    }
+
+    public CommandHandler(ChatService chatService, SessionService sessionService, boolean console) {
         this.chatService = chatService;
         this.sessionService = sessionService;
         this.auditService = AuditService.getInstance(); // Initialize AuditService
+        this.console = console;
     }
 
     public void handleCommand() {
+        StatsService stats = StatsService.getInstance();
+        long start = stats.startCommand();
+        try {
+            checkSessionActive();
+            executeCommand();
+        } finally {
+            stats.endCommand(commandType(), start);
+        }
+    }
+
+    private void executeCommand() {
         User user;
         ChatRoom room;
 
@@ -34,7 +73,7 @@ public class CommandHandler {
                 // SHOW_ALL USERS / ROOMS / ACTIVE_SESSIONS / INACTIVE_SESSIONS
                 case "SHOW_ALL":
                     String showAllType = tokens.length > 1 ? tokens[1] : "UNKNOWN";
-                    auditService.log("SHOW_ALL", "type: " + showAllType);
+                    auditService.log("SHOW_ALL", currentUsername(), "type: " + showAllType);
                     if (Objects.equals(tokens[1], "USERS")) {
                         chatService.getUsers().forEach(System.out::println);
                     } else if (Objects.equals(tokens[1], "ROOMS")) {
@@ -49,40 +88,53 @@ public class CommandHandler {
                     break;
                 // REGISTER [username]
                 case "REGISTER":
-                    auditService.log("REGISTER", "username: " + tokens[1]);
+                    auditService.log("REGISTER", tokens[1], "username: " + tokens[1]);
                     user = chatService.registerUser(tokens[1]);
                     break;
                 // LOGIN [username]
                 case "LOGIN":
-                    auditService.log("LOGIN", "username: " + tokens[1]);
+                    auditService.log("LOGIN", tokens[1], "username: " + tokens[1]);
                     user = chatService.getUserByName(tokens[1]);
                     if (!checkUserExists(user)) break;
+                    unsubscribe();
+                    endLogin();
                     userService = new UserService(user);
                     userService.login();
-                    sessionService.login(user);
+                    login = sessionService.login(user);
+                    subscription = MessageBroker.getInstance().connect(user.getUsername(), ThreadOutputRouter.current(),
+                            Repositories.chatRooms().getChatRoomIdsWithMember(user.getUsername()));
                     System.out.printf("Logged in as user: %s", userService.getUser());
                     break;
                 // LOGOUT
                 case "LOGOUT":
                     if (!checkLoggedIn()) break;
-                    auditService.log("LOGOUT", "user: " + (userService != null && userService.getUser() != null ? userService.getUser().getUsername() : "N/A"));
+                    auditService.log("LOGOUT", currentUsername(), "user: " + (userService != null && userService.getUser() != null ? userService.getUser().getUsername() : "N/A"));
+                    unsubscribe();
                     userService.logout();
-                    sessionService.logout(userService.getUser());
+                    endLogin();
                     userService = null;
                     System.out.println("Logged out");
                     break;
-                // SHOW ROOMS / MSG [room] / PARTICIPANTS [room]
+                // SHOW ROOMS [page] / MSG [room] [before_id] / PARTICIPANTS [room]
                 case "SHOW":
                     if (!checkLoggedIn()) break;
                     String showType = tokens.length > 1 ? tokens[1] : "UNKNOWN";
                     String showDetails = tokens.length > 2 ? ", details: " + tokens[2] : "";
-                    auditService.log("SHOW", "type: " + showType + showDetails + ", user: " + userService.getUser().getUsername());
+                    auditService.log("SHOW", currentUsername(), "type: " + showType + showDetails + ", user: " + userService.getUser().getUsername());
                     if (Objects.equals(tokens[1], "ROOMS")) {
+                        int page = tokens.length > 2 ? Integer.parseInt(tokens[2].trim()) : 1;
+                        if (page < 1) {
+                            System.out.println("Page numbers start at 1");
+                            break;
+                        }
                         System.out.println("User is part of the following rooms:");
-                        chatService.getChatRoomsWithMember(userService.getUser());
+                        chatService.showInbox(userService.getUser(), page);
                     } else if (Objects.equals(tokens[1], "MSG")) {
-                        System.out.printf("Messages from room %s: \n", tokens[2]);
-                        chatService.getChatHistory(Integer.parseInt(tokens[2]));
+                        // MSG [room] [before_id] -> latest page, or the page before the given message
+                        String[] pageArgs = tokens[2].split(" ");
+                        Integer beforeId = pageArgs.length > 1 ? Integer.valueOf(pageArgs[1]) : null;
+                        System.out.printf("Messages from room %s: \n", pageArgs[0]);
+                        chatService.getChatHistory(Integer.parseInt(pageArgs[0]), beforeId);
                     } else if (Objects.equals(tokens[1], "PARTICIPANTS")) {
                         System.out.printf("Participants of room %s: \n", tokens[2]);
                         chatService.getChatParticipants(Integer.parseInt(tokens[2]));
@@ -95,7 +147,7 @@ public class CommandHandler {
                 // SEND [room] [msg]
                 case "SEND":
                     if (!checkLoggedIn()) break;
-                    auditService.log("SEND", "room: " + tokens[1] + ", user: " + userService.getUser().getUsername() + ", message: " + tokens[2]);
+                    auditService.log("SEND", currentUsername(), "room: " + tokens[1] + ", user: " + userService.getUser().getUsername() + ", message: " + tokens[2]);
                     room = chatService.getRoomById(Integer.parseInt(tokens[1]));
                     if (!checkRoomExists(room)) break;
                     chatService.sendMessage(room, userService.getUser(), tokens[2]);
@@ -103,7 +155,7 @@ public class CommandHandler {
                 // ADD_TO [room] [username]
                 case "ADD_TO":
                     if (!checkLoggedIn()) break;
-                    auditService.log("ADD_TO", "room: " + tokens[1] + ", userToAdd: " + tokens[2] + ", byUser: " + userService.getUser().getUsername());
+                    auditService.log("ADD_TO", currentUsername(), "room: " + tokens[1] + ", userToAdd: " + tokens[2] + ", byUser: " + userService.getUser().getUsername());
                     room = chatService.getRoomById(Integer.parseInt(tokens[1]));
                     user = chatService.getUserByName(tokens[2]);
                     if (!checkRoomIsGroup(room)) break;
@@ -113,7 +165,7 @@ public class CommandHandler {
                 // KICK [room] [username]
                 case "KICK":
                     if (!checkLoggedIn()) break;
-                    auditService.log("KICK", "room: " + tokens[1] + ", userToKick: " + tokens[2] + ", byUser: " + userService.getUser().getUsername());
+                    auditService.log("KICK", currentUsername(), "room: " + tokens[1] + ", userToKick: " + tokens[2] + ", byUser: " + userService.getUser().getUsername());
                     room = chatService.getRoomById(Integer.parseInt(tokens[1]));
                     user = chatService.getUserByName(tokens[2]);
                     if (!checkRoomIsGroup(room)) break;
@@ -125,9 +177,9 @@ public class CommandHandler {
                     if (!checkLoggedIn()) break;
                     String createType = tokens.length > 1 ? tokens[1] : "UNKNOWN";
                     String createDetails = tokens.length > 2 ? ", name/user: " + tokens[2] : "";
-                    auditService.log("CREATE", "type: " + createType + createDetails + ", createdBy: " + userService.getUser().getUsername());
+                    auditService.log("CREATE", currentUsername(), "type: " + createType + createDetails + ", createdBy: " + userService.getUser().getUsername());
                     if (Objects.equals(tokens[1], "GROUP")) {
-                        List<String> groups = ChatRoomJdbcService.getInstance().getChatRoomsWithMember(userService.getUser().getUsername());
+                        List<String> groups = Repositories.chatRooms().getChatRoomsWithMember(userService.getUser().getUsername());
                         // Note: groups.contains(tokens[1]) might be a bug if tokens[1] is "GROUP" and not the group name tokens[2]
                         // Assuming the intent was to check tokens[2] (group name)
                         if (groups.contains(tokens[2])) {
@@ -146,7 +198,7 @@ public class CommandHandler {
                 // SEARCH [room] [keyword]
                 case "SEARCH":
                     if (!checkLoggedIn()) break;
-                    auditService.log("SEARCH", "room: " + tokens[1] + ", keyword: " + tokens[2] + ", user: " + userService.getUser().getUsername());
+                    auditService.log("SEARCH", currentUsername(), "room: " + tokens[1] + ", keyword: " + tokens[2] + ", user: " + userService.getUser().getUsername());
                     room = chatService.getRoomById(Integer.parseInt(tokens[1]));
                     String keyword = tokens[2];
                     if (!checkRoomExists(room)) break;
@@ -155,7 +207,7 @@ public class CommandHandler {
                 // MSG_STATUS [room]
                 case "MSG_STATUS":
                     if (!checkLoggedIn()) break;
-                    auditService.log("MSG_STATUS", "room: " + tokens[1] + ", user: " + userService.getUser().getUsername());
+                    auditService.log("MSG_STATUS", currentUsername(), "room: " + tokens[1] + ", user: " + userService.getUser().getUsername());
                     room = chatService.getRoomById(Integer.parseInt(tokens[1]));
                     if (!checkRoomExists(room)) break;
                     userService.showMessageStatus(room);
@@ -163,7 +215,7 @@ public class CommandHandler {
                 // READ [room]
                 case "READ":
                     if (!checkLoggedIn()) break;
-                    auditService.log("READ", "room: " + tokens[1] + ", user: " + userService.getUser().getUsername());
+                    auditService.log("READ", currentUsername(), "room: " + tokens[1] + ", user: " + userService.getUser().getUsername());
                     room = chatService.getRoomById(Integer.parseInt(tokens[1]));
                     if (!checkRoomExists(room)) break;
                     userService.simulateReading(room);
@@ -171,7 +223,7 @@ public class CommandHandler {
                 // UNREAD [room]
                 case "UNREAD":
                     if (!checkLoggedIn()) break;
-                    auditService.log("UNREAD", "room: " + tokens[1] + ", user: " + userService.getUser().getUsername());
+                    auditService.log("UNREAD", currentUsername(), "room: " + tokens[1] + ", user: " + userService.getUser().getUsername());
                     room = chatService.getRoomById(Integer.parseInt(tokens[1]));
                     if (!checkRoomExists(room)) break;
                     userService.showUnreadMessages(room);
@@ -179,7 +231,7 @@ public class CommandHandler {
                 // UNREAD_CNT [room]
                 case "UNREAD_CNT":
                     if (!checkLoggedIn()) break;
-                    auditService.log("UNREAD_CNT", "room: " + tokens[1] + ", user: " + userService.getUser().getUsername());
+                    auditService.log("UNREAD_CNT", currentUsername(), "room: " + tokens[1] + ", user: " + userService.getUser().getUsername());
                     room = chatService.getRoomById(Integer.parseInt(tokens[1]));
                     if (!checkRoomExists(room)) break;
                     System.out.println(userService.getUnreadMessageCount(room));
@@ -187,7 +239,7 @@ public class CommandHandler {
                 // ADMIN [room] [username]
                 case "ADMIN":
                     if (!checkLoggedIn()) break;
-                    auditService.log("ADMIN", "room: " + tokens[1] + ", userToMakeAdmin: " + tokens[2] + ", byUser: " + userService.getUser().getUsername());
+                    auditService.log("ADMIN", currentUsername(), "room: " + tokens[1] + ", userToMakeAdmin: " + tokens[2] + ", byUser: " + userService.getUser().getUsername());
                     room = chatService.getRoomById(Integer.parseInt(tokens[1]));
                     user = chatService.getUserByName(tokens[2]);
                     if (!checkRoomIsGroup(room)) break;
@@ -197,7 +249,7 @@ public class CommandHandler {
                 // REM_ADMIN [room] [username]
                 case "REM_ADMIN":
                     if (!checkLoggedIn()) break;
-                    auditService.log("REM_ADMIN", "room: " + tokens[1] + ", userToRemoveAdmin: " + tokens[2] + ", byUser: " + userService.getUser().getUsername());
+                    auditService.log("REM_ADMIN", currentUsername(), "room: " + tokens[1] + ", userToRemoveAdmin: " + tokens[2] + ", byUser: " + userService.getUser().getUsername());
                     room = chatService.getRoomById(Integer.parseInt(tokens[1]));
                     user = chatService.getUserByName(tokens[2]);
                     if (!checkRoomIsGroup(room)) break;
@@ -206,14 +258,14 @@ public class CommandHandler {
                     break;
                 // ROLES [room]
                 case "ROLES":
-                    auditService.log("ROLES", "room: " + tokens[1] + (userService != null && userService.getUser() != null ? ", requestedBy: " + userService.getUser().getUsername() : ""));
+                    auditService.log("ROLES", currentUsername(), "room: " + tokens[1] + (userService != null && userService.getUser() != null ? ", requestedBy: " + userService.getUser().getUsername() : ""));
                     room = chatService.getRoomById(Integer.parseInt(tokens[1]));
                     if (!checkRoomIsGroup(room)) break;
                     ((GroupChat) room).showPermissions();
                     break;
                 case "EDIT":
                     if (!checkLoggedIn()) break;
-                    auditService.log("EDIT", "messageId: " + tokens[1] + ", newContent: " + tokens[2] + ", user: " + userService.getUser().getUsername());
+                    auditService.log("EDIT", currentUsername(), "messageId: " + tokens[1] + ", newContent: " + tokens[2] + ", user: " + userService.getUser().getUsername());
                     userService.updateMessageContent(Integer.parseInt(tokens[1]), tokens[2]);
                     break;
                 case "DELETE":
@@ -223,7 +275,7 @@ public class CommandHandler {
                     if (tokens.length > 2) {
                         deleteDetails = ", target: " + tokens[2];
                     }
-                    auditService.log("DELETE", "type: " + deleteType + deleteDetails + ", user: " + userService.getUser().getUsername());
+                    auditService.log("DELETE", currentUsername(), "type: " + deleteType + deleteDetails + ", user: " + userService.getUser().getUsername());
                     if (Objects.equals(tokens[1], "MSG")) {
                         userService.updateMessageContent(Integer.parseInt(tokens[2]), "DELETED");
                     } else if (Objects.equals(tokens[1], "GROUP")) {
@@ -234,8 +286,29 @@ public class CommandHandler {
                         System.out.println("Unknown command");
                     }
                     break;
+                // AUDIT QUERY [command=X] [user=X] [from=date/time] [to=date/time] [limit=N]
+                case "AUDIT":
+                    if (!checkLoggedIn() || !checkConsole()) break;
+                    auditService.log("AUDIT", currentUsername(), tokens.length > 2 ? "filters: " + tokens[2] : "");
+                    if (tokens.length > 1 && tokens[1].equals("QUERY")) {
+                        showAuditQuery(tokens.length > 2 ? tokens[2] : "");
+                    } else {
+                        System.out.println("Unknown command");
+                    }
+                    break;
+                // STATS / STATS RESET
+                case "STATS":
+                    auditService.log("STATS", currentUsername(), tokens.length > 1 ? "type: " + tokens[1] : "");
+                    if (tokens.length > 1 && tokens[1].equals("RESET")) {
+                        if (!checkLoggedIn() || !checkConsole()) break;
+                        StatsService.getInstance().reset();
+                        System.out.println("Statistics reset");
+                    } else {
+                        System.out.println(StatsService.getInstance().getReport());
+                    }
+                    break;
                 default:
-                    auditService.log(tokens[0], "Unknown or unhandled command" + (userService != null && userService.getUser() != null ? ", attemptedBy: " + userService.getUser().getUsername() : ""));
+                    auditService.log(tokens[0], currentUsername(), "Unknown or unhandled command" + (userService != null && userService.getUser() != null ? ", attemptedBy: " + userService.getUser().getUsername() : ""));
                     System.out.println("Unknown command");
             }
         }
@@ -244,6 +317,102 @@ public class CommandHandler {
         }
     }
 
+    /**
+     * Log out the current user, if any. Used when a client disconnects without LOGOUT.
+     */
+    public void endSession() {
+        if (userService == null) {
+            return;
+        }
+        auditService.log("LOGOUT", currentUsername(), "user: " + userService.getUser().getUsername() + ", disconnected");
+        unsubscribe();
+        userService.logout();
+        endLogin();
+        userService = null;
+    }
+
+    /**
+     * Refresh the presence of the logged in user, or forget the login if it expired while the client was idle
+     */
+    private void checkSessionActive() {
+        if (userService != null && !PresenceRegistry.getInstance().heartbeat(login)) {
+            System.out.println("Session expired, please log in again");
+            unsubscribe();
+            login = null;
+            userService = null;
+        }
+    }
+
+    private String currentUsername() {
+        return userService != null && userService.getUser() != null ? userService.getUser().getUsername() : null;
+    }
+
+    /**
+     * Print the audit entries matching filters such as "command=SEND user=john from=2025-06-03 to=2025-06-03T18:00".
+     * A date alone covers the whole day.
+     */
+    private void showAuditQuery(String filters) {
+        String command = null, username = null;
+        LocalDateTime from = null, to = null;
+        int limit = Constants.AUDIT_QUERY_LIMIT;
+        for (String filter : filters.split(" ")) {
+            String[] parts = filter.split("=", 2);
+            if (parts.length < 2) {
+                continue;
+            }
+            switch (parts[0]) {
+                case "command":
+                    command = parts[1];
+                    break;
+                case "user":
+                    username = parts[1];
+                    break;
+                case "from":
+                    from = parts[1].contains("T") ? LocalDateTime.parse(parts[1]) : LocalDate.parse(parts[1]).atStartOfDay();
+                    break;
+                case "to":
+                    to = parts[1].contains("T") ? LocalDateTime.parse(parts[1]) : LocalDate.parse(parts[1]).atTime(LocalTime.MAX);
+                    break;
+                case "limit":
+                    limit = Integer.parseInt(parts[1]);
+                    break;
+                default:
+                    System.out.println("Unknown filter " + parts[0]);
+                    return;
+            }
+        }
+        List<String> entries = auditService.query(command, username, from, to, limit);
+        if (entries.isEmpty()) {
+            System.out.println("No audit entries found");
+            return;
+        }
+        entries.forEach(System.out::println);
+    }
+
+    private void endLogin() {
+        if (login != null) {
+            sessionService.logout(login);
+            login = null;
+        }
+    }
+
+    private void unsubscribe() {
+        if (subscription != null) {
+            MessageBroker.getInstance().disconnect(subscription);
+            subscription = null;
+        }
+    }
+
+    /**
+     * @return The name the current command is timed under, UNKNOWN for anything not recognized
+     */
+    private String commandType() {
+        if (tokens.length > 1 && SUBCOMMANDS.contains(tokens[0] + " " + tokens[1])) {
+            return tokens[0] + " " + tokens[1];
+        }
+        return COMMANDS.contains(tokens[0]) ? tokens[0] : "UNKNOWN";
+    }
+
     public void readCommand(String input) {
         tokens = input.split(" ", 3);
     }
@@ -256,6 +425,14 @@ public class CommandHandler {
         return Boolean.TRUE;
     }
     
+    private Boolean checkConsole() {
+        if (!console) {
+            System.out.println("Only available from the server console!");
+            return Boolean.FALSE;
+        }
+        return Boolean.TRUE;
+    }
+
     private Boolean checkUserExists(User user) {
         if (user == null) {
             System.out.println("User given does not exist!");
@@ -7,17 +7,23 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+/**
+ * A message, either holding its own fields or a view over one row of a MessageBlock
+ */
 public class Message {
     private int messageId;
     private String content;
     private User sender;
     private LocalDateTime timestamp;
-    private Map<String, MessageStatus> deliveryStatus = new HashMap<>();
+    private Map<String, MessageStatus> deliveryStatus;
+    // Set when statuses come from the read watermarks of the room instead of per-message rows
+    private Map<String, ReadWatermark> watermarks;
+    // Set for a view, which keeps nothing else itself
+    private final MessageBlock block;
+    private final int row;
 
     public Message(String content, User sender) {
-        this.content = content;
-        this.sender = sender;
-        this.timestamp = LocalDateTime.now();
+        this(content, sender, LocalDateTime.now(), 0);
     }
 
     public Message(String content, User sender, LocalDateTime timestamp, int messageId) {
@@ -25,40 +31,76 @@ public class Message {
         this.sender = sender;
         this.timestamp = timestamp;
         this.messageId = messageId;
+        this.deliveryStatus = new HashMap<>();
+        this.block = null;
+        this.row = -1;
+    }
+
+    Message(MessageBlock block, int row) {
+        this.block = block;
+        this.row = row;
     }
 
-    public String getContent() { return content; }
-    public User getSender() { return sender; }
-    public LocalDateTime getTimestamp() { return timestamp; }
+    public String getContent() { return block != null ? block.getContent(row) : content; }
+    public User getSender() { return block != null ? block.getSender(row) : sender; }
+    public LocalDateTime getTimestamp() { return block != null ? block.getTimestamp(row) : timestamp; }
+
+    /**
+     * @return The statuses by username. For a view this is a copy, statuses are changed with markStatus.
+     */
     public Map<String, MessageStatus> getDeliveryStatus() {
-        return deliveryStatus;
+        return block != null ? block.getStatuses(row) : deliveryStatus;
     }
 
     public void markStatus(User user, MessageStatus status) {
-        deliveryStatus.put(user.getUsername(), status);
+        markStatus(user.getUsername(), status);
+    }
+
+    public void markStatus(String username, MessageStatus status) {
+        if (block != null) {
+            block.markStatus(row, username, status);
+        } else {
+            deliveryStatus.put(username, status);
+        }
     }
 
     public MessageStatus getStatus(String username) {
-        return deliveryStatus.getOrDefault(username, null);
+        Map<String, ReadWatermark> watermarks = block != null ? block.getWatermarks(row) : this.watermarks;
+        if (watermarks != null) {
+            if (username.equals(getSender().getUsername())) {
+                return MessageStatus.SENT;
+            }
+            ReadWatermark watermark = watermarks.get(username);
+            return watermark != null ? watermark.statusOf(getId()) : null;
+        }
+        return block != null ? block.getStatus(row, username) : deliveryStatus.getOrDefault(username, null);
+    }
+
+    public void useWatermarks(Map<String, ReadWatermark> watermarks) {
+        if (block != null) {
+            block.useWatermarks(row, watermarks);
+        } else {
+            this.watermarks = watermarks;
+        }
     }
 
     public void initializeStatus(Set<User> recipients) {
         for (User user : recipients) {
-            if (!user.getUsername().equals(sender.getUsername())) {
-                deliveryStatus.put(user.getUsername(), MessageStatus.RECEIVED);
+            if (!user.getUsername().equals(getSender().getUsername())) {
+                markStatus(user, MessageStatus.RECEIVED);
             }
             else {
-                deliveryStatus.put(user.getUsername(), MessageStatus.SENT);
+                markStatus(user, MessageStatus.SENT);
             }
         }
     }
 
     @Override
     public String toString() {
-        return messageId + ". " + "[" + timestamp + "] " + sender.getUsername() + ": " + content;
+        return getId() + ". " + "[" + getTimestamp() + "] " + getSender().getUsername() + ": " + getContent();
     }
 
     public int getId() {
-        return messageId;
+        return block != null ? block.getId(row) : messageId;
     }
 }
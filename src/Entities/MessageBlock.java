@@ -0,0 +1,205 @@
+package Entities;
+
+import Utils.MessageStatus;
+import Utils.UsernameDictionary;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The messages of a bulk read, stored by column instead of as one object graph per message:
+ * IDs, senders, timestamps and contents in parallel arrays, and the delivery statuses in one byte array
+ * per member. Senders and members are IDs from the UsernameDictionary, and each sender has a single
+ * User object, so a username costs nothing per message it appears in.
+ * Elements are Message views over a row; statuses marked through a view are stored in the block.
+ */
+public class MessageBlock extends AbstractList<Message> {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final MessageStatus[] STATUSES = MessageStatus.values();
+    private static final byte NO_STATUS = 0;
+
+    private final UsernameDictionary dictionary = UsernameDictionary.getInstance();
+    private int size = 0;
+    private int[] ids;
+    private int[] senderIds;
+    // Nanoseconds since the epoch, in UTC like the LocalDateTime values they come from
+    private long[] timestamps;
+    private String[] contents;
+    private final Map<Integer, User> senders = new HashMap<>();
+    // Members with a status in the block by slot, and their status per row as ordinal + 1.
+    // Rooms have few members, so slots are found by a linear scan.
+    private int[] memberIds = new int[0];
+    private byte[][] statuses = new byte[0][];
+    // Read watermarks of the room of each row, only allocated when used
+    private List<Map<String, ReadWatermark>> watermarks;
+
+    public MessageBlock() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public MessageBlock(int capacity) {
+        capacity = Math.max(capacity, 1);
+        ids = new int[capacity];
+        senderIds = new int[capacity];
+        timestamps = new long[capacity];
+        contents = new String[capacity];
+    }
+
+    /**
+     * Add a message while the block is being built
+     * @param sender The sender, kept for every later message of the same username
+     */
+    public void add(int messageId, User sender, LocalDateTime timestamp, String content) {
+        if (size == ids.length) {
+            grow();
+        }
+        int senderId = dictionary.idOf(sender.getUsername());
+        senders.putIfAbsent(senderId, sender);
+        ids[size] = messageId;
+        senderIds[size] = senderId;
+        timestamps[size] = timestamp.toEpochSecond(ZoneOffset.UTC) * 1_000_000_000L + timestamp.getNano();
+        contents[size] = content;
+        size++;
+    }
+
+    /**
+     * Reverse the order of the rows, for reads that walk an index backwards
+     */
+    public void reverse() {
+        if (watermarks != null) {
+            padWatermarks(size);
+        }
+        for (int i = 0, j = size - 1; i < j; i++, j--) {
+            swap(ids, i, j);
+            swap(senderIds, i, j);
+            long timestamp = timestamps[i];
+            timestamps[i] = timestamps[j];
+            timestamps[j] = timestamp;
+            String content = contents[i];
+            contents[i] = contents[j];
+            contents[j] = content;
+            for (byte[] column : statuses) {
+                byte status = column[i];
+                column[i] = column[j];
+                column[j] = status;
+            }
+            if (watermarks != null) {
+                Collections.swap(watermarks, i, j);
+            }
+        }
+    }
+
+    @Override
+    public Message get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+        }
+        return new Message(this, index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    int getId(int row) {
+        return ids[row];
+    }
+
+    User getSender(int row) {
+        return senders.get(senderIds[row]);
+    }
+
+    LocalDateTime getTimestamp(int row) {
+        long nanos = timestamps[row];
+        return LocalDateTime.ofEpochSecond(Math.floorDiv(nanos, 1_000_000_000L), (int) Math.floorMod(nanos, 1_000_000_000L), ZoneOffset.UTC);
+    }
+
+    String getContent(int row) {
+        return contents[row];
+    }
+
+    MessageStatus getStatus(int row, String username) {
+        int memberId = dictionary.findId(username);
+        int slot = memberId >= 0 ? slotOf(memberId) : -1;
+        return slot >= 0 && statuses[slot][row] != NO_STATUS ? STATUSES[statuses[slot][row] - 1] : null;
+    }
+
+    void markStatus(int row, String username, MessageStatus status) {
+        int memberId = dictionary.idOf(username);
+        int slot = slotOf(memberId);
+        if (slot < 0) {
+            slot = memberIds.length;
+            memberIds = Arrays.copyOf(memberIds, slot + 1);
+            statuses = Arrays.copyOf(statuses, slot + 1);
+            memberIds[slot] = memberId;
+            statuses[slot] = new byte[ids.length];
+        }
+        statuses[slot][row] = (byte) (status.ordinal() + 1);
+    }
+
+    /**
+     * @return A copy of the statuses of a row by username
+     */
+    Map<String, MessageStatus> getStatuses(int row) {
+        Map<String, MessageStatus> rowStatuses = new HashMap<>();
+        for (int slot = 0; slot < memberIds.length; slot++) {
+            if (statuses[slot][row] != NO_STATUS) {
+                rowStatuses.put(dictionary.usernameOf(memberIds[slot]), STATUSES[statuses[slot][row] - 1]);
+            }
+        }
+        return rowStatuses;
+    }
+
+    Map<String, ReadWatermark> getWatermarks(int row) {
+        return watermarks != null && row < watermarks.size() ? watermarks.get(row) : null;
+    }
+
+    void useWatermarks(int row, Map<String, ReadWatermark> rowWatermarks) {
+        if (watermarks == null) {
+            watermarks = new ArrayList<>(ids.length);
+        }
+        padWatermarks(row + 1);
+        watermarks.set(row, rowWatermarks);
+    }
+
+    // Rows are only added to the watermark list when used, the rows after the last one used have none
+    private void padWatermarks(int rows) {
+        while (watermarks.size() < rows) {
+            watermarks.add(null);
+        }
+    }
+
+    private int slotOf(int memberId) {
+        for (int slot = 0; slot < memberIds.length; slot++) {
+            if (memberIds[slot] == memberId) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        senderIds = Arrays.copyOf(senderIds, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        contents = Arrays.copyOf(contents, capacity);
+        for (int slot = 0; slot < statuses.length; slot++) {
+            statuses[slot] = Arrays.copyOf(statuses[slot], capacity);
+        }
+    }
+
+    private static void swap(int[] values, int i, int j) {
+        int value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
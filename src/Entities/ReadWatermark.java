@@ -0,0 +1,40 @@
+package Entities;
+
+import Utils.MessageStatus;
+
+/**
+ * Delivery state of one user in one room, replacing a status row per message:
+ * every message up to deliveredId has been delivered to the user and every message up to readId has been read.
+ * Messages up to joinedId were sent before the user joined and have no status for them.
+ */
+public class ReadWatermark {
+    private final int joinedId;
+    private final int deliveredId;
+    private final int readId;
+
+    public ReadWatermark(int joinedId, int deliveredId, int readId) {
+        this.joinedId = joinedId;
+        this.deliveredId = deliveredId;
+        this.readId = readId;
+    }
+
+    public int getJoinedId() { return joinedId; }
+    public int getDeliveredId() { return deliveredId; }
+    public int getReadId() { return readId; }
+
+    /**
+     * @return The status of a message not sent by this user, or null if the user has no status for it
+     */
+    public MessageStatus statusOf(int messageId) {
+        if (messageId <= joinedId) {
+            return null;
+        }
+        if (messageId <= readId) {
+            return MessageStatus.READ;
+        }
+        if (messageId <= deliveredId) {
+            return MessageStatus.RECEIVED;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,51 @@
+package Entities;
+
+import java.time.LocalDateTime;
+
+/**
+ * One line of a user's inbox: a room with its latest message and the user's unread count
+ */
+public class RoomSummary {
+    private final int chatRoomId;
+    private final String name;
+    private final String roomType;
+    // 0 and nulls when the room has no message
+    private final int lastMessageId;
+    private final String lastSender;
+    private final String lastPreview;
+    private final LocalDateTime lastActivity;
+    private final int unreadCount;
+
+    public RoomSummary(int chatRoomId, String name, String roomType, int lastMessageId, String lastSender,
+                       String lastPreview, LocalDateTime lastActivity, int unreadCount) {
+        this.chatRoomId = chatRoomId;
+        this.name = name;
+        this.roomType = roomType;
+        this.lastMessageId = lastMessageId;
+        this.lastSender = lastSender;
+        this.lastPreview = lastPreview;
+        this.lastActivity = lastActivity;
+        this.unreadCount = unreadCount;
+    }
+
+    public int getChatRoomId() { return chatRoomId; }
+    public String getName() { return name; }
+    public String getRoomType() { return roomType; }
+    public int getLastMessageId() { return lastMessageId; }
+    public String getLastSender() { return lastSender; }
+    public String getLastPreview() { return lastPreview; }
+    public LocalDateTime getLastActivity() { return lastActivity; }
+    public int getUnreadCount() { return unreadCount; }
+
+    @Override
+    public String toString() {
+        String summary = chatRoomId + ". " + name + " [" + roomType + "]";
+        if (unreadCount > 0) {
+            summary += " (" + unreadCount + " unread)";
+        }
+        if (lastMessageId == 0) {
+            return summary + " - no messages";
+        }
+        return summary + " - [" + lastActivity + "] " + lastSender + ": " + lastPreview;
+    }
+}
@@ -1,15 +1,67 @@
+import Config.Constants;
+import Config.MigrationRunner;
 import Entities.*;
+import Repository.Repositories;
+import Server.BatchRunner;
+import Server.ChatServer;
 import Services.ChatService;
+import Services.MaintenanceService;
+import Services.PresenceRegistry;
 import Services.SessionService;
 import Services.UserService;
+import Utils.StorageBackend;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Scanner;
 
 public class Main {
     public static ChatService service = new ChatService();
     public static SessionService sessionService = new SessionService();
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        List<String> options = new ArrayList<>(Arrays.asList(args));
+
+        // --storage mysql / memory -> where users, rooms, messages and sessions are kept
+        int storageIndex = options.indexOf("--storage");
+        if (storageIndex >= 0 && storageIndex + 1 < options.size()) {
+            Repositories.select(StorageBackend.valueOf(options.get(storageIndex + 1).toUpperCase()));
+            options.subList(storageIndex, storageIndex + 2).clear();
+        }
+
+        // Refuse to run against a schema that is behind or no longer matches the migration scripts
+        if (Repositories.getBackend() == StorageBackend.MYSQL && !MigrationRunner.migrate()) {
+            System.err.println("Database schema is not up to date, exiting");
+            System.exit(1);
+        }
+
+        PresenceRegistry.getInstance().start();
+
+        // --batch [file] -> run the commands of a file, or of standard input, without the prompt and exit
+        if (!options.isEmpty() && options.get(0).equals("--batch")) {
+            try (BufferedReader reader = options.size() > 1
+                    ? Files.newBufferedReader(Paths.get(options.get(1)))
+                    : new BufferedReader(new InputStreamReader(System.in))) {
+                new BatchRunner(service, sessionService).run(reader);
+            }
+            System.exit(0);
+        }
+
+        MaintenanceService.getInstance().start();
+
+        // --server [port] [max_connections] -> serve many clients over TCP instead of the console
+        if (!options.isEmpty() && options.get(0).equals("--server")) {
+            int port = options.size() > 1 ? Integer.parseInt(options.get(1)) : Constants.SERVER_PORT;
+            int maxConnections = options.size() > 2 ? Integer.parseInt(options.get(2)) : Constants.SERVER_MAX_CONNECTIONS;
+            new ChatServer(port, maxConnections, service, sessionService).start();
+            return;
+        }
 
         Scanner scanner = new Scanner(System.in);
         CommandHandler handler = new CommandHandler(service, sessionService);
@@ -19,7 +71,7 @@ public class Main {
         // REGISTER [username]
         // LOGIN [username]
         // LOGOUT [username]
-        // SHOW ROOMS / MSG [room_id] / PARTICIPANTS [room_id] / EMPTY_SLOTS [room_id] -> for user currently logged in
+        // SHOW ROOMS [page] / MSG [room_id] [before_id] / PARTICIPANTS [room_id] / EMPTY_SLOTS [room_id] -> for user currently logged in
         // SEND [room_id] [msg] -> send message
         // ADD_TO [room_id] [username] -> add to group
         // KICK [room_id] [username] -> kick from group
@@ -34,6 +86,8 @@ public class Main {
         // ROLES [room_id] -> show roles of all participants in a room
         // EDIT [message_id] -> edit the content of a message
         // DELETE GROUP [room_id] / MSG [message_id]
+        // AUDIT QUERY [command=X] [user=X] [from=date/time] [to=date/time] [limit=N] -> search the audit log (console only)
+        // STATS / STATS RESET -> latency, SQL statements and cache hit rates per command (RESET: console only)
 
         while (true) {
             System.out.println("\nEnter command:");
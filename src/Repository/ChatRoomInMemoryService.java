@@ -0,0 +1,219 @@
+package Repository;
+
+import Config.Constants;
+import Entities.ChatRoom;
+import Entities.Message;
+import Entities.RoomSummary;
+import Entities.User;
+import Services.MessageBroker;
+import Services.SearchIndexService;
+import Utils.GroupPermission;
+import Utils.UserStatus;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chat rooms kept in memory only. Members are indexed both by room and by user,
+ * so permission checks and the rooms of a user are single map lookups.
+ */
+public class ChatRoomInMemoryService implements ChatRoomRepository {
+    private static final ChatRoomInMemoryService instance = new ChatRoomInMemoryService();
+    private final AtomicInteger nextRoomId = new AtomicInteger(1);
+    private final Map<Integer, Room> rooms = new ConcurrentSkipListMap<>();
+    private final Map<String, Set<Integer>> roomIdsByMember = new ConcurrentHashMap<>();
+
+    private ChatRoomInMemoryService() {
+    }
+
+    public static ChatRoomInMemoryService getInstance() {
+        return instance;
+    }
+
+    public int createChatRoom(ChatRoom chatRoom, String roomType, Integer maxUsers) {
+        int chatRoomId = nextRoomId.getAndIncrement();
+        rooms.put(chatRoomId, new Room(chatRoom.getName(), roomType));
+        for (User participant : chatRoom.getParticipants()) {
+            addParticipant(chatRoomId, participant.getUsername(), GroupPermission.OWNER);
+        }
+        return chatRoomId;
+    }
+
+    public boolean addParticipant(int chatRoomId, String username, GroupPermission permission) {
+        Room room = rooms.get(chatRoomId);
+        if (room == null || UserInMemoryService.getInstance().getStatus(username) == null) {
+            System.err.println("Error adding participant: unknown room or user");
+            return false;
+        }
+        if (room.members.putIfAbsent(username, permission) != null) {
+            System.err.println("Error adding participant: " + username + " is already part of room " + chatRoomId);
+            return false;
+        }
+        roomIdsByMember.computeIfAbsent(username, key -> new ConcurrentSkipListSet<>()).add(chatRoomId);
+        MessageBroker.getInstance().joinRoom(chatRoomId, username);
+        return true;
+    }
+
+    public ChatRoom getChatRoomById(int chatRoomId) {
+        Room room = rooms.get(chatRoomId);
+        if (room == null) {
+            return null;
+        }
+        RoomSnapshot snapshot = new RoomSnapshot(room.name, room.roomType);
+        room.members.forEach((username, permission) -> {
+            UserStatus status = UserInMemoryService.getInstance().getStatus(username);
+            snapshot.addMember(username, status != null ? status : UserStatus.OFFLINE, permission);
+        });
+        return snapshot.toChatRoom(chatRoomId);
+    }
+
+    public GroupPermission getParticipantPermission(int chatRoomId, String username) {
+        Room room = rooms.get(chatRoomId);
+        return room != null ? room.members.get(username) : null;
+    }
+
+    public boolean isParticipant(int chatRoomId, String username) {
+        Room room = rooms.get(chatRoomId);
+        return room != null && room.members.containsKey(username);
+    }
+
+    public boolean updateParticipantPermission(int chatRoomId, String username, GroupPermission permission) {
+        Room room = rooms.get(chatRoomId);
+        return room != null && room.members.replace(username, permission) != null;
+    }
+
+    public Set<User> getParticipants(int chatRoomId) {
+        Set<User> participants = new TreeSet<>();
+        Room room = rooms.get(chatRoomId);
+        if (room != null) {
+            for (String username : room.members.keySet()) {
+                User user = UserInMemoryService.getInstance().getUserByUsername(username);
+                if (user != null) {
+                    participants.add(user);
+                }
+            }
+        }
+        return participants;
+    }
+
+    public List<String> getAllChatRooms() {
+        List<String> chatRooms = new ArrayList<>();
+        rooms.values().forEach(room -> chatRooms.add(room.name));
+        return chatRooms;
+    }
+
+    public List<String> getChatRoomsWithMember(String username) {
+        List<String> chatRooms = new ArrayList<>();
+        for (Integer chatRoomId : getChatRoomIdsWithMember(username)) {
+            Room room = rooms.get(chatRoomId);
+            if (room != null) {
+                chatRooms.add(chatRoomId + ". " + room.name);
+            }
+        }
+        return chatRooms;
+    }
+
+    public List<Integer> getChatRoomIdsWithMember(String username) {
+        return new ArrayList<>(roomIdsByMember.getOrDefault(username, Set.of()));
+    }
+
+    public List<RoomSummary> getRoomSummaries(String username, int offset, int limit) {
+        List<RoomSummary> summaries = new ArrayList<>();
+        for (Integer chatRoomId : getChatRoomIdsWithMember(username)) {
+            Room room = rooms.get(chatRoomId);
+            if (room == null) {
+                continue;
+            }
+            Message latest = MessageInMemoryService.getInstance().getLatestMessage(chatRoomId);
+            int unreadCount = MessageInMemoryService.getInstance().getUnreadCount(chatRoomId, username);
+            if (latest == null) {
+                summaries.add(new RoomSummary(chatRoomId, room.name, room.roomType, 0, null, null, null, unreadCount));
+            } else {
+                String content = latest.getContent();
+                summaries.add(new RoomSummary(chatRoomId, room.name, room.roomType, latest.getId(), latest.getSender().getUsername(),
+                        content.substring(0, Math.min(content.length(), Constants.INBOX_PREVIEW_LENGTH)),
+                        latest.getTimestamp(), unreadCount));
+            }
+        }
+        // Same order as the JDBC service: newest latest message first, then rooms without messages by ID
+        summaries.sort(Comparator.comparing((RoomSummary summary) -> summary.getLastMessageId() == 0)
+                .thenComparing(RoomSummary::getLastMessageId, Comparator.reverseOrder())
+                .thenComparing(RoomSummary::getChatRoomId, Comparator.reverseOrder()));
+        return summaries.subList(Math.min(offset, summaries.size()), Math.min(offset + limit, summaries.size()));
+    }
+
+    public boolean deleteChatRoom(int chatRoomId) {
+        Room room = rooms.remove(chatRoomId);
+        if (room == null) {
+            return false;
+        }
+        for (String username : room.members.keySet()) {
+            Set<Integer> roomIds = roomIdsByMember.get(username);
+            if (roomIds != null) {
+                roomIds.remove(chatRoomId);
+            }
+        }
+        MessageInMemoryService.getInstance().deleteRoomMessages(chatRoomId);
+        SearchIndexService.getInstance().onRoomDeleted(chatRoomId);
+        MessageBroker.getInstance().closeRoom(chatRoomId);
+        return true;
+    }
+
+    public boolean removeParticipant(int chatRoomId, String username) {
+        Room room = rooms.get(chatRoomId);
+        if (room == null || room.members.remove(username) == null) {
+            return false;
+        }
+        Set<Integer> roomIds = roomIdsByMember.get(username);
+        if (roomIds != null) {
+            roomIds.remove(chatRoomId);
+        }
+        MessageBroker.getInstance().leaveRoom(chatRoomId, username);
+        return true;
+    }
+
+    /**
+     * @return The usernames of the members of a room, empty if the room does not exist
+     */
+    Set<String> getMemberUsernames(int chatRoomId) {
+        Room room = rooms.get(chatRoomId);
+        return room != null ? room.members.keySet() : Set.of();
+    }
+
+    boolean exists(int chatRoomId) {
+        return rooms.containsKey(chatRoomId);
+    }
+
+    void removeMemberEverywhere(String username) {
+        Set<Integer> roomIds = roomIdsByMember.remove(username);
+        if (roomIds != null) {
+            for (Integer chatRoomId : roomIds) {
+                Room room = rooms.get(chatRoomId);
+                if (room != null) {
+                    room.members.remove(username);
+                }
+                MessageBroker.getInstance().leaveRoom(chatRoomId, username);
+            }
+        }
+    }
+
+    private static class Room {
+        private final String name;
+        private final String roomType;
+        // Sorted by username, the order RoomSnapshot expects
+        private final Map<String, GroupPermission> members = new ConcurrentSkipListMap<>();
+
+        private Room(String name, String roomType) {
+            this.name = name;
+            this.roomType = roomType;
+        }
+    }
+}
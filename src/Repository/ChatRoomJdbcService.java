@@ -2,31 +2,46 @@ package Repository;
 
 import Config.Constants;
 import Config.DatabaseConnection;
+import Config.RollbackListeners;
 import Entities.ChatRoom;
-import Entities.GroupChat;
-import Entities.PrivateChat;
+import Entities.Message;
+import Entities.RoomSummary;
 import Entities.User;
 import Services.AuditService;
+import Services.MessageBroker;
+import Services.SearchIndexService;
 import Utils.GroupPermission;
+import Utils.LruCache;
+import Utils.UserStatus;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
-public class ChatRoomJdbcService {
-    private static ChatRoomJdbcService instance;
-    private final UserJdbcService userService;
+public class ChatRoomJdbcService implements ChatRoomRepository {
+    private static final ChatRoomJdbcService instance = new ChatRoomJdbcService();
+    // Room rows with their members, by room ID. Invalidated by every participant change.
+    private final LruCache<Integer, RoomSnapshot> roomCache = new LruCache<>(Constants.ROOM_CACHE_MAX_SIZE, Constants.ROOM_CACHE_TTL_MILLIS);
+    // Permissions by member, by room ID, loaded on the first check of a room and kept up to date by the
+    // participant changes.
+    private final LruCache<Integer, Map<String, GroupPermission>> aclCache = new LruCache<>(Constants.ACL_CACHE_MAX_SIZE, Constants.ACL_CACHE_TTL_MILLIS);
+    // Both caches only keep a load if no participant changed while it ran. Counting a change and
+    // updating the caches happen under cacheLock, like the check and put of a load, see cacheIfUnchanged.
+    private final AtomicLong participantChanges = new AtomicLong();
+    private final Object cacheLock = new Object();
     
     private ChatRoomJdbcService() {
-        userService = UserJdbcService.getInstance();
+        RollbackListeners.register(this::clearCaches);
     }
     
     public static ChatRoomJdbcService getInstance() {
-        if (instance == null) {
-            instance = new ChatRoomJdbcService();
-        }
         return instance;
     }
     
@@ -41,31 +56,45 @@ public class ChatRoomJdbcService {
         String sql = "INSERT INTO " + Constants.CHATROOM_TABLE + " (name, room_type, max_users) VALUES (?, ?, ?)";
         int chatRoomId = -1;
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
-            
-            stmt.setString(1, chatRoom.getName());
-            stmt.setString(2, roomType);
-            stmt.setInt(3, maxUsers);
+        // The room and its owners are inserted on one connection, in one transaction
+        try (Connection conn = DatabaseConnection.getDatabaseConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                    stmt.setString(1, chatRoom.getName());
+                    stmt.setString(2, roomType);
+                    stmt.setInt(3, maxUsers);
+                    stmt.executeUpdate();
 
-            int affectedRows = stmt.executeUpdate();
-            
-            if (affectedRows > 0) {
-                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        chatRoomId = generatedKeys.getInt(1);
-                        
-                        // Add participants
-                        for (User participant : chatRoom.getParticipants()) {
-                            addParticipant(chatRoomId, participant.getUsername(), GroupPermission.OWNER);
+                    try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                        if (!generatedKeys.next()) {
+                            throw new SQLException("No ID generated for chat room " + chatRoom.getName());
                         }
+                        chatRoomId = generatedKeys.getInt(1);
+                    }
+                }
+
+                for (User participant : chatRoom.getParticipants()) {
+                    if (!insertParticipant(conn, chatRoomId, participant.getUsername(), GroupPermission.OWNER)) {
+                        throw new SQLException("Could not add owner " + participant.getUsername());
                     }
                 }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
             }
             
         } catch (SQLException e) {
             System.err.println("Error creating chat room: " + e.getMessage());
+            return -1;
+        }
+
+        for (User participant : chatRoom.getParticipants()) {
+            MessageBroker.getInstance().joinRoom(chatRoomId, participant.getUsername());
+            participantChanged(chatRoomId, acl -> acl.put(participant.getUsername(), GroupPermission.OWNER));
         }
         
         return chatRoomId;
@@ -79,122 +108,207 @@ public class ChatRoomJdbcService {
      * @return True if successful
      */
     public boolean addParticipant(int chatRoomId, String username, GroupPermission permission) {
-        String sql = "INSERT INTO " + Constants.PARTICIPANTS_TABLE + 
-                     " (chatroom_id, username, permission) VALUES (?, ?, ?)";
+        boolean added = false;
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            
-            stmt.setInt(1, chatRoomId);
-            stmt.setString(2, username);
-            stmt.setString(3, permission.toString());
-            
-            int affectedRows = stmt.executeUpdate();
-            return affectedRows > 0;
+        try (Connection conn = DatabaseConnection.getDatabaseConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                boolean inserted = insertParticipant(conn, chatRoomId, username, permission);
+                conn.commit();
+                added = inserted;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+            if (added) {
+                MessageBroker.getInstance().joinRoom(chatRoomId, username);
+            }
+            return added;
             
         } catch (SQLException e) {
             System.err.println("Error adding participant: " + e.getMessage());
             return false;
+        } finally {
+            participantChanged(chatRoomId, added ? acl -> acl.put(username, permission) : null);
         }
     }
+
+    /**
+     * Insert a participant of a chat room, with its read watermark when those are enabled
+     * @param conn The connection to insert on, in the caller's transaction
+     * @param chatRoomId The ID of the chat room
+     * @param username The username of the participant
+     * @param permission The permission of the participant
+     * @return True if the participant was inserted
+     */
+    private boolean insertParticipant(Connection conn, int chatRoomId, String username, GroupPermission permission) throws SQLException {
+        String sql = "INSERT INTO " + Constants.PARTICIPANTS_TABLE + 
+                     " (chatroom_id, username, permission) VALUES (?, ?, ?)";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, chatRoomId);
+            stmt.setString(2, username);
+            stmt.setString(3, permission.toString());
+
+            if (stmt.executeUpdate() == 0) {
+                return false;
+            }
+        }
+        if (DatabaseConnection.useReadWatermarks()) {
+            MessageJdbcService.getInstance().initializeWatermark(conn, chatRoomId, username);
+        }
+        return true;
+    }
     
     /**
-     * Retrieve a chat room by its ID
+     * Retrieve a chat room by its ID, from the room cache if possible.
+     * A cache miss loads the room, its participants and their permissions with a single joined query.
      * @param chatRoomId The ID of the chat room
      * @return The ChatRoom if found, null otherwise
      */
     public ChatRoom getChatRoomById(int chatRoomId) {
-        String sql = "SELECT * FROM " + Constants.CHATROOM_TABLE + " WHERE id = ?";
-        
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            
-            stmt.setInt(1, chatRoomId);
-            
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    String name = rs.getString("name");
-                    String roomType = rs.getString("room_type");
-                    Integer maxUsers = rs.getObject("max_users", Integer.class);
-                    
-                    // Get participants
-                    Set<User> participants = getParticipants(chatRoomId);
-                    
-                    ChatRoom chatRoom;
-                    if (roomType.equals("GROUP")) {
-                        // Create a group chat
-                        User creator = null;
-                        for (User user : participants) {
-                            if (getParticipantPermission(chatRoomId, user.getUsername()) == GroupPermission.OWNER) {
-                                creator = user;
-                                break;
-                            }
-                        }
+        RoomSnapshot snapshot = roomCache.get(chatRoomId);
+        if (snapshot == null) {
+            long changesBefore = participantChanges.get();
+            snapshot = loadRoomSnapshot(chatRoomId);
+            if (snapshot == null) {
+                return null;
+            }
+            cacheIfUnchanged(roomCache, chatRoomId, snapshot, changesBefore);
+        }
+        return snapshot.toChatRoom(chatRoomId);
+    }
 
-                        if (creator == null) {
-                            creator = new User("UNKNOWN");
-                        }
+    /**
+     * Load a chat room together with its participants and their permissions
+     * @param chatRoomId The ID of the chat room
+     * @return The room snapshot, or null if the room does not exist
+     */
+    private RoomSnapshot loadRoomSnapshot(int chatRoomId) {
+        String sql = "SELECT r.name, r.room_type, r.max_users, p.username, p.permission, u.status FROM "
+                     + Constants.CHATROOM_TABLE + " r LEFT JOIN " + Constants.PARTICIPANTS_TABLE
+                     + " p ON (p.chatroom_id = r.id) LEFT JOIN " + Constants.USER_TABLE
+                     + " u ON (u.username = p.username) WHERE r.id = ? ORDER BY p.username";
 
-                        chatRoom = new GroupChat(name, creator, chatRoomId);
-                        
-                        // Add all participants
-                        for (User participant : participants) {
-                            if (participant != creator) {
-                                ((GroupChat) chatRoom).addParticipant(participant);
-                                
-                                // Set permissions
-                                GroupPermission permission = getParticipantPermission(chatRoomId, participant.getUsername());
-                                if (permission != null) {
-                                    ((GroupChat) chatRoom).setPermissions(participant, permission);
-                                }
-                            }
-                        }
-                    } else {
-                        User[] users = participants.toArray(new User[0]);
-                        chatRoom = new PrivateChat(users[0], users[1], chatRoomId);
-                    }
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
 
-                    return chatRoom;
+            stmt.setInt(1, chatRoomId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                RoomSnapshot snapshot = null;
+                while (rs.next()) {
+                    if (snapshot == null) {
+                        snapshot = new RoomSnapshot(rs.getString("name"), rs.getString("room_type"));
+                    }
+                    String username = rs.getString("username");
+                    // A room without participants still returns one row, with null participant columns
+                    if (username != null) {
+                        String status = rs.getString("status");
+                        String permission = rs.getString("permission");
+                        snapshot.addMember(username,
+                                status != null ? UserStatus.valueOf(status) : UserStatus.OFFLINE,
+                                permission != null ? GroupPermission.valueOf(permission) : null);
+                    }
                 }
+                return snapshot;
             }
-            
+
         } catch (SQLException e) {
             System.err.println("Error retrieving chat room: " + e.getMessage());
         }
-        
+
         return null;
     }
     
     /**
-     * Get the permission of a participant in a chat room
+     * Get the permission of a participant in a chat room, from the room's ACL
      * @param chatRoomId The ID of the chat room
      * @param username The username of the participant
      * @return The permission string, or null if not found
      */
     public GroupPermission getParticipantPermission(int chatRoomId, String username) {
-        String sql = "SELECT permission FROM " + Constants.PARTICIPANTS_TABLE + 
-                     " WHERE chatroom_id = ? AND username = ?";
-        
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            
+        Map<String, GroupPermission> acl = getAcl(chatRoomId);
+        return acl != null ? acl.get(username) : null;
+    }
+
+    /**
+     * Check membership in a chat room, from the room's ACL
+     * @param chatRoomId The ID of the chat room
+     * @param username The username to check
+     * @return True if the user is a participant of the room
+     */
+    public boolean isParticipant(int chatRoomId, String username) {
+        Map<String, GroupPermission> acl = getAcl(chatRoomId);
+        return acl != null && acl.containsKey(username);
+    }
+
+    /**
+     * @return The permissions of the participants of a room by username, empty if the room does not exist,
+     * or null if they could not be loaded
+     */
+    private Map<String, GroupPermission> getAcl(int chatRoomId) {
+        Map<String, GroupPermission> acl = aclCache.get(chatRoomId);
+        if (acl != null) {
+            return acl;
+        }
+
+        String sql = "SELECT username, permission FROM " + Constants.PARTICIPANTS_TABLE + " WHERE chatroom_id = ?";
+        long changesBefore = participantChanges.get();
+        acl = new ConcurrentHashMap<>();
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
             stmt.setInt(1, chatRoomId);
-            stmt.setString(2, username);
-            
+
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return GroupPermission.valueOf(rs.getString("permission"));
+                while (rs.next()) {
+                    String permission = rs.getString("permission");
+                    acl.put(rs.getString("username"), permission != null ? GroupPermission.valueOf(permission) : GroupPermission.MEMBER);
                 }
             }
-            
+
         } catch (SQLException e) {
-            System.err.println("Error retrieving participant permission: " + e.getMessage());
+            System.err.println("Error retrieving participant permissions: " + e.getMessage());
+            return null;
+        }
+
+        cacheIfUnchanged(aclCache, chatRoomId, acl, changesBefore);
+        return acl;
+    }
+
+    /**
+     * Cache what a load read, unless a participant changed since it started: the change may be missing
+     * from the result, so it is left to the next read
+     * @param changesBefore The participant change count read before the load
+     */
+    private <V> void cacheIfUnchanged(LruCache<Integer, V> cache, int chatRoomId, V value, long changesBefore) {
+        synchronized (cacheLock) {
+            if (participantChanges.get() == changesBefore) {
+                cache.put(chatRoomId, value);
+            }
+        }
+    }
+
+    /**
+     * Record a participant change of a room: apply it to the room's ACL if it is cached and drop the cached room
+     * @param change The change to the ACL, or null to drop the ACL as well
+     */
+    private void participantChanged(int chatRoomId, Consumer<Map<String, GroupPermission>> change) {
+        synchronized (cacheLock) {
+            participantChanges.incrementAndGet();
+            Map<String, GroupPermission> acl = aclCache.peek(chatRoomId);
+            if (acl != null && change != null) {
+                change.accept(acl);
+            } else if (acl != null) {
+                aclCache.invalidate(chatRoomId);
+            }
+            roomCache.invalidate(chatRoomId);
         }
-        
-        return null;
     }
     
     /**
@@ -207,21 +321,23 @@ public class ChatRoomJdbcService {
     public boolean updateParticipantPermission(int chatRoomId, String username, GroupPermission permission) {
         String sql = "UPDATE " + Constants.PARTICIPANTS_TABLE + 
                      " SET permission = ? WHERE chatroom_id = ? AND username = ?";
+        boolean updated = false;
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, permission.toString());
             stmt.setInt(2, chatRoomId);
             stmt.setString(3, username);
             
-            int affectedRows = stmt.executeUpdate();
-            return affectedRows > 0;
+            updated = stmt.executeUpdate() > 0;
+            return updated;
             
         } catch (SQLException e) {
             System.err.println("Error updating participant permission: " + e.getMessage());
             return false;
+        } finally {
+            participantChanged(chatRoomId, updated ? acl -> acl.replace(username, permission) : null);
         }
     }
     
@@ -231,23 +347,21 @@ public class ChatRoomJdbcService {
      * @return Set of participants
      */
     public Set<User> getParticipants(int chatRoomId) {
-        String sql = "SELECT username FROM " + Constants.PARTICIPANTS_TABLE + 
-                     " WHERE chatroom_id = ?";
+        // Joined with the users, so the participants are read on this one connection
+        String sql = "SELECT u.username, u.status FROM " + Constants.PARTICIPANTS_TABLE + " p JOIN "
+                     + Constants.USER_TABLE + " u ON (u.username = p.username) WHERE p.chatroom_id = ?";
         Set<User> participants = new TreeSet<>();
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, chatRoomId);
             
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    String username = rs.getString("username");
-                    User user = userService.getUserByUsername(username);
-                    if (user != null) {
-                        participants.add(user);
-                    }
+                    User user = new User(rs.getString("username"));
+                    user.setStatus(UserStatus.valueOf(rs.getString("status")));
+                    participants.add(user);
                 }
             }
             
@@ -266,10 +380,9 @@ public class ChatRoomJdbcService {
         String sql = "SELECT name FROM " + Constants.CHATROOM_TABLE;
         List<String> chatRooms = new ArrayList<>();
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
                 String chatRoomName = rs.getString("name");
@@ -294,9 +407,8 @@ public class ChatRoomJdbcService {
                     + "WHERE p.username = ?";
         List<String> chatRooms = new ArrayList<>();
 
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, username);
 
             try (ResultSet rs = stmt.executeQuery()) {
@@ -313,6 +425,108 @@ public class ChatRoomJdbcService {
 
         return chatRooms;
     }
+
+    /**
+     * Get one page of a user's inbox in a single query. The latest message of each room is found through the
+     * (chatroom_id, id) index and the unread count comes from the maintained counters, so the cost depends on
+     * the number of rooms of the user and not on their history. Message IDs grow with time, so the newest
+     * message ID of a room gives its activity order.
+     * A room whose whole history is archived is listed with the rooms without messages, and its latest
+     * message is then read from the archive.
+     * @param username The username of the participant
+     * @param offset The number of rooms to skip
+     * @param limit Maximum number of rooms to return
+     * @return The rooms of the user with their latest message and unread count, most recently active first
+     */
+    public List<RoomSummary> getRoomSummaries(String username, int offset, int limit) {
+        String sql = "SELECT c.id, c.name, c.room_type, m.id AS last_id, m.sender_username, m.timestamp,"
+                     + " SUBSTRING(m.content, 1, ?) AS preview, COALESCE(u.unread_count, 0) AS unread_count"
+                     + " FROM " + Constants.PARTICIPANTS_TABLE + " p"
+                     + " JOIN " + Constants.CHATROOM_TABLE + " c ON (c.id = p.chatroom_id)"
+                     + " LEFT JOIN " + Constants.MESSAGE_TABLE + " m ON (m.id = (SELECT MAX(id) FROM " + Constants.MESSAGE_TABLE
+                     + " WHERE chatroom_id = p.chatroom_id))"
+                     + " LEFT JOIN " + Constants.UNREAD_COUNTER_TABLE + " u ON (u.username = p.username AND u.chatroom_id = p.chatroom_id)"
+                     + " WHERE p.username = ?"
+                     + " ORDER BY m.id IS NULL, m.id DESC, c.id DESC LIMIT ? OFFSET ?";
+        List<RoomSummary> summaries = new ArrayList<>();
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, Constants.INBOX_PREVIEW_LENGTH);
+            stmt.setString(2, username);
+            stmt.setInt(3, limit);
+            stmt.setInt(4, offset);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int chatRoomId = rs.getInt("id");
+                    int lastId = rs.getInt("last_id");
+                    if (lastId == 0) {
+                        summaries.add(withArchivedMessage(chatRoomId, rs.getString("name"), rs.getString("room_type"),
+                                rs.getInt("unread_count")));
+                        continue;
+                    }
+                    summaries.add(new RoomSummary(chatRoomId, rs.getString("name"), rs.getString("room_type"), lastId,
+                            rs.getString("sender_username"), rs.getString("preview"),
+                            rs.getTimestamp("timestamp").toLocalDateTime(), rs.getInt("unread_count")));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error retrieving inbox for user " + username + ": " + e.getMessage());
+        }
+
+        return summaries;
+    }
+
+    /**
+     * Summary of a room without messages in the table, from its newest archived message if it has one
+     */
+    private RoomSummary withArchivedMessage(int chatRoomId, String name, String roomType, int unreadCount) {
+        MessageArchive archive = MessageArchive.getInstance();
+        int lastId = archive.getLastId(chatRoomId);
+        if (lastId > 0) {
+            try {
+                List<Message> archived = archive.getMessages(chatRoomId, lastId - 1, lastId + 1, 1, false, User::new);
+                if (!archived.isEmpty()) {
+                    Message message = archived.get(0);
+                    String content = message.getContent();
+                    return new RoomSummary(chatRoomId, name, roomType, lastId, message.getSender().getUsername(),
+                            content.substring(0, Math.min(content.length(), Constants.INBOX_PREVIEW_LENGTH)),
+                            message.getTimestamp(), unreadCount);
+                }
+            } catch (IOException e) {
+                System.err.println("Error reading archived messages of room " + chatRoomId + ": " + e.getMessage());
+            }
+        }
+        return new RoomSummary(chatRoomId, name, roomType, 0, null, null, null, unreadCount);
+    }
+
+    /**
+     * Get the IDs of the rooms a user is part of
+     * @param username The username of the participant
+     * @return The room IDs, empty if the user is in no room or on error
+     */
+    public List<Integer> getChatRoomIdsWithMember(String username) {
+        String sql = "SELECT chatroom_id FROM " + Constants.PARTICIPANTS_TABLE + " WHERE username = ?";
+        List<Integer> chatRoomIds = new ArrayList<>();
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, username);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    chatRoomIds.add(rs.getInt("chatroom_id"));
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error retrieving chat room IDs for user " + username + ": " + e.getMessage());
+        }
+
+        return chatRoomIds;
+    }
     
     /**
      * Delete a chat room
@@ -322,21 +536,36 @@ public class ChatRoomJdbcService {
     public boolean deleteChatRoom(int chatRoomId) {
         String sql = "DELETE FROM " + Constants.CHATROOM_TABLE + " WHERE id = ?";
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, chatRoomId);
             
             int affectedRows = stmt.executeUpdate();
+            if (affectedRows > 0) {
+                // The files cannot be restored by a rollback, so they wait for the deletion to commit
+                DatabaseConnection.afterCommit(() -> deleteArchive(chatRoomId));
+            }
             return affectedRows > 0;
             
         } catch (SQLException e) {
             System.err.println("Error deleting chat room: " + e.getMessage());
             return false;
+        } finally {
+            participantChanged(chatRoomId, null);
+            SearchIndexService.getInstance().onRoomDeleted(chatRoomId);
+            MessageBroker.getInstance().closeRoom(chatRoomId);
         }
     }
     
+    private static void deleteArchive(int chatRoomId) {
+        try {
+            MessageArchive.getInstance().deleteRoom(chatRoomId);
+        } catch (IOException e) {
+            System.err.println("Error deleting archived messages of chat room " + chatRoomId + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Remove a participant from a chat room
      * @param chatRoomId The ID of the chat room
@@ -346,20 +575,72 @@ public class ChatRoomJdbcService {
     public boolean removeParticipant(int chatRoomId, String username) {
         String sql = "DELETE FROM " + Constants.PARTICIPANTS_TABLE + 
                      " WHERE chatroom_id = ? AND username = ?";
+        // A former member keeps neither a watermark nor an unread counter, joining again starts from scratch
+        String[] memberStateSqls = {
+                "DELETE FROM " + Constants.READ_WATERMARK_TABLE + " WHERE chatroom_id = ? AND username = ?",
+                "DELETE FROM " + Constants.UNREAD_COUNTER_TABLE + " WHERE chatroom_id = ? AND username = ?"
+        };
+        boolean removed = false;
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            
-            stmt.setInt(1, chatRoomId);
-            stmt.setString(2, username);
-            
-            int affectedRows = stmt.executeUpdate();
-            return affectedRows > 0;
+        try (Connection conn = DatabaseConnection.getDatabaseConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int affectedRows;
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    stmt.setInt(1, chatRoomId);
+                    stmt.setString(2, username);
+                    affectedRows = stmt.executeUpdate();
+                }
+                for (String memberStateSql : memberStateSqls) {
+                    try (PreparedStatement stmt = conn.prepareStatement(memberStateSql)) {
+                        stmt.setInt(1, chatRoomId);
+                        stmt.setString(2, username);
+                        stmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+                removed = affectedRows > 0;
+                return removed;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
             
         } catch (SQLException e) {
             System.err.println("Error removing participant: " + e.getMessage());
             return false;
+        } finally {
+            participantChanged(chatRoomId, removed ? acl -> acl.remove(username) : null);
+            if (removed) {
+                MessageBroker.getInstance().leaveRoom(chatRoomId, username);
+            }
+        }
+    }
+
+    /**
+     * @return The room cache, for its hit and miss counters
+     */
+    public LruCache<Integer, RoomSnapshot> getRoomCache() {
+        return roomCache;
+    }
+
+    /**
+     * @return The ACL cache, for its hit and miss counters
+     */
+    public LruCache<Integer, Map<String, GroupPermission>> getAclCache() {
+        return aclCache;
+    }
+
+    /**
+     * Forget every cached room and ACL, for changes that remove a user from all rooms at once and for rollbacks
+     */
+    void clearCaches() {
+        synchronized (cacheLock) {
+            participantChanges.incrementAndGet();
+            aclCache.clear();
+            roomCache.clear();
         }
     }
 }
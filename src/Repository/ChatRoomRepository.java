@@ -0,0 +1,70 @@
+package Repository;
+
+import Entities.ChatRoom;
+import Entities.RoomSummary;
+import Entities.User;
+import Utils.GroupPermission;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Storage of the chat rooms and their participants
+ */
+public interface ChatRoomRepository {
+    /**
+     * Create a room and add its participants as owners
+     * @param roomType The type of room ("GROUP" or "PRIVATE")
+     * @return The ID of the created room, or -1 if failed
+     */
+    int createChatRoom(ChatRoom chatRoom, String roomType, Integer maxUsers);
+
+    boolean addParticipant(int chatRoomId, String username, GroupPermission permission);
+
+    /**
+     * @return A new ChatRoom with its participants and their permissions, or null if not found
+     */
+    ChatRoom getChatRoomById(int chatRoomId);
+
+    /**
+     * @return The permission of the participant, or null if the user is not part of the room
+     */
+    GroupPermission getParticipantPermission(int chatRoomId, String username);
+
+    /**
+     * @return True if the user is a participant of the room
+     */
+    boolean isParticipant(int chatRoomId, String username);
+
+    boolean updateParticipantPermission(int chatRoomId, String username, GroupPermission permission);
+
+    Set<User> getParticipants(int chatRoomId);
+
+    /**
+     * @return The names of all rooms
+     */
+    List<String> getAllChatRooms();
+
+    /**
+     * @return The rooms of a user, as "id. name"
+     */
+    List<String> getChatRoomsWithMember(String username);
+
+    List<Integer> getChatRoomIdsWithMember(String username);
+
+    /**
+     * Get one page of a user's inbox
+     * @param offset The number of rooms to skip
+     * @param limit Maximum number of rooms to return
+     * @return The rooms of the user with their latest message and unread count, most recently active first.
+     *         Rooms without messages come last, newest room first.
+     */
+    List<RoomSummary> getRoomSummaries(String username, int offset, int limit);
+
+    /**
+     * Delete a room together with its participants and messages
+     */
+    boolean deleteChatRoom(int chatRoomId);
+
+    boolean removeParticipant(int chatRoomId, String username);
+}
@@ -0,0 +1,446 @@
+package Repository;
+
+import Config.Constants;
+import Entities.Message;
+import Entities.MessageBlock;
+import Entities.User;
+import Utils.MessageStatus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Singleton cold storage for old messages, in files next to the database instead of in its tables.
+ * Every room has a directory of append-only segments. A segment is a run of gzip blocks of up to
+ * ARCHIVE_BLOCK_MESSAGES messages, and its .idx file is a sparse index with the ID range and offset of
+ * every block, so reading a message decompresses one block. The indexes are small and kept in memory.
+ * A room's messages are archived in ID order and only while older than every message left in the database,
+ * so its history is its archived messages followed by its database rows. Archived messages are read-only.
+ */
+class MessageArchive {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String ROOM_PREFIX = "room-";
+    // First ID, last ID, offset and length of a block
+    private static final int INDEX_ENTRY_BYTES = 4 + 4 + 8 + 4;
+    private static final MessageArchive instance = new MessageArchive();
+
+    private final Path directory;
+    // Segments by room ID, oldest first. Loaded from the index files on first use.
+    private volatile Map<Integer, List<Segment>> rooms;
+    // Reads hold the read lock so a room directory is not removed while they use it
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private MessageArchive() {
+        this(Paths.get(System.getProperty(Constants.ARCHIVE_DIR_PROPERTY, Constants.ARCHIVE_DIR)));
+    }
+
+    /**
+     * @param directory The directory holding one subdirectory per archived room
+     */
+    MessageArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    static MessageArchive getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return The ID of the newest archived message of a room, or 0 if none is archived
+     */
+    int getLastId(int chatRoomId) {
+        lock.readLock().lock();
+        try {
+            List<Segment> segments = getRooms().get(chatRoomId);
+            return segments != null ? segments.get(segments.size() - 1).getLastId() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Append messages to the archive of a room and sync them to disk
+     * @param chatRoomId The ID of the chat room
+     * @param messages The messages, ordered by ID and newer than every message already archived for the room
+     * @param withStatuses Whether to keep the delivery statuses of the messages
+     */
+    void append(int chatRoomId, List<Message> messages, boolean withStatuses) throws IOException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            List<Segment> segments = getRooms().getOrDefault(chatRoomId, new ArrayList<>());
+            if (!segments.isEmpty() && messages.get(0).getId() <= segments.get(segments.size() - 1).getLastId()) {
+                throw new IOException("messages of room " + chatRoomId + " are already archived up to "
+                        + segments.get(segments.size() - 1).getLastId());
+            }
+            for (int from = 0; from < messages.size(); from += Constants.ARCHIVE_BLOCK_MESSAGES) {
+                List<Message> block = messages.subList(from, Math.min(from + Constants.ARCHIVE_BLOCK_MESSAGES, messages.size()));
+                Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                if (segment == null || segment.size() >= Constants.ARCHIVE_SEGMENT_MAX_BYTES) {
+                    Path roomDirectory = Files.createDirectories(directory.resolve(ROOM_PREFIX + chatRoomId));
+                    String name = SEGMENT_PREFIX + String.format("%010d", block.get(0).getId());
+                    segment = new Segment(roomDirectory.resolve(name + SEGMENT_SUFFIX), roomDirectory.resolve(name + INDEX_SUFFIX));
+                    // Only listed once it holds a block
+                    segment.append(block, withStatuses);
+                    segments.add(segment);
+                    getRooms().putIfAbsent(chatRoomId, segments);
+                } else {
+                    segment.append(block, withStatuses);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Read archived messages of a room in an ID range
+     * @param afterId Only return messages newer than this ID (0 for no lower bound)
+     * @param beforeId Only return messages older than this ID (Integer.MAX_VALUE for no upper bound)
+     * @param limit Maximum number of messages to return
+     * @param newestFirst Take the newest messages of the range instead of the oldest
+     * @param senders Gives the sender of a message from its username
+     * @return The messages, oldest first, with their delivery statuses if they were archived with them
+     */
+    List<Message> getMessages(int chatRoomId, int afterId, int beforeId, int limit, boolean newestFirst,
+                              Function<String, User> senders) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            List<Block> blocks = getBlocks(chatRoomId, afterId, beforeId);
+            if (newestFirst) {
+                Collections.reverse(blocks);
+            }
+            for (Block block : blocks) {
+                MessageBlock read = block.read(senders);
+                if (newestFirst) {
+                    read.reverse();
+                }
+                for (Message message : read) {
+                    if (messages.size() == limit) {
+                        break;
+                    }
+                    if (message.getId() > afterId && message.getId() < beforeId) {
+                        messages.add(message);
+                    }
+                }
+                if (messages.size() == limit) {
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (newestFirst) {
+            Collections.reverse(messages);
+        }
+        return messages;
+    }
+
+    /**
+     * Find archived messages by ID, in any room
+     * @param senders Gives the sender of a message from its username
+     * @return The messages found by room ID, ordered by ID, with their delivery statuses if they were archived with them
+     */
+    Map<Integer, List<Message>> getMessagesByIds(Collection<Integer> messageIds, Function<String, User> senders) throws IOException {
+        Map<Integer, List<Message>> found = new TreeMap<>();
+        lock.readLock().lock();
+        try {
+            if (getRooms().isEmpty()) {
+                return found;
+            }
+            TreeSet<Integer> wanted = new TreeSet<>(messageIds);
+            for (Map.Entry<Integer, List<Segment>> room : getRooms().entrySet()) {
+                // IDs are shared by all rooms, so any room whose blocks cover an ID may hold it
+                for (Segment segment : room.getValue()) {
+                    for (Block block : segment.blocks) {
+                        Integer first = wanted.ceiling(block.firstId);
+                        if (first == null || first > block.lastId) {
+                            continue;
+                        }
+                        for (Message message : block.read(senders)) {
+                            if (wanted.remove(message.getId())) {
+                                found.computeIfAbsent(room.getKey(), key -> new ArrayList<>()).add(message);
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return found;
+    }
+
+    /**
+     * Stream the ID and content of every archived message of a room, in ID order
+     */
+    void scanMessageContents(int chatRoomId, BiConsumer<Integer, String> consumer) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (Block block : getBlocks(chatRoomId, 0, Integer.MAX_VALUE)) {
+                for (Message message : block.read(User::new)) {
+                    consumer.accept(message.getId(), message.getContent());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the archive of a deleted room, as the foreign keys do with its database rows
+     */
+    void deleteRoom(int chatRoomId) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (getRooms().remove(chatRoomId) == null) {
+                return;
+            }
+            Path roomDirectory = directory.resolve(ROOM_PREFIX + chatRoomId);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(roomDirectory)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(roomDirectory);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private List<Block> getBlocks(int chatRoomId, int afterId, int beforeId) {
+        List<Block> blocks = new ArrayList<>();
+        for (Segment segment : getRooms().getOrDefault(chatRoomId, List.of())) {
+            for (Block block : segment.blocks) {
+                if (block.lastId > afterId && block.firstId < beforeId) {
+                    blocks.add(block);
+                }
+            }
+        }
+        return blocks;
+    }
+
+    /**
+     * Load the index of every segment the first time the archive is used. Called with either lock held.
+     */
+    private Map<Integer, List<Segment>> getRooms() {
+        if (rooms == null) {
+            synchronized (this) {
+                if (rooms == null) {
+                    rooms = loadRooms();
+                }
+            }
+        }
+        return rooms;
+    }
+
+    private Map<Integer, List<Segment>> loadRooms() {
+        Map<Integer, List<Segment>> loaded = new HashMap<>();
+        if (!Files.isDirectory(directory)) {
+            return loaded;
+        }
+        try (DirectoryStream<Path> roomDirectories = Files.newDirectoryStream(directory, ROOM_PREFIX + "*")) {
+            for (Path roomDirectory : roomDirectories) {
+                int chatRoomId = Integer.parseInt(roomDirectory.getFileName().toString().substring(ROOM_PREFIX.length()));
+                List<Segment> segments = new ArrayList<>();
+                try (Stream<Path> indexes = Files.list(roomDirectory)) {
+                    for (Path index : indexes.filter(path -> path.toString().endsWith(INDEX_SUFFIX)).sorted().toList()) {
+                        String name = index.getFileName().toString();
+                        Path data = roomDirectory.resolve(name.substring(0, name.length() - INDEX_SUFFIX.length()) + SEGMENT_SUFFIX);
+                        Segment segment = Segment.load(data, index);
+                        if (!segment.blocks.isEmpty()) {
+                            segments.add(segment);
+                        }
+                    }
+                }
+                if (!segments.isEmpty()) {
+                    segments.sort(Comparator.comparingInt(segment -> segment.blocks.get(0).firstId));
+                    loaded.put(chatRoomId, segments);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.err.println("Error loading message archive: " + e.getMessage());
+        }
+        return loaded;
+    }
+
+    /**
+     * A data file of gzip blocks and its index. A block is written and synced before its index entry,
+     * so a crash in between only leaves unreferenced bytes at the end of the data file.
+     */
+    private static class Segment {
+        private final Path data;
+        private final Path index;
+        private final List<Block> blocks = new ArrayList<>();
+        private long dataBytes;
+
+        private Segment(Path data, Path index) {
+            this.data = data;
+            this.index = index;
+        }
+
+        private static Segment load(Path data, Path index) throws IOException {
+            Segment segment = new Segment(data, index);
+            if (!Files.exists(data)) {
+                return segment;
+            }
+            long dataFileBytes = Files.size(data);
+            byte[] entries = Files.readAllBytes(index);
+            // A torn last entry is ignored, as are blocks past the end of the data file
+            ByteBuffer buffer = ByteBuffer.wrap(entries, 0, entries.length - entries.length % INDEX_ENTRY_BYTES);
+            while (buffer.hasRemaining()) {
+                Block block = new Block(data, buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getInt());
+                if (block.offset + block.length > dataFileBytes) {
+                    break;
+                }
+                segment.blocks.add(block);
+                segment.dataBytes = block.offset + block.length;
+            }
+            return segment;
+        }
+
+        private long size() {
+            return dataBytes;
+        }
+
+        private int getLastId() {
+            return blocks.get(blocks.size() - 1).lastId;
+        }
+
+        private void append(List<Message> messages, boolean withStatuses) throws IOException {
+            byte[] compressed = encode(messages, withStatuses);
+            Block block = new Block(data, messages.get(0).getId(), messages.get(messages.size() - 1).getId(), dataBytes, compressed.length);
+
+            try (FileChannel channel = FileChannel.open(data, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // Start after the last indexed block, overwriting whatever an interrupted append left
+                channel.position(dataBytes);
+                writeFully(channel, ByteBuffer.wrap(compressed));
+                channel.force(false);
+            }
+
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+            entry.putInt(block.firstId).putInt(block.lastId).putLong(block.offset).putInt(block.length).flip();
+            try (FileChannel channel = FileChannel.open(index, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.position((long) blocks.size() * INDEX_ENTRY_BYTES);
+                writeFully(channel, entry);
+                channel.truncate(channel.position());
+                channel.force(false);
+            }
+
+            blocks.add(block);
+            dataBytes += compressed.length;
+        }
+
+        private static byte[] encode(List<Message> messages, boolean withStatuses) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+                out.writeInt(messages.size());
+                for (Message message : messages) {
+                    out.writeInt(message.getId());
+                    out.writeUTF(message.getSender().getUsername());
+                    out.writeLong(message.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+                    out.writeInt(message.getTimestamp().getNano());
+                    // TEXT content can be longer than writeUTF allows
+                    byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(content.length);
+                    out.write(content);
+                    Map<String, MessageStatus> statuses = withStatuses ? message.getDeliveryStatus() : Map.of();
+                    out.writeInt(statuses.size());
+                    for (Map.Entry<String, MessageStatus> status : statuses.entrySet()) {
+                        out.writeUTF(status.getKey());
+                        out.writeUTF(status.getValue().name());
+                    }
+                }
+            }
+            return bytes.toByteArray();
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static class Block {
+        private final Path data;
+        private final int firstId;
+        private final int lastId;
+        private final long offset;
+        private final int length;
+
+        private Block(Path data, int firstId, int lastId, long offset, int length) {
+            this.data = data;
+            this.firstId = firstId;
+            this.lastId = lastId;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return The messages of the block, ordered by ID
+         */
+        private MessageBlock read(Function<String, User> senders) throws IOException {
+            ByteBuffer compressed = ByteBuffer.allocate(length);
+            try (FileChannel channel = FileChannel.open(data, StandardOpenOption.READ)) {
+                while (compressed.hasRemaining()) {
+                    if (channel.read(compressed, offset + compressed.position()) < 0) {
+                        throw new IOException("archive segment " + data.getFileName() + " is truncated");
+                    }
+                }
+            }
+
+            try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(compressed.array())))) {
+                int count = in.readInt();
+                MessageBlock messages = new MessageBlock(count);
+                for (int i = 0; i < count; i++) {
+                    int id = in.readInt();
+                    User sender = senders.apply(in.readUTF());
+                    LocalDateTime timestamp = LocalDateTime.ofEpochSecond(in.readLong(), in.readInt(), ZoneOffset.UTC);
+                    byte[] content = new byte[in.readInt()];
+                    in.readFully(content);
+                    messages.add(id, sender, timestamp, new String(content, StandardCharsets.UTF_8));
+                    int statuses = in.readInt();
+                    for (int j = 0; j < statuses; j++) {
+                        messages.get(i).markStatus(in.readUTF(), MessageStatus.valueOf(in.readUTF()));
+                    }
+                }
+                return messages;
+            }
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package Repository;
+
+import Entities.Message;
+import Entities.MessageBlock;
+import Entities.User;
+import Services.SearchIndexService;
+import Utils.MessageStatus;
+import Utils.UserStatus;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Messages kept in memory only. Every message is indexed by ID and in a sorted per-room map,
+ * so history pages and read ranges are sub-map views instead of scans.
+ * Delivery statuses are always kept per message; the read watermarks only exist to save rows in MySQL.
+ */
+public class MessageInMemoryService implements MessageRepository {
+    private static final MessageInMemoryService instance = new MessageInMemoryService();
+    private final AtomicInteger nextMessageId = new AtomicInteger(1);
+    private final Map<Integer, StoredMessage> messagesById = new ConcurrentHashMap<>();
+    private final Map<Integer, NavigableMap<Integer, StoredMessage>> messagesByRoom = new ConcurrentHashMap<>();
+    // Unread messages by room, then by username. Changed under the instance lock, so a reconcile swapping
+    // in the rebuilt counters never loses an update made while it counted.
+    private final Map<Integer, Map<String, AtomicInteger>> unreadCounters = new ConcurrentHashMap<>();
+
+    private MessageInMemoryService() {
+    }
+
+    public static MessageInMemoryService getInstance() {
+        return instance;
+    }
+
+    public int createMessage(Message message, int chatRoomId) {
+        if (!ChatRoomInMemoryService.getInstance().exists(chatRoomId)) {
+            System.err.println("Error creating message: unknown room " + chatRoomId);
+            return -1;
+        }
+        StoredMessage stored = store(message, chatRoomId);
+        SearchIndexService.getInstance().onMessageCreated(chatRoomId, stored.id, stored.content);
+        return stored.id;
+    }
+
+    public synchronized List<Integer> createMessages(List<Message> messages, List<Integer> chatRoomIds) {
+        for (Integer chatRoomId : chatRoomIds) {
+            if (!ChatRoomInMemoryService.getInstance().exists(chatRoomId)) {
+                System.err.println("Error creating messages: unknown room " + chatRoomId);
+                return null;
+            }
+        }
+
+        List<Integer> messageIds = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            int chatRoomId = chatRoomIds.get(i);
+            StoredMessage stored = store(messages.get(i), chatRoomId);
+            for (String username : ChatRoomInMemoryService.getInstance().getMemberUsernames(chatRoomId)) {
+                if (username.equals(stored.senderUsername)) {
+                    stored.statuses.put(username, MessageStatus.SENT);
+                } else {
+                    stored.statuses.put(username, MessageStatus.RECEIVED);
+                    counter(chatRoomId, username).incrementAndGet();
+                }
+            }
+            messageIds.add(stored.id);
+            SearchIndexService.getInstance().onMessageCreated(chatRoomId, stored.id, stored.content);
+        }
+        return messageIds;
+    }
+
+    public void addMessageDeliveryStatus(int messageId, Message message) {
+        StoredMessage stored = messagesById.get(messageId);
+        if (stored != null) {
+            for (String username : message.getDeliveryStatus().keySet()) {
+                stored.statuses.put(username, message.getStatus(username));
+            }
+        }
+    }
+
+    public Message getMessageById(int messageId) {
+        StoredMessage stored = messagesById.get(messageId);
+        return stored != null ? toMessage(stored, new HashMap<>(), true) : null;
+    }
+
+    public List<Message> getMessagesByChatRoomId(int chatRoomId) {
+        return toMessages(room(chatRoomId).values(), true);
+    }
+
+    public List<Message> getMessagesPage(int chatRoomId, Integer beforeId, Integer afterId, int limit) {
+        NavigableMap<Integer, StoredMessage> range = room(chatRoomId);
+        if (beforeId != null) {
+            range = range.headMap(beforeId, false);
+        }
+        if (afterId != null) {
+            range = range.tailMap(afterId, false);
+        }
+        // Without a lower bound the page ends at the newest message before the cursor
+        List<StoredMessage> page = new ArrayList<>(limit);
+        for (StoredMessage stored : (afterId == null ? range.descendingMap() : range).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(stored);
+        }
+        if (afterId == null) {
+            Collections.reverse(page);
+        }
+        return toMessages(page, true);
+    }
+
+    public List<Message> getMessagesByIds(List<Integer> messageIds) {
+        List<StoredMessage> found = new ArrayList<>();
+        for (Integer messageId : new TreeSet<>(messageIds)) {
+            StoredMessage stored = messagesById.get(messageId);
+            if (stored != null) {
+                found.add(stored);
+            }
+        }
+        return toMessages(found, false);
+    }
+
+    public boolean scanMessageContents(int chatRoomId, BiConsumer<Integer, String> consumer) {
+        for (StoredMessage stored : room(chatRoomId).values()) {
+            consumer.accept(stored.id, stored.content);
+        }
+        return true;
+    }
+
+    public void advanceDeliveredWatermarks(int chatRoomId, int messageId) {
+        StoredMessage stored = messagesById.get(messageId);
+        if (stored == null) {
+            return;
+        }
+        for (String username : ChatRoomInMemoryService.getInstance().getMemberUsernames(chatRoomId)) {
+            stored.statuses.putIfAbsent(username, username.equals(stored.senderUsername) ? MessageStatus.SENT : MessageStatus.RECEIVED);
+        }
+    }
+
+    public void initializeWatermark(int chatRoomId, String username) {
+        // A new member has no status for older messages, which is what the per-message statuses give already
+    }
+
+    public boolean updateMessageContent(int messageId, String newContent) {
+        StoredMessage stored = messagesById.get(messageId);
+        if (stored == null) {
+            return false;
+        }
+        stored.content = newContent;
+        SearchIndexService.getInstance().onMessageUpdated(messageId, newContent);
+        return true;
+    }
+
+    public boolean updateMessageStatus(int messageId, String username, MessageStatus status) {
+        StoredMessage stored = messagesById.get(messageId);
+        return stored != null && stored.statuses.replace(username, status) != null;
+    }
+
+    public int markRoomRead(int chatRoomId, String username, int upToMessageId) {
+        int changed = 0;
+        for (StoredMessage stored : room(chatRoomId).headMap(upToMessageId, true).values()) {
+            if (stored.senderUsername.equals(username)) {
+                continue;
+            }
+            MessageStatus previous = stored.statuses.get(username);
+            if (previous != null && previous != MessageStatus.READ && stored.statuses.replace(username, previous, MessageStatus.READ)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    public int getLatestMessageId(int chatRoomId) {
+        NavigableMap<Integer, StoredMessage> room = room(chatRoomId);
+        return room.isEmpty() ? 0 : room.lastKey();
+    }
+
+    public List<Message> getUnreadMessages(int chatRoomId, String username) {
+        List<StoredMessage> unread = new ArrayList<>();
+        for (StoredMessage stored : room(chatRoomId).values()) {
+            if (stored.statuses.get(username) == MessageStatus.RECEIVED) {
+                unread.add(stored);
+            }
+        }
+        List<Message> messages = toMessages(unread, false);
+        for (Message message : messages) {
+            message.markStatus(username, MessageStatus.RECEIVED);
+        }
+        return messages;
+    }
+
+    public synchronized void incrementUnreadCounters(int chatRoomId, String senderUsername) {
+        for (String username : ChatRoomInMemoryService.getInstance().getMemberUsernames(chatRoomId)) {
+            if (!username.equals(senderUsername)) {
+                counter(chatRoomId, username).incrementAndGet();
+            }
+        }
+    }
+
+    public synchronized void decrementUnreadCounter(int chatRoomId, String username, int readCount) {
+        counter(chatRoomId, username).updateAndGet(count -> Math.max(count - readCount, 0));
+    }
+
+    public int getUnreadCount(int chatRoomId, String username) {
+        Map<String, AtomicInteger> counters = unreadCounters.get(chatRoomId);
+        AtomicInteger counter = counters != null ? counters.get(username) : null;
+        return counter != null ? counter.get() : 0;
+    }
+
+    public synchronized boolean reconcileUnreadCounters() {
+        Map<Integer, Map<String, AtomicInteger>> rebuilt = new HashMap<>();
+        for (StoredMessage stored : messagesById.values()) {
+            stored.statuses.forEach((username, status) -> {
+                if (status == MessageStatus.RECEIVED) {
+                    rebuilt.computeIfAbsent(stored.chatRoomId, key -> new ConcurrentHashMap<>())
+                            .computeIfAbsent(username, key -> new AtomicInteger()).incrementAndGet();
+                }
+            });
+        }
+        unreadCounters.clear();
+        unreadCounters.putAll(rebuilt);
+        return true;
+    }
+
+    /**
+     * @return The newest message of a room without delivery statuses, or null if the room has no messages
+     */
+    Message getLatestMessage(int chatRoomId) {
+        Map.Entry<Integer, StoredMessage> latest = room(chatRoomId).lastEntry();
+        return latest != null ? toMessage(latest.getValue(), new HashMap<>(), false) : null;
+    }
+
+    /**
+     * Drop the messages and counters of a deleted room, as the foreign keys do in the database
+     */
+    synchronized void deleteRoomMessages(int chatRoomId) {
+        NavigableMap<Integer, StoredMessage> room = messagesByRoom.remove(chatRoomId);
+        if (room != null) {
+            room.keySet().forEach(messagesById::remove);
+        }
+        unreadCounters.remove(chatRoomId);
+    }
+
+    private StoredMessage store(Message message, int chatRoomId) {
+        StoredMessage stored = new StoredMessage(nextMessageId.getAndIncrement(), chatRoomId,
+                message.getSender().getUsername(), message.getTimestamp(), message.getContent());
+        messagesById.put(stored.id, stored);
+        messagesByRoom.computeIfAbsent(chatRoomId, key -> new ConcurrentSkipListMap<>()).put(stored.id, stored);
+        return stored;
+    }
+
+    private NavigableMap<Integer, StoredMessage> room(int chatRoomId) {
+        return messagesByRoom.getOrDefault(chatRoomId, new ConcurrentSkipListMap<>());
+    }
+
+    private AtomicInteger counter(int chatRoomId, String username) {
+        return unreadCounters.computeIfAbsent(chatRoomId, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(username, key -> new AtomicInteger());
+    }
+
+    private List<Message> toMessages(Iterable<StoredMessage> stored, boolean withStatuses) {
+        MessageBlock messages = new MessageBlock();
+        Map<String, User> senders = new HashMap<>();
+        for (StoredMessage message : stored) {
+            messages.add(message.id, sender(message.senderUsername, senders), message.timestamp, message.content);
+            if (withStatuses) {
+                Message added = messages.get(messages.size() - 1);
+                message.statuses.forEach(added::markStatus);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @param senders Senders already built for other messages of the same result, shared like the JDBC service does
+     */
+    private Message toMessage(StoredMessage stored, Map<String, User> senders, boolean withStatuses) {
+        Message message = new Message(stored.content, sender(stored.senderUsername, senders), stored.timestamp, stored.id);
+        if (withStatuses) {
+            stored.statuses.forEach(message::markStatus);
+        }
+        return message;
+    }
+
+    private User sender(String senderUsername, Map<String, User> senders) {
+        return senders.computeIfAbsent(senderUsername, username -> {
+            User user = new User(username);
+            UserStatus status = UserInMemoryService.getInstance().getStatus(username);
+            if (status != null) {
+                user.setStatus(status);
+            }
+            return user;
+        });
+    }
+
+    private static class StoredMessage {
+        private final int id;
+        private final int chatRoomId;
+        private final String senderUsername;
+        private final LocalDateTime timestamp;
+        private volatile String content;
+        private final Map<String, MessageStatus> statuses = new ConcurrentHashMap<>();
+
+        private StoredMessage(int id, int chatRoomId, String senderUsername, LocalDateTime timestamp, String content) {
+            this.id = id;
+            this.chatRoomId = chatRoomId;
+            this.senderUsername = senderUsername;
+            this.timestamp = timestamp;
+            this.content = content;
+        }
+    }
+}
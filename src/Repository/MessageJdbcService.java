@@ -2,30 +2,57 @@ package Repository;
 
 import Config.Constants;
 import Config.DatabaseConnection;
+import Config.RollbackListeners;
 import Entities.ChatRoom;
 import Entities.Message;
+import Entities.MessageBlock;
+import Entities.ReadWatermark;
 import Entities.User;
 import Services.AuditService;
+import Services.SearchIndexService;
 import Utils.MessageStatus;
+import Utils.UserStatus;
 
+import java.io.IOException;
 import java.sql.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
-public class MessageJdbcService {
-    private static MessageJdbcService instance;
+public class MessageJdbcService implements MessageRepository {
+    private static final MessageJdbcService instance = new MessageJdbcService();
+    private static final int ID_BATCH_SIZE = 50;
+    // Row counts of the multi-row message inserts, largest first, so batches of any size share a few SQL texts
+    private static final int[] INSERT_ROW_BUCKETS = {ID_BATCH_SIZE, 16, 4, 1};
+    private static final int SCAN_FETCH_SIZE = 1000;
+    private static final String MESSAGE_SELECT = "SELECT m.id, m.content, m.sender_username, m.timestamp, u.status AS sender_status FROM "
+            + Constants.MESSAGE_TABLE + " m LEFT JOIN " + Constants.USER_TABLE + " u ON (u.username = m.sender_username)";
+    // Adds the given number of unread messages to every participant of a room except the sender
+    private static final String INCREMENT_UNREAD_SQL = "INSERT INTO " + Constants.UNREAD_COUNTER_TABLE + " (username, chatroom_id, unread_count)"
+            + " SELECT username, chatroom_id, ? FROM " + Constants.PARTICIPANTS_TABLE
+            + " WHERE chatroom_id = ? AND username <> ?"
+            + " ON DUPLICATE KEY UPDATE unread_count = unread_count + VALUES(unread_count)";
+    // Moves the delivered watermarks of a room's current participants, the rows of former members are left alone
+    private static final String ADVANCE_DELIVERED_SQL = "UPDATE " + Constants.READ_WATERMARK_TABLE + " SET delivered_id = GREATEST(delivered_id, ?)"
+            + " WHERE chatroom_id = ? AND username IN (SELECT username FROM " + Constants.PARTICIPANTS_TABLE + " WHERE chatroom_id = ?)";
     private final UserJdbcService userService;
+    private final MessageArchive archive = MessageArchive.getInstance();
     
     private MessageJdbcService() {
         userService = UserJdbcService.getInstance();
+        // A room searched inside a thread transaction is indexed with its uncommitted messages
+        RollbackListeners.register(SearchIndexService.getInstance()::clear);
     }
     
     public static MessageJdbcService getInstance() {
-        if (instance == null) {
-            instance = new MessageJdbcService();
-        }
         return instance;
     }
     
@@ -40,9 +67,8 @@ public class MessageJdbcService {
                      " (content, sender_username, chatroom_id, timestamp) VALUES (?, ?, ?, ?)";
         int messageId = -1;
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             
             stmt.setString(1, message.getContent());
             stmt.setString(2, message.getSender().getUsername());
@@ -55,6 +81,9 @@ public class MessageJdbcService {
                 try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
                     if (generatedKeys.next()) {
                         messageId = generatedKeys.getInt(1);
+                        int createdId = messageId;
+                        DatabaseConnection.afterCommit(() ->
+                                SearchIndexService.getInstance().onMessageCreated(chatRoomId, createdId, message.getContent()));
                     }
                 }
             }
@@ -66,6 +95,141 @@ public class MessageJdbcService {
         return messageId;
     }
     
+    /**
+     * Create several messages in one transaction: one multi-row insert for the messages, one insert of the
+     * delivery statuses of all their recipients (or one watermark update per room), and one counter update
+     * per room and sender. Used by MessageIngestor to commit a batch of sends at once.
+     * @param messages The messages to create
+     * @param chatRoomIds The ID of the chat room of each message, in the same order
+     * @return The IDs of the created messages in the same order, or null if the transaction failed
+     */
+    public List<Integer> createMessages(List<Message> messages, List<Integer> chatRoomIds) {
+        if (messages.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Fixed size ID lists keep the SQL text constant, like in getMessagesByIds
+        String placeholders = String.join(", ", Collections.nCopies(ID_BATCH_SIZE, "?"));
+        String statusSql = "INSERT INTO " + Constants.MESSAGE_DELIVERY_TABLE + " (message_id, username, status)"
+                           + " SELECT m.id, p.username, CASE WHEN p.username = m.sender_username THEN ? ELSE ? END FROM "
+                           + Constants.MESSAGE_TABLE + " m JOIN " + Constants.PARTICIPANTS_TABLE + " p ON (p.chatroom_id = m.chatroom_id)"
+                           + " WHERE m.id IN (" + placeholders + ")";
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<Integer> messageIds = new ArrayList<>(messages.size());
+                for (int from = 0; from < messages.size(); ) {
+                    int rows = insertRows(messages.size() - from);
+                    try (PreparedStatement stmt = conn.prepareStatement(messageInsertSql(rows), Statement.RETURN_GENERATED_KEYS)) {
+                        int index = 1;
+                        for (int i = from; i < from + rows; i++) {
+                            Message message = messages.get(i);
+                            stmt.setString(index++, message.getContent());
+                            stmt.setString(index++, message.getSender().getUsername());
+                            stmt.setInt(index++, chatRoomIds.get(i));
+                            stmt.setTimestamp(index++, Timestamp.valueOf(message.getTimestamp()));
+                        }
+                        stmt.executeUpdate();
+                        try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                            while (generatedKeys.next()) {
+                                messageIds.add(generatedKeys.getInt(1));
+                            }
+                        }
+                    }
+                    from += rows;
+                }
+                if (messageIds.size() != messages.size()) {
+                    throw new SQLException("Expected " + messages.size() + " generated keys, got " + messageIds.size());
+                }
+
+                // Newest message and number of messages per room, and number of messages per room and sender
+                Map<Integer, Integer> latestIdByRoom = new HashMap<>();
+                Map<Integer, Map<String, Integer>> countsByRoom = new HashMap<>();
+                for (int i = 0; i < messages.size(); i++) {
+                    latestIdByRoom.merge(chatRoomIds.get(i), messageIds.get(i), Math::max);
+                    countsByRoom.computeIfAbsent(chatRoomIds.get(i), id -> new HashMap<>())
+                            .merge(messages.get(i).getSender().getUsername(), 1, Integer::sum);
+                }
+
+                if (DatabaseConnection.useReadWatermarks()) {
+                    try (PreparedStatement stmt = conn.prepareStatement(ADVANCE_DELIVERED_SQL)) {
+                        for (Map.Entry<Integer, Integer> room : latestIdByRoom.entrySet()) {
+                            stmt.setInt(1, room.getValue());
+                            stmt.setInt(2, room.getKey());
+                            stmt.setInt(3, room.getKey());
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                    }
+                } else {
+                    try (PreparedStatement stmt = conn.prepareStatement(statusSql)) {
+                        for (int from = 0; from < messageIds.size(); from += ID_BATCH_SIZE) {
+                            List<Integer> batch = messageIds.subList(from, Math.min(from + ID_BATCH_SIZE, messageIds.size()));
+                            stmt.setString(1, MessageStatus.SENT.toString());
+                            stmt.setString(2, MessageStatus.RECEIVED.toString());
+                            for (int i = 0; i < ID_BATCH_SIZE; i++) {
+                                // Pad the last batch by repeating its last ID
+                                stmt.setInt(i + 3, batch.get(Math.min(i, batch.size() - 1)));
+                            }
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                    }
+                }
+
+                try (PreparedStatement stmt = conn.prepareStatement(INCREMENT_UNREAD_SQL)) {
+                    for (Map.Entry<Integer, Map<String, Integer>> room : countsByRoom.entrySet()) {
+                        for (Map.Entry<String, Integer> sender : room.getValue().entrySet()) {
+                            stmt.setInt(1, sender.getValue());
+                            stmt.setInt(2, room.getKey());
+                            stmt.setString(3, sender.getKey());
+                            stmt.addBatch();
+                        }
+                    }
+                    stmt.executeBatch();
+                }
+
+                conn.commit();
+                DatabaseConnection.afterCommit(() -> {
+                    for (int i = 0; i < messages.size(); i++) {
+                        SearchIndexService.getInstance().onMessageCreated(chatRoomIds.get(i), messageIds.get(i), messages.get(i).getContent());
+                    }
+                });
+                return messageIds;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error creating messages: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @return The number of rows of the next insert of createMessages, the largest bucket that fits the remaining messages
+     */
+    private static int insertRows(int remaining) {
+        for (int rows : INSERT_ROW_BUCKETS) {
+            if (rows <= remaining) {
+                return rows;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @return The insert of the given number of messages
+     */
+    private static String messageInsertSql(int rows) {
+        return "INSERT INTO " + Constants.MESSAGE_TABLE + " (content, sender_username, chatroom_id, timestamp) VALUES "
+               + String.join(", ", Collections.nCopies(rows, "(?, ?, ?, ?)"));
+    }
+
     /**
      * Save the delivery status for a message
      * @param messageId The ID of the message
@@ -75,9 +239,8 @@ public class MessageJdbcService {
         String sql = "INSERT INTO " + Constants.MESSAGE_DELIVERY_TABLE + 
                      " (message_id, username, status) VALUES (?, ?, ?)";
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             // For each user in the delivery status map
             for (String username : message.getDeliveryStatus().keySet()) {
@@ -100,11 +263,11 @@ public class MessageJdbcService {
      * @return The Message if found, null otherwise
      */
     public Message getMessageById(int messageId) {
-        String sql = "SELECT * FROM " + Constants.MESSAGE_TABLE + " WHERE id = ?";
+        String sql = "SELECT m.*, u.status AS sender_status FROM " + Constants.MESSAGE_TABLE + " m LEFT JOIN "
+                     + Constants.USER_TABLE + " u ON (u.username = m.sender_username) WHERE m.id = ?";
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, messageId);
             
@@ -114,21 +277,33 @@ public class MessageJdbcService {
                     String senderUsername = rs.getString("sender_username");
                     LocalDateTime timestamp = rs.getTimestamp("timestamp").toLocalDateTime();
                     
-                    User sender = userService.getUserByUsername(senderUsername);
-                    if (sender == null) {
-                        sender = new User(senderUsername); // Fallback if user not found
+                    String senderStatus = rs.getString("sender_status");
+                    
+                    User sender = new User(senderUsername);
+                    if (senderStatus != null) {
+                        sender.setStatus(UserStatus.valueOf(senderStatus));
                     }
                     
                     Message message = new Message(content, sender, timestamp, messageId);
                     
                     // Load delivery status
-                    loadMessageDeliveryStatus(messageId, message);
+                    if (DatabaseConnection.useReadWatermarks()) {
+                        message.useWatermarks(loadRoomWatermarks(conn, rs.getInt("chatroom_id")));
+                    } else {
+                        loadMessageDeliveryStatus(conn, messageId, message);
+                    }
 
                     return message;
                 }
             }
+
+            // Not in the hot table, it may have been archived
+            for (Map.Entry<Integer, List<Message>> room : archive.getMessagesByIds(List.of(messageId), archivedSenders(conn)).entrySet()) {
+                loadRoomDeliveryStatus(conn, room.getKey(), room.getValue());
+                return room.getValue().get(0);
+            }
             
-        } catch (SQLException e) {
+        } catch (SQLException | IOException e) {
             System.err.println("Error retrieving message: " + e.getMessage());
         }
         
@@ -137,73 +312,462 @@ public class MessageJdbcService {
     
     /**
      * Load the delivery status for a message
+     * @param conn The connection the message was loaded on
      * @param messageId The ID of the message
      * @param message The message object to update with delivery status
      */
-    private void loadMessageDeliveryStatus(int messageId, Message message) {
+    private void loadMessageDeliveryStatus(Connection conn, int messageId, Message message) throws SQLException {
         String sql = "SELECT username, status FROM " + Constants.MESSAGE_DELIVERY_TABLE + 
                      " WHERE message_id = ?";
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, messageId);
-            
+
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    String username = rs.getString("username");
-                    String statusStr = rs.getString("status");
-                    
-                    User user = userService.getUserByUsername(username);
-                    if (user == null) {
-                        user = new User(username); // Fallback if user not found
-                    }
-                    
-                    MessageStatus status = MessageStatus.valueOf(statusStr);
-
-                    message.markStatus(user, status);
+                    message.markStatus(rs.getString("username"), MessageStatus.valueOf(rs.getString("status")));
                 }
             }
-            
-        } catch (SQLException e) {
-            System.err.println("Error loading message delivery status: " + e.getMessage());
         }
     }
     
     /**
-     * Get all messages for a chat room
+     * Get all messages for a chat room, hydrated with their senders and delivery statuses.
+     * Runs one query joining the messages with their senders and one query for the delivery
+     * statuses of the whole room, no matter how many messages or members the room has.
      * @param chatRoomId The ID of the chat room
      * @return List of messages in the chat room
      */
     public List<Message> getMessagesByChatRoomId(int chatRoomId) {
-        String sql = "SELECT id FROM " + Constants.MESSAGE_TABLE + 
-                     " WHERE chatroom_id = ? ORDER BY timestamp";
-        List<Message> messages = new ArrayList<>();
+        String sql = MESSAGE_SELECT + " WHERE m.chatroom_id = ? ORDER BY m.id";
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setInt(1, chatRoomId);
-            
+
+            List<Message> messages = readMessages(stmt);
+            if (archive.getLastId(chatRoomId) > 0) {
+                messages = withArchived(archive.getMessages(chatRoomId, 0, Integer.MAX_VALUE, Integer.MAX_VALUE, false,
+                        archivedSenders(conn)), messages);
+            }
+            loadRoomDeliveryStatus(conn, chatRoomId, messages);
+            return messages;
+
+        } catch (SQLException | IOException e) {
+            System.err.println("Error retrieving messages for chat room: " + e.getMessage());
+        }
+        
+        return new ArrayList<>();
+    }
+
+    /**
+     * Get one page of a chat room's history using the message ID as cursor.
+     * Pages are read through the (chatroom_id, id) index, so the cost does not depend on the age of the room.
+     * A page reaching past the oldest message of the table continues in the archive.
+     * @param chatRoomId The ID of the chat room
+     * @param beforeId Only return messages older than this ID (null for no upper bound)
+     * @param afterId Only return messages newer than this ID (null for no lower bound)
+     * @param limit Maximum number of messages to return
+     * @return The page of messages, oldest first. Without an afterId the page holds the newest messages
+     *         before the cursor, with an afterId the oldest messages after it.
+     */
+    public List<Message> getMessagesPage(int chatRoomId, Integer beforeId, Integer afterId, int limit) {
+        int archivedUpTo = archive.getLastId(chatRoomId);
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection()) {
+
+            List<Message> messages;
+            if (afterId == null) {
+                messages = readPage(conn, chatRoomId, beforeId, null, limit);
+                if (messages.size() < limit && archivedUpTo > 0) {
+                    int cursor = !messages.isEmpty() ? messages.get(0).getId() : beforeId != null ? beforeId : Integer.MAX_VALUE;
+                    messages = withArchived(archive.getMessages(chatRoomId, 0, cursor, limit - messages.size(), true,
+                            archivedSenders(conn)), messages);
+                }
+            } else if (afterId < archivedUpTo) {
+                List<Message> archived = archive.getMessages(chatRoomId, afterId, beforeId != null ? beforeId : Integer.MAX_VALUE,
+                        limit, false, archivedSenders(conn));
+                messages = archived.size() < limit
+                        ? withArchived(archived, readPage(conn, chatRoomId, beforeId, archivedUpTo, limit - archived.size()))
+                        : archived;
+            } else {
+                messages = readPage(conn, chatRoomId, beforeId, afterId, limit);
+            }
+            loadRoomDeliveryStatus(conn, chatRoomId, messages);
+            return messages;
+
+        } catch (SQLException | IOException e) {
+            System.err.println("Error retrieving message page for chat room: " + e.getMessage());
+        }
+
+        return new ArrayList<>();
+    }
+
+    /**
+     * Read one page of a chat room's history from the messages table, without delivery statuses
+     * @return The page of messages, oldest first
+     */
+    private List<Message> readPage(Connection conn, int chatRoomId, Integer beforeId, Integer afterId, int limit) throws SQLException {
+        // Without a lower bound we walk the index backwards from the newest message
+        boolean newestFirst = afterId == null;
+        String sql = MESSAGE_SELECT + " WHERE m.chatroom_id = ?"
+                     + (beforeId != null ? " AND m.id < ?" : "")
+                     + (afterId != null ? " AND m.id > ?" : "")
+                     + " ORDER BY m.id " + (newestFirst ? "DESC" : "ASC") + " LIMIT ?";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            int index = 1;
+            stmt.setInt(index++, chatRoomId);
+            if (beforeId != null) {
+                stmt.setInt(index++, beforeId);
+            }
+            if (afterId != null) {
+                stmt.setInt(index++, afterId);
+            }
+            stmt.setInt(index, limit);
+
+            MessageBlock messages = readMessages(stmt);
+            if (newestFirst) {
+                messages.reverse();
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * Put archived messages of a room before the ones read from the table. A message archived by a run
+     * of the archival job that stopped before deleting it is in both, and only kept once.
+     * @param archived Archived messages, ordered by ID
+     * @param messages Messages read from the table, ordered by ID
+     * @return The messages of both, ordered by ID
+     */
+    private List<Message> withArchived(List<Message> archived, List<Message> messages) {
+        List<Message> merged = new ArrayList<>(archived.size() + messages.size());
+        int firstId = messages.isEmpty() ? Integer.MAX_VALUE : messages.get(0).getId();
+        for (Message message : archived) {
+            if (message.getId() < firstId) {
+                merged.add(message);
+            }
+        }
+        merged.addAll(messages);
+        return merged;
+    }
+
+    /**
+     * @param conn The connection the messages are read on, also used to load senders missing from the user cache
+     * @return Gives the sender of an archived message, from the user cache, shared by the messages of one result
+     */
+    private Function<String, User> archivedSenders(Connection conn) {
+        Map<String, User> senders = new HashMap<>();
+        return username -> senders.computeIfAbsent(username, key -> {
+            try {
+                User user = userService.getUserByUsername(conn, key);
+                if (user != null) {
+                    return user;
+                }
+            } catch (SQLException e) {
+                System.err.println("Error retrieving sender " + key + ": " + e.getMessage());
+            }
+            return new User(key);
+        });
+    }
+
+    /**
+     * Get messages by their IDs, with their senders but without delivery statuses
+     * @param messageIds The IDs of the messages
+     * @return The messages that exist, ordered by ID
+     */
+    public List<Message> getMessagesByIds(List<Integer> messageIds) {
+        List<Message> messages = new ArrayList<>();
+        if (messageIds.isEmpty()) {
+            return messages;
+        }
+        // Fixed size ID lists keep the SQL text constant, so the prepared statement is reused
+        String placeholders = String.join(", ", Collections.nCopies(ID_BATCH_SIZE, "?"));
+        String sql = MESSAGE_SELECT + " WHERE m.id IN (" + placeholders + ") ORDER BY m.id";
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            for (int from = 0; from < messageIds.size(); from += ID_BATCH_SIZE) {
+                List<Integer> batch = messageIds.subList(from, Math.min(from + ID_BATCH_SIZE, messageIds.size()));
+                for (int i = 0; i < ID_BATCH_SIZE; i++) {
+                    // Pad the last batch by repeating its last ID
+                    stmt.setInt(i + 1, batch.get(Math.min(i, batch.size() - 1)));
+                }
+                messages.addAll(readMessages(stmt));
+            }
+
+            // The IDs not found in the table may have been archived
+            if (messages.size() < new HashSet<>(messageIds).size()) {
+                Set<Integer> missing = new HashSet<>(messageIds);
+                messages.forEach(message -> missing.remove(message.getId()));
+                archive.getMessagesByIds(missing, archivedSenders(conn)).values().forEach(messages::addAll);
+            }
+
+        } catch (SQLException | IOException e) {
+            System.err.println("Error retrieving messages by id: " + e.getMessage());
+        }
+
+        messages.sort(Comparator.comparingInt(Message::getId));
+        return messages;
+    }
+
+    /**
+     * Stream the ID and content of every message in a chat room, without building Message objects
+     * @param chatRoomId The ID of the chat room
+     * @param consumer Called with the ID and content of each message, in ID order
+     * @return True if the whole room was read
+     */
+    public boolean scanMessageContents(int chatRoomId, BiConsumer<Integer, String> consumer) {
+        // Archived messages come first, and only up to where the table starts
+        String sql = "SELECT id, content FROM " + Constants.MESSAGE_TABLE + " WHERE chatroom_id = ? AND id > ? ORDER BY id";
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            int archivedUpTo = archive.getLastId(chatRoomId);
+            if (archivedUpTo > 0) {
+                archive.scanMessageContents(chatRoomId, consumer);
+            }
+
+            stmt.setInt(1, chatRoomId);
+            stmt.setInt(2, archivedUpTo);
+            stmt.setFetchSize(SCAN_FETCH_SIZE);
+
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
-                    int messageId = rs.getInt("id");
-                    Message message = getMessageById(messageId);
-                    if (message != null) {
-                        messages.add(message);
+                    consumer.accept(rs.getInt("id"), rs.getString("content"));
+                }
+            }
+            return true;
+
+        } catch (SQLException | IOException e) {
+            System.err.println("Error scanning messages for chat room: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Move the messages sent before a cutoff from the tables to the archive, room by room and oldest first.
+     * A room stops at its first message that is not old enough, so everything archived is older than
+     * everything left in the table. Each round is synced to the archive before its rows are deleted,
+     * and rows left behind by an interrupted round are deleted by the next one.
+     * @param cutoff Messages sent before this time are archived
+     * @return The number of archived messages, or -1 if failed
+     */
+    public int archiveMessages(LocalDateTime cutoff) {
+        String roomsSql = "SELECT id FROM " + Constants.CHATROOM_TABLE + " ORDER BY id";
+        String batchSql = MESSAGE_SELECT + " WHERE m.chatroom_id = ? AND m.id > ? ORDER BY m.id LIMIT ?";
+        // Also removes their delivery statuses, through the foreign key
+        String deleteSql = "DELETE FROM " + Constants.MESSAGE_TABLE + " WHERE chatroom_id = ? AND id <= ?";
+        int archived = 0;
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement roomsStmt = conn.prepareStatement(roomsSql);
+             PreparedStatement batchStmt = conn.prepareStatement(batchSql);
+             PreparedStatement deleteStmt = conn.prepareStatement(deleteSql)) {
+
+            List<Integer> chatRoomIds = new ArrayList<>();
+            try (ResultSet rs = roomsStmt.executeQuery()) {
+                while (rs.next()) {
+                    chatRoomIds.add(rs.getInt("id"));
+                }
+            }
+
+            for (int chatRoomId : chatRoomIds) {
+                int archivedUpTo = archive.getLastId(chatRoomId);
+                while (true) {
+                    if (archivedUpTo > 0) {
+                        deleteStmt.setInt(1, chatRoomId);
+                        deleteStmt.setInt(2, archivedUpTo);
+                        deleteStmt.executeUpdate();
                     }
+
+                    batchStmt.setInt(1, chatRoomId);
+                    batchStmt.setInt(2, archivedUpTo);
+                    batchStmt.setInt(3, Constants.ARCHIVE_BATCH_SIZE);
+                    List<Message> old = new ArrayList<>();
+                    for (Message message : readMessages(batchStmt)) {
+                        if (!message.getTimestamp().isBefore(cutoff)) {
+                            break;
+                        }
+                        old.add(message);
+                    }
+                    if (old.isEmpty()) {
+                        break;
+                    }
+
+                    // With watermarks the statuses of archived messages keep coming from the watermarks
+                    loadRoomDeliveryStatus(conn, chatRoomId, old);
+                    archive.append(chatRoomId, old, !DatabaseConnection.useReadWatermarks());
+                    archived += old.size();
+                    archivedUpTo = old.get(old.size() - 1).getId();
                 }
             }
+            return archived;
 
-        } catch (SQLException e) {
-            System.err.println("Error retrieving messages for chat room: " + e.getMessage());
+        } catch (SQLException | IOException e) {
+            System.err.println("Error archiving messages: " + e.getMessage());
+            return -1;
         }
-        
+    }
+
+    /**
+     * Read the messages returned by a query built on MESSAGE_SELECT into a compact block
+     * @param stmt The prepared query, with all parameters set
+     * @return The messages, in the order returned by the query
+     */
+    private MessageBlock readMessages(PreparedStatement stmt) throws SQLException {
+        MessageBlock messages = new MessageBlock();
+        Map<String, User> senders = new HashMap<>();
+
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                String senderUsername = rs.getString("sender_username");
+                String senderStatus = rs.getString("sender_status");
+
+                // Senders are shared between all the messages they wrote
+                User sender = senders.computeIfAbsent(senderUsername, username -> {
+                    User user = new User(username);
+                    if (senderStatus != null) {
+                        user.setStatus(UserStatus.valueOf(senderStatus));
+                    }
+                    return user;
+                });
+
+                messages.add(rs.getInt("id"), sender, rs.getTimestamp("timestamp").toLocalDateTime(), rs.getString("content"));
+            }
+        }
+
         return messages;
     }
+
+    /**
+     * Load the delivery statuses of a range of messages from one chat room with a single query,
+     * from the room's read watermarks when those are enabled
+     * @param conn The connection the messages were loaded on
+     * @param chatRoomId The ID of the chat room
+     * @param messages The already loaded messages of the room, ordered by ID
+     */
+    private void loadRoomDeliveryStatus(Connection conn, int chatRoomId, List<Message> messages) throws SQLException {
+        if (messages.isEmpty()) {
+            return;
+        }
+        if (DatabaseConnection.useReadWatermarks()) {
+            Map<String, ReadWatermark> watermarks = loadRoomWatermarks(conn, chatRoomId);
+            for (Message message : messages) {
+                message.useWatermarks(watermarks);
+            }
+            return;
+        }
+
+        String sql = "SELECT d.message_id, d.username, d.status FROM " + Constants.MESSAGE_DELIVERY_TABLE
+                     + " d JOIN " + Constants.MESSAGE_TABLE + " m ON (m.id = d.message_id)"
+                     + " WHERE m.chatroom_id = ? AND m.id BETWEEN ? AND ?";
+        Map<Integer, Message> messagesById = new HashMap<>();
+        for (Message message : messages) {
+            messagesById.put(message.getId(), message);
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, chatRoomId);
+            stmt.setInt(2, messages.get(0).getId());
+            stmt.setInt(3, messages.get(messages.size() - 1).getId());
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Message message = messagesById.get(rs.getInt("message_id"));
+                    if (message != null) {
+                        message.markStatus(rs.getString("username"), MessageStatus.valueOf(rs.getString("status")));
+                    }
+                }
+            }
+        }
+    }
     
+    /**
+     * Load the read watermarks of every participant of a chat room
+     * @param conn The connection to use
+     * @param chatRoomId The ID of the chat room
+     * @return The watermarks by username
+     */
+    private Map<String, ReadWatermark> loadRoomWatermarks(Connection conn, int chatRoomId) throws SQLException {
+        String sql = "SELECT username, joined_id, delivered_id, read_id FROM " + Constants.READ_WATERMARK_TABLE
+                     + " WHERE chatroom_id = ?";
+        Map<String, ReadWatermark> watermarks = new HashMap<>();
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, chatRoomId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    watermarks.put(rs.getString("username"), new ReadWatermark(rs.getInt("joined_id"),
+                            rs.getInt("delivered_id"), rs.getInt("read_id")));
+                }
+            }
+        }
+
+        return watermarks;
+    }
+
+    /**
+     * Mark a message as delivered to every participant of its room by moving their delivered watermarks,
+     * in one statement whatever the number of participants
+     * @param chatRoomId The ID of the chat room
+     * @param messageId The ID of the delivered message
+     */
+    public void advanceDeliveredWatermarks(int chatRoomId, int messageId) {
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(ADVANCE_DELIVERED_SQL)) {
+
+            stmt.setInt(1, messageId);
+            stmt.setInt(2, chatRoomId);
+            stmt.setInt(3, chatRoomId);
+            stmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error advancing delivered watermarks: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create the watermark of a new participant, starting after the newest message of the room
+     * @param chatRoomId The ID of the chat room
+     * @param username The username of the participant
+     */
+    public void initializeWatermark(int chatRoomId, String username) {
+        try (Connection conn = DatabaseConnection.getDatabaseConnection()) {
+            initializeWatermark(conn, chatRoomId, username);
+        } catch (SQLException e) {
+            System.err.println("Error initializing read watermark: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create the watermark of a new participant on the given connection, in the caller's transaction.
+     * The watermark of a former member who joins again is reset, so messages sent while they were out stay hidden.
+     * @param conn The connection to use
+     * @param chatRoomId The ID of the chat room
+     * @param username The username of the participant
+     */
+    void initializeWatermark(Connection conn, int chatRoomId, String username) throws SQLException {
+        String sql = "INSERT INTO " + Constants.READ_WATERMARK_TABLE
+                     + " (username, chatroom_id, joined_id, delivered_id, read_id)"
+                     + " SELECT ?, ?, COALESCE(MAX(id), 0), COALESCE(MAX(id), 0), COALESCE(MAX(id), 0) FROM "
+                     + Constants.MESSAGE_TABLE + " WHERE chatroom_id = ?"
+                     + " ON DUPLICATE KEY UPDATE joined_id = VALUES(joined_id), delivered_id = VALUES(delivered_id), read_id = VALUES(read_id)";
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, username);
+            stmt.setInt(2, chatRoomId);
+            stmt.setInt(3, chatRoomId);
+            stmt.executeUpdate();
+        }
+    }
+
     /**
      * Update a message's content
      * @param messageId The ID of the message
@@ -213,17 +777,21 @@ public class MessageJdbcService {
     public boolean updateMessageContent(int messageId, String newContent) {
         String sql = "UPDATE " + Constants.MESSAGE_TABLE + " SET content = ? WHERE id = ?";
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, newContent);
             stmt.setInt(2, messageId);
             
             int affectedRows = stmt.executeUpdate();
+            if (affectedRows > 0) {
+                DatabaseConnection.afterCommit(() -> SearchIndexService.getInstance().onMessageUpdated(messageId, newContent));
+            } else if (!archive.getMessagesByIds(List.of(messageId), User::new).isEmpty()) {
+                System.err.println("Error updating message: message " + messageId + " is archived and read-only");
+            }
             return affectedRows > 0;
             
-        } catch (SQLException e) {
+        } catch (SQLException | IOException e) {
             System.err.println("Error updating message: " + e.getMessage());
             return false;
         }
@@ -240,9 +808,8 @@ public class MessageJdbcService {
         String sql = "UPDATE " + Constants.MESSAGE_DELIVERY_TABLE + 
                      " SET status = ? WHERE message_id = ? AND username = ?";
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, status.toString());
             stmt.setInt(2, messageId);
@@ -256,4 +823,287 @@ public class MessageJdbcService {
             return false;
         }
     }
+
+    /**
+     * Mark every message of a chat room up to a given ID as read by a user, in a single statement.
+     * Messages sent by the user keep their SENT status.
+     * @param chatRoomId The ID of the chat room
+     * @param username The username of the reader
+     * @param upToMessageId The ID of the last message to mark as read
+     * @return The number of messages whose status changed, or -1 if failed
+     */
+    public int markRoomRead(int chatRoomId, String username, int upToMessageId) {
+        if (DatabaseConnection.useReadWatermarks()) {
+            return advanceReadWatermark(chatRoomId, username, upToMessageId);
+        }
+        String sql = "UPDATE " + Constants.MESSAGE_DELIVERY_TABLE + " SET status = ?"
+                     + " WHERE username = ? AND status <> ? AND message_id IN (SELECT id FROM " + Constants.MESSAGE_TABLE
+                     + " WHERE chatroom_id = ? AND id <= ? AND sender_username <> ?)";
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, MessageStatus.READ.toString());
+            stmt.setString(2, username);
+            stmt.setString(3, MessageStatus.READ.toString());
+            stmt.setInt(4, chatRoomId);
+            stmt.setInt(5, upToMessageId);
+            stmt.setString(6, username);
+
+            return stmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error marking messages as read: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Move a user's read watermark in a room forward
+     * @return The number of messages from other users that became read, or -1 if failed
+     */
+    private int advanceReadWatermark(int chatRoomId, String username, int upToMessageId) {
+        String countSql = "SELECT COUNT(*) AS newly_read FROM " + Constants.MESSAGE_TABLE + " m JOIN "
+                          + Constants.READ_WATERMARK_TABLE + " w ON (w.chatroom_id = m.chatroom_id AND w.username = ?)"
+                          + " WHERE m.chatroom_id = ? AND m.id > GREATEST(w.read_id, w.joined_id)"
+                          + " AND m.id <= LEAST(?, w.delivered_id) AND m.sender_username <> ?";
+        String updateSql = "UPDATE " + Constants.READ_WATERMARK_TABLE + " SET read_id = LEAST(?, delivered_id)"
+                           + " WHERE chatroom_id = ? AND username = ? AND read_id < LEAST(?, delivered_id)";
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement countStmt = conn.prepareStatement(countSql);
+                 PreparedStatement updateStmt = conn.prepareStatement(updateSql)) {
+
+                countStmt.setString(1, username);
+                countStmt.setInt(2, chatRoomId);
+                countStmt.setInt(3, upToMessageId);
+                countStmt.setString(4, username);
+                int newlyRead = 0;
+                try (ResultSet rs = countStmt.executeQuery()) {
+                    if (rs.next()) {
+                        newlyRead = rs.getInt("newly_read");
+                    }
+                }
+
+                updateStmt.setInt(1, upToMessageId);
+                updateStmt.setInt(2, chatRoomId);
+                updateStmt.setString(3, username);
+                updateStmt.setInt(4, upToMessageId);
+                updateStmt.executeUpdate();
+
+                conn.commit();
+                return newlyRead;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error advancing read watermark: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Get the ID of the newest message in a chat room
+     * @param chatRoomId The ID of the chat room
+     * @return The ID of the newest message, or 0 if the room has no messages
+     */
+    public int getLatestMessageId(int chatRoomId) {
+        String sql = "SELECT MAX(id) AS latest_id FROM " + Constants.MESSAGE_TABLE + " WHERE chatroom_id = ?";
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setInt(1, chatRoomId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next() && rs.getInt("latest_id") > 0) {
+                    return rs.getInt("latest_id");
+                }
+            }
+            // Every message of the room may be archived
+            return archive.getLastId(chatRoomId);
+
+        } catch (SQLException e) {
+            System.err.println("Error retrieving latest message: " + e.getMessage());
+        }
+
+        return 0;
+    }
+
+    /**
+     * Get the messages of a chat room that a user has received but not read yet
+     * @param chatRoomId The ID of the chat room
+     * @param username The username of the reader
+     * @return The unread messages, oldest first, with the reader's status loaded
+     */
+    public List<Message> getUnreadMessages(int chatRoomId, String username) {
+        if (DatabaseConnection.useReadWatermarks()) {
+            return getUnreadMessagesFromWatermark(chatRoomId, username);
+        }
+        String sql = MESSAGE_SELECT + " JOIN " + Constants.MESSAGE_DELIVERY_TABLE + " d ON (d.message_id = m.id)"
+                     + " WHERE m.chatroom_id = ? AND d.username = ? AND d.status = ? ORDER BY m.id";
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setInt(1, chatRoomId);
+            stmt.setString(2, username);
+            stmt.setString(3, MessageStatus.RECEIVED.toString());
+
+            List<Message> messages = readMessages(stmt);
+            for (Message message : messages) {
+                message.markStatus(username, MessageStatus.RECEIVED);
+            }
+            return messages;
+
+        } catch (SQLException e) {
+            System.err.println("Error retrieving unread messages: " + e.getMessage());
+        }
+
+        return new ArrayList<>();
+    }
+
+    private List<Message> getUnreadMessagesFromWatermark(int chatRoomId, String username) {
+        String sql = MESSAGE_SELECT + " JOIN " + Constants.READ_WATERMARK_TABLE
+                     + " w ON (w.chatroom_id = m.chatroom_id AND w.username = ?)"
+                     + " WHERE m.chatroom_id = ? AND m.id > GREATEST(w.read_id, w.joined_id) AND m.id <= w.delivered_id"
+                     + " AND m.sender_username <> ? ORDER BY m.id";
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, username);
+            stmt.setInt(2, chatRoomId);
+            stmt.setString(3, username);
+
+            List<Message> messages = readMessages(stmt);
+            loadRoomDeliveryStatus(conn, chatRoomId, messages);
+            return messages;
+
+        } catch (SQLException e) {
+            System.err.println("Error retrieving unread messages: " + e.getMessage());
+        }
+
+        return new ArrayList<>();
+    }
+
+    /**
+     * Add one unread message to the counters of every participant of a room except the sender
+     * @param chatRoomId The ID of the chat room
+     * @param senderUsername The username of the sender
+     */
+    public void incrementUnreadCounters(int chatRoomId, String senderUsername) {
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(INCREMENT_UNREAD_SQL)) {
+
+            stmt.setInt(1, 1);
+            stmt.setInt(2, chatRoomId);
+            stmt.setString(3, senderUsername);
+            stmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error updating unread counters: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remove read messages from a user's unread counter for a room
+     * @param chatRoomId The ID of the chat room
+     * @param username The username of the reader
+     * @param readCount The number of messages that were read
+     */
+    public void decrementUnreadCounter(int chatRoomId, String username, int readCount) {
+        String sql = "UPDATE " + Constants.UNREAD_COUNTER_TABLE + " SET unread_count = GREATEST(unread_count - ?, 0)"
+                     + " WHERE username = ? AND chatroom_id = ?";
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setInt(1, readCount);
+            stmt.setString(2, username);
+            stmt.setInt(3, chatRoomId);
+            stmt.executeUpdate();
+
+        } catch (SQLException e) {
+            System.err.println("Error updating unread counter: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the number of unread messages of a user in a room from the maintained counter
+     * @param chatRoomId The ID of the chat room
+     * @param username The username of the reader
+     * @return The number of unread messages
+     */
+    public int getUnreadCount(int chatRoomId, String username) {
+        String sql = "SELECT unread_count FROM " + Constants.UNREAD_COUNTER_TABLE + " WHERE username = ? AND chatroom_id = ?";
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+
+            stmt.setString(1, username);
+            stmt.setInt(2, chatRoomId);
+
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("unread_count");
+                }
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error retrieving unread counter: " + e.getMessage());
+        }
+
+        return 0;
+    }
+
+    /**
+     * Rebuild every unread counter from the delivery statuses (or the read watermarks), in one transaction
+     * @return True if successful
+     */
+    public boolean reconcileUnreadCounters() {
+        String deleteSql = "DELETE FROM " + Constants.UNREAD_COUNTER_TABLE;
+        String rebuildSql = DatabaseConnection.useReadWatermarks()
+                ? "INSERT INTO " + Constants.UNREAD_COUNTER_TABLE + " (username, chatroom_id, unread_count)"
+                  + " SELECT w.username, w.chatroom_id, COUNT(*) FROM " + Constants.READ_WATERMARK_TABLE
+                  + " w JOIN " + Constants.PARTICIPANTS_TABLE + " p ON (p.chatroom_id = w.chatroom_id AND p.username = w.username)"
+                  + " JOIN " + Constants.MESSAGE_TABLE + " m ON (m.chatroom_id = w.chatroom_id"
+                  + " AND m.id > GREATEST(w.read_id, w.joined_id) AND m.id <= w.delivered_id"
+                  + " AND m.sender_username <> w.username) GROUP BY w.username, w.chatroom_id"
+                : "INSERT INTO " + Constants.UNREAD_COUNTER_TABLE + " (username, chatroom_id, unread_count)"
+                  + " SELECT d.username, m.chatroom_id, COUNT(*) FROM " + Constants.MESSAGE_DELIVERY_TABLE
+                  + " d JOIN " + Constants.MESSAGE_TABLE + " m ON (m.id = d.message_id)"
+                  + " WHERE d.status = ? GROUP BY d.username, m.chatroom_id";
+
+        try (Connection conn = DatabaseConnection.getDatabaseConnection()) {
+            conn.setAutoCommit(false);
+            try (PreparedStatement deleteStmt = conn.prepareStatement(deleteSql);
+                 PreparedStatement rebuildStmt = conn.prepareStatement(rebuildSql)) {
+
+                deleteStmt.executeUpdate();
+                if (!DatabaseConnection.useReadWatermarks()) {
+                    rebuildStmt.setString(1, MessageStatus.RECEIVED.toString());
+                }
+                rebuildStmt.executeUpdate();
+                conn.commit();
+                return true;
+
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+
+        } catch (SQLException e) {
+            System.err.println("Error reconciling unread counters: " + e.getMessage());
+            return false;
+        }
+    }
 }
@@ -0,0 +1,92 @@
+package Repository;
+
+import Entities.Message;
+import Utils.MessageStatus;
+
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Storage of the messages, their delivery statuses and the unread counters
+ */
+public interface MessageRepository {
+    /**
+     * @return The ID of the created message, or -1 if failed
+     */
+    int createMessage(Message message, int chatRoomId);
+
+    /**
+     * Create several messages at once, with the delivery statuses of their recipients and the unread counters
+     * @param chatRoomIds The ID of the chat room of each message, in the same order
+     * @return The IDs of the created messages in the same order, or null if none was created
+     */
+    List<Integer> createMessages(List<Message> messages, List<Integer> chatRoomIds);
+
+    void addMessageDeliveryStatus(int messageId, Message message);
+
+    /**
+     * @return The message with its delivery statuses, or null if not found
+     */
+    Message getMessageById(int messageId);
+
+    /**
+     * @return Every message of the room with its delivery statuses, oldest first
+     */
+    List<Message> getMessagesByChatRoomId(int chatRoomId);
+
+    /**
+     * Get one page of a chat room's history using the message ID as cursor
+     * @param beforeId Only return messages older than this ID (null for no upper bound)
+     * @param afterId Only return messages newer than this ID (null for no lower bound)
+     * @return The page of messages, oldest first. Without an afterId the page holds the newest messages
+     *         before the cursor, with an afterId the oldest messages after it.
+     */
+    List<Message> getMessagesPage(int chatRoomId, Integer beforeId, Integer afterId, int limit);
+
+    /**
+     * @return The messages that exist, ordered by ID, without delivery statuses
+     */
+    List<Message> getMessagesByIds(List<Integer> messageIds);
+
+    /**
+     * Stream the ID and content of every message in a chat room, in ID order
+     * @return True if the whole room was read
+     */
+    boolean scanMessageContents(int chatRoomId, BiConsumer<Integer, String> consumer);
+
+    void advanceDeliveredWatermarks(int chatRoomId, int messageId);
+
+    void initializeWatermark(int chatRoomId, String username);
+
+    boolean updateMessageContent(int messageId, String newContent);
+
+    boolean updateMessageStatus(int messageId, String username, MessageStatus status);
+
+    /**
+     * Mark every message of a chat room up to a given ID as read by a user
+     * @return The number of messages whose status changed, or -1 if failed
+     */
+    int markRoomRead(int chatRoomId, String username, int upToMessageId);
+
+    /**
+     * @return The ID of the newest message, or 0 if the room has no messages
+     */
+    int getLatestMessageId(int chatRoomId);
+
+    /**
+     * @return The messages a user has received but not read yet, oldest first
+     */
+    List<Message> getUnreadMessages(int chatRoomId, String username);
+
+    void incrementUnreadCounters(int chatRoomId, String senderUsername);
+
+    void decrementUnreadCounter(int chatRoomId, String username, int readCount);
+
+    int getUnreadCount(int chatRoomId, String username);
+
+    /**
+     * Rebuild every unread counter from the delivery statuses
+     * @return True if successful
+     */
+    boolean reconcileUnreadCounters();
+}
@@ -0,0 +1,90 @@
+package Repository;
+
+import Config.Constants;
+import Services.StatsService;
+import Utils.StorageBackend;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives the repositories of the storage backend chosen at startup.
+ * The backend must be selected before the first repository is used and not changed afterwards.
+ * Every repository is wrapped so the latency of each of its methods is recorded by StatsService.
+ */
+public class Repositories {
+    private static volatile StorageBackend backend;
+    private static volatile UserRepository users;
+    private static volatile ChatRoomRepository chatRooms;
+    private static volatile MessageRepository messages;
+    private static volatile UserSessionRepository sessions;
+
+    static {
+        select(Constants.STORAGE_BACKEND);
+    }
+
+    private Repositories() {
+    }
+
+    public static void select(StorageBackend storageBackend) {
+        boolean memory = storageBackend == StorageBackend.MEMORY;
+        users = timed(UserRepository.class, memory ? UserInMemoryService.getInstance() : UserJdbcService.getInstance());
+        chatRooms = timed(ChatRoomRepository.class, memory ? ChatRoomInMemoryService.getInstance() : ChatRoomJdbcService.getInstance());
+        messages = timed(MessageRepository.class, memory ? MessageInMemoryService.getInstance() : MessageJdbcService.getInstance());
+        sessions = timed(UserSessionRepository.class, memory ? UserSessionInMemoryService.getInstance() : UserSessionJdbcService.getInstance());
+        backend = storageBackend;
+    }
+
+    public static StorageBackend getBackend() {
+        return backend;
+    }
+
+    public static UserRepository users() {
+        return users;
+    }
+
+    public static ChatRoomRepository chatRooms() {
+        return chatRooms;
+    }
+
+    public static MessageRepository messages() {
+        return messages;
+    }
+
+    public static UserSessionRepository sessions() {
+        return sessions;
+    }
+
+    private static <T> T timed(Class<T> repositoryType, T repository) {
+        return repositoryType.cast(Proxy.newProxyInstance(repositoryType.getClassLoader(),
+                new Class<?>[]{repositoryType}, new TimingHandler(repositoryType, repository)));
+    }
+
+    private static class TimingHandler implements InvocationHandler {
+        private final String repositoryName;
+        private final Object repository;
+        private final Map<Method, String> methodNames = new ConcurrentHashMap<>();
+
+        private TimingHandler(Class<?> repositoryType, Object repository) {
+            this.repositoryName = repositoryType.getSimpleName();
+            this.repository = repository;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            long start = System.nanoTime();
+            try {
+                return method.invoke(repository, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                String name = methodNames.computeIfAbsent(method, key -> repositoryName + "." + key.getName());
+                StatsService.getInstance().recordRepositoryCall(name, System.nanoTime() - start);
+            }
+        }
+    }
+}
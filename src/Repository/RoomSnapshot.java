@@ -0,0 +1,78 @@
+package Repository;
+
+import Entities.ChatRoom;
+import Entities.GroupChat;
+import Entities.PrivateChat;
+import Entities.User;
+import Utils.GroupPermission;
+import Utils.UserStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable copy of a room row and its members, as kept in the room cache.
+ * Every lookup builds a fresh ChatRoom from it, since callers modify the rooms they get.
+ */
+public class RoomSnapshot {
+    private final String name;
+    private final String roomType;
+    private final List<RoomMember> members = new ArrayList<>();
+
+    RoomSnapshot(String name, String roomType) {
+        this.name = name;
+        this.roomType = roomType;
+    }
+
+    /**
+     * Add a member while the snapshot is being built, members are expected in username order
+     */
+    void addMember(String username, UserStatus status, GroupPermission permission) {
+        members.add(new RoomMember(username, status, permission));
+    }
+
+    ChatRoom toChatRoom(int chatRoomId) {
+        List<User> users = new ArrayList<>();
+        User creator = null;
+        for (RoomMember member : members) {
+            User user = new User(member.username);
+            user.setStatus(member.status);
+            users.add(user);
+            if (creator == null && member.permission == GroupPermission.OWNER) {
+                creator = user;
+            }
+        }
+
+        if (!roomType.equals("GROUP")) {
+            return new PrivateChat(users.get(0), users.get(1), chatRoomId);
+        }
+
+        if (creator == null) {
+            creator = new User("UNKNOWN");
+        }
+        GroupChat chatRoom = new GroupChat(name, creator, chatRoomId);
+        for (int i = 0; i < users.size(); i++) {
+            User participant = users.get(i);
+            if (participant != creator) {
+                chatRoom.addParticipant(participant);
+                GroupPermission permission = members.get(i).permission;
+                if (permission != null) {
+                    chatRoom.setPermissions(participant, permission);
+                }
+            }
+        }
+        return chatRoom;
+    }
+
+    private static class RoomMember {
+        private final String username;
+        private final UserStatus status;
+        private final GroupPermission permission;
+
+        private RoomMember(String username, UserStatus status, GroupPermission permission) {
+            this.username = username;
+            this.status = status;
+            this.permission = permission;
+        }
+    }
+}
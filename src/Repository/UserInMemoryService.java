@@ -0,0 +1,76 @@
+package Repository;
+
+import Entities.User;
+import Utils.UserStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Users kept in memory only, for deployments that do not need to survive a restart.
+ * Only the status is stored, every lookup returns a new User.
+ */
+public class UserInMemoryService implements UserRepository {
+    private static final UserInMemoryService instance = new UserInMemoryService();
+    // Sorted by username, so listing needs no sort
+    private final Map<String, UserStatus> statuses = new ConcurrentSkipListMap<>();
+
+    private UserInMemoryService() {
+    }
+
+    public static UserInMemoryService getInstance() {
+        return instance;
+    }
+
+    public User createUser(String username) {
+        User newUser = new User(username);
+        if (statuses.putIfAbsent(username, newUser.getStatus()) != null) {
+            System.out.println("User " + username + " already exists!");
+            return null;
+        }
+        return newUser;
+    }
+
+    public User getUserByUsername(String username) {
+        UserStatus status = statuses.get(username);
+        if (status == null) {
+            return null;
+        }
+        User user = new User(username);
+        user.setStatus(status);
+        return user;
+    }
+
+    public List<User> getAllUsers() {
+        List<User> users = new ArrayList<>();
+        statuses.forEach((username, status) -> {
+            User user = new User(username);
+            user.setStatus(status);
+            users.add(user);
+        });
+        return users;
+    }
+
+    public boolean updateUser(User user) {
+        return statuses.replace(user.getUsername(), user.getStatus()) != null;
+    }
+
+    public boolean deleteUser(String username) {
+        if (statuses.remove(username) == null) {
+            return false;
+        }
+        // Same as the foreign keys of the database
+        ChatRoomInMemoryService.getInstance().removeMemberEverywhere(username);
+        UserSessionInMemoryService.getInstance().deleteSessions(username);
+        return true;
+    }
+
+    /**
+     * @return The status of a user, or null if the user does not exist
+     */
+    UserStatus getStatus(String username) {
+        return statuses.get(username);
+    }
+}
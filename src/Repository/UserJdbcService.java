@@ -2,24 +2,31 @@ package Repository;
 
 import Config.Constants;
 import Config.DatabaseConnection;
+import Config.RollbackListeners;
 import Entities.User;
 import Services.AuditService;
+import Utils.LruCache;
 import Utils.UserStatus;
 
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class UserJdbcService {
-    private static UserJdbcService instance;
+public class UserJdbcService implements UserRepository {
+    private static final UserJdbcService instance = new UserJdbcService();
+    // Users by username. Holds copies, so callers changing a returned User never alter the cache.
+    private final LruCache<String, User> userCache = new LruCache<>(Constants.USER_CACHE_MAX_SIZE, Constants.USER_CACHE_TTL_MILLIS);
+    // A load only fills the cache if no user changed while it ran. Counting a change and updating the cache
+    // happen under cacheLock, like the check and put of a load, see cacheIfUnchanged.
+    private final AtomicLong userChanges = new AtomicLong();
+    private final Object cacheLock = new Object();
     
     private UserJdbcService() {
+        RollbackListeners.register(this::clearCache);
     }
     
     public static UserJdbcService getInstance() {
-        if (instance == null) {
-            instance = new UserJdbcService();
-        }
         return instance;
     }
     
@@ -39,14 +46,14 @@ public class UserJdbcService {
 
         User newUser = new User(username);
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, newUser.getUsername());
             stmt.setString(2, newUser.getStatus().toString());
             
             int affectedRows = stmt.executeUpdate();
+            userChanged(username, copyOf(newUser));
             return newUser;
         } catch (SQLException e) {
             System.err.println("Error creating user: " + e.getMessage());
@@ -55,31 +62,54 @@ public class UserJdbcService {
     }
     
     /**
-     * Retrieve a user from the database by username
+     * Retrieve a user by username, from the user cache if possible, otherwise from the database
      * @param username The username to search for
      * @return The User if found, null otherwise
      */
     public User getUserByUsername(String username) {
-        String sql = "SELECT * FROM " + Constants.USER_TABLE + " WHERE username = ?";
+        User cached = userCache.get(username);
+        if (cached != null) {
+            return copyOf(cached);
+        }
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
-            
+        try (Connection conn = DatabaseConnection.getDatabaseConnection()) {
+            return getUserByUsername(conn, username);
+        } catch (SQLException e) {
+            System.err.println("Error retrieving user: " + e.getMessage());
+        }
+        
+        return null;
+    }
+
+    /**
+     * Retrieve a user by username, from the user cache if possible, otherwise on the given connection.
+     * For callers already holding a connection, which must not borrow a second one.
+     * @param conn The connection to load the user on
+     * @param username The username to search for
+     * @return The User if found, null otherwise
+     */
+    User getUserByUsername(Connection conn, String username) throws SQLException {
+        String sql = "SELECT * FROM " + Constants.USER_TABLE + " WHERE username = ?";
+
+        User cached = userCache.get(username);
+        if (cached != null) {
+            return copyOf(cached);
+        }
+
+        long changesBefore = userChanges.get();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, username);
-            
+
             try (ResultSet rs = stmt.executeQuery()) {
                 if (rs.next()) {
                     User user = new User(rs.getString("username"));
                     user.setStatus(UserStatus.valueOf(rs.getString("status")));
+                    cacheIfUnchanged(username, copyOf(user), changesBefore);
                     return user;
                 }
             }
-            
-        } catch (SQLException e) {
-            System.err.println("Error retrieving user: " + e.getMessage());
         }
-        
+
         return null;
     }
     
@@ -91,10 +121,9 @@ public class UserJdbcService {
         String sql = "SELECT * FROM " + Constants.USER_TABLE;
         List<User> users = new ArrayList<>();
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
                 User user = new User(rs.getString("username"));
@@ -117,18 +146,19 @@ public class UserJdbcService {
     public boolean updateUser(User user) {
         String sql = "UPDATE " + Constants.USER_TABLE + " SET status = ? WHERE username = ?";
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, user.getStatus().toString());
             stmt.setString(2, user.getUsername());
             
             int affectedRows = stmt.executeUpdate();
+            userChanged(user.getUsername(), affectedRows > 0 ? copyOf(user) : null);
             return affectedRows > 0;
             
         } catch (SQLException e) {
             System.err.println("Error updating user: " + e.getMessage());
+            userChanged(user.getUsername(), null);
             return false;
         }
     }
@@ -141,9 +171,8 @@ public class UserJdbcService {
     public boolean deleteUser(String username) {
         String sql = "DELETE FROM " + Constants.USER_TABLE + " WHERE username = ?";
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
             stmt.setString(1, username);
             
@@ -153,6 +182,61 @@ public class UserJdbcService {
         } catch (SQLException e) {
             System.err.println("Error deleting user: " + e.getMessage());
             return false;
+        } finally {
+            userChanged(username, null);
+            // The foreign keys removed the user from every room
+            ChatRoomJdbcService.getInstance().clearCaches();
+        }
+    }
+
+    /**
+     * @return The user cache, for its hit and miss counters
+     */
+    public LruCache<String, User> getUserCache() {
+        return userCache;
+    }
+
+    /**
+     * Cache what a load read, unless a user changed since it started: the change may be missing
+     * from the result, so it is left to the next read
+     * @param changesBefore The user change count read before the load
+     */
+    private void cacheIfUnchanged(String username, User user, long changesBefore) {
+        synchronized (cacheLock) {
+            if (userChanges.get() == changesBefore) {
+                userCache.put(username, user);
+            }
+        }
+    }
+
+    /**
+     * Record a change of a user and cache its new state
+     * @param user The copy to cache, or null to drop the cached user
+     */
+    private void userChanged(String username, User user) {
+        synchronized (cacheLock) {
+            userChanges.incrementAndGet();
+            if (user != null) {
+                userCache.put(username, user);
+            } else {
+                userCache.invalidate(username);
+            }
+        }
+    }
+
+    /**
+     * Forget every cached user, for rollbacks
+     */
+    private void clearCache() {
+        synchronized (cacheLock) {
+            userChanges.incrementAndGet();
+            userCache.clear();
         }
     }
+
+    private static User copyOf(User user) {
+        User copy = new User(user.getUsername());
+        copy.setStatus(user.getStatus());
+        return copy;
+    }
 }
@@ -0,0 +1,30 @@
+package Repository;
+
+import Entities.User;
+
+import java.util.List;
+
+/**
+ * Storage of the registered users
+ */
+public interface UserRepository {
+    /**
+     * @return The new user, or null if the username is taken or the user could not be saved
+     */
+    User createUser(String username);
+
+    /**
+     * @return The user, or null if not found. Changes to it are only saved by updateUser.
+     */
+    User getUserByUsername(String username);
+
+    List<User> getAllUsers();
+
+    /**
+     * Save the status of a user
+     * @return True if successful
+     */
+    boolean updateUser(User user);
+
+    boolean deleteUser(String username);
+}
@@ -0,0 +1,74 @@
+package Repository;
+
+import Entities.UserSession;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Login sessions kept in memory only, indexed by username for both the active and the ended ones
+ */
+public class UserSessionInMemoryService implements UserSessionRepository {
+    private static final UserSessionInMemoryService instance = new UserSessionInMemoryService();
+    private final AtomicInteger nextSessionId = new AtomicInteger(1);
+    private final Map<String, Map<Integer, UserSession>> activeSessions = new ConcurrentHashMap<>();
+    private final Map<String, List<UserSession>> inactiveSessions = new ConcurrentHashMap<>();
+
+    private UserSessionInMemoryService() {
+    }
+
+    public static UserSessionInMemoryService getInstance() {
+        return instance;
+    }
+
+    public int createUserSession(UserSession session) {
+        String username = session.getUser().getUsername();
+        if (UserInMemoryService.getInstance().getStatus(username) == null) {
+            System.err.println("Error creating user session: unknown user " + username);
+            return -1;
+        }
+        int sessionId = nextSessionId.getAndIncrement();
+        activeSessions.computeIfAbsent(username, key -> new ConcurrentHashMap<>())
+                .put(sessionId, new UserSession(session.getUser(), sessionId, session.getLoginTime(), null, session.getIpAddress()));
+        return sessionId;
+    }
+
+    public Map<String, UserSession> getActiveSessions() {
+        Map<String, UserSession> sessionsByUser = new HashMap<>();
+        activeSessions.forEach((username, sessions) -> sessions.values().forEach(session -> sessionsByUser.put(username, session)));
+        return sessionsByUser;
+    }
+
+    public Map<String, List<UserSession>> getInactiveSessions() {
+        Map<String, List<UserSession>> sessionsByUser = new HashMap<>();
+        inactiveSessions.forEach((username, sessions) -> {
+            if (!sessions.isEmpty()) {
+                sessionsByUser.put(username, new ArrayList<>(sessions));
+            }
+        });
+        return sessionsByUser;
+    }
+
+    public boolean endUserSession(String username, LocalDateTime logoutTime) {
+        Map<Integer, UserSession> sessions = activeSessions.remove(username);
+        if (sessions == null || sessions.isEmpty()) {
+            return false;
+        }
+        List<UserSession> ended = inactiveSessions.computeIfAbsent(username, key -> new CopyOnWriteArrayList<>());
+        for (UserSession session : sessions.values()) {
+            ended.add(new UserSession(session.getUser(), session.getSessionId(), session.getLoginTime(), logoutTime, session.getIpAddress()));
+        }
+        return true;
+    }
+
+    void deleteSessions(String username) {
+        activeSessions.remove(username);
+        inactiveSessions.remove(username);
+    }
+}
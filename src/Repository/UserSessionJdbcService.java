@@ -5,6 +5,7 @@ import Config.DatabaseConnection;
 import Entities.User;
 import Entities.UserSession;
 import Services.AuditService;
+import Utils.UserStatus;
 
 import java.sql.*;
 import java.time.LocalDateTime;
@@ -13,18 +14,16 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class UserSessionJdbcService {
-    private static UserSessionJdbcService instance;
-    private final UserJdbcService userService;
+public class UserSessionJdbcService implements UserSessionRepository {
+    private static final UserSessionJdbcService instance = new UserSessionJdbcService();
+    // Sessions joined with their users, so listing sessions reads everything on one connection
+    private static final String SESSION_SELECT = "SELECT s.*, u.status AS user_status FROM " + Constants.USER_SESSION_TABLE
+            + " s LEFT JOIN " + Constants.USER_TABLE + " u ON (u.username = s.username)";
     
     private UserSessionJdbcService() {
-        userService = UserJdbcService.getInstance();
     }
     
     public static UserSessionJdbcService getInstance() {
-        if (instance == null) {
-            instance = new UserSessionJdbcService();
-        }
         return instance;
     }
     
@@ -38,9 +37,8 @@ public class UserSessionJdbcService {
                      " (username, login_time, ip_address) VALUES (?, ?, ?)";
         int sessionId = -1;
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
             
             stmt.setString(1, session.getUser().getUsername());
             stmt.setTimestamp(2, Timestamp.valueOf(session.getLoginTime()));
@@ -68,17 +66,16 @@ public class UserSessionJdbcService {
      * @return Map of active user sessions
      */
     public Map<String, UserSession> getActiveSessions() {
-        String sql = "SELECT * FROM " + Constants.USER_SESSION_TABLE + " WHERE logout_time IS NULL";
+        String sql = SESSION_SELECT + " WHERE s.logout_time IS NULL";
         Map<String, UserSession> sessionsByUser = new HashMap<>();
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
             
             while (rs.next()) {
                 String username = rs.getString("username");
-                User user = userService.getUserByUsername(username);
+                User user = readUser(rs);
 
                 Timestamp logoutTimestamp = rs.getTimestamp("logout_time");
                 LocalDateTime logoutTime = logoutTimestamp != null ? logoutTimestamp.toLocalDateTime() : null;
@@ -103,17 +100,16 @@ public class UserSessionJdbcService {
      * @return Map of usernames to lists of their inactive user sessions
      */
     public Map<String, List<UserSession>> getInactiveSessions() {
-        String sql = "SELECT * FROM " + Constants.USER_SESSION_TABLE + " WHERE logout_time IS NOT NULL";
+        String sql = SESSION_SELECT + " WHERE s.logout_time IS NOT NULL";
         Map<String, List<UserSession>> sessionsByUser = new HashMap<>();
 
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
 
             while (rs.next()) {
                 String username = rs.getString("username");
-                User user = userService.getUserByUsername(username);
+                User user = readUser(rs);
 
                 Timestamp logoutTimestamp = rs.getTimestamp("logout_time");
                 LocalDateTime logoutTime = logoutTimestamp != null ? logoutTimestamp.toLocalDateTime() : null;
@@ -139,17 +135,17 @@ public class UserSessionJdbcService {
     
     /**
      * End a user session (set logout time)
+     * @param logoutTime When the user logged out or was last active
      * @return True if successful
      */
-    public boolean endUserSession(String username) {
+    public boolean endUserSession(String username, LocalDateTime logoutTime) {
         String sql = "UPDATE " + Constants.USER_SESSION_TABLE + 
                      " SET logout_time = ? WHERE username = ? AND logout_time IS NULL";
         
-        try {
-            Connection conn = DatabaseConnection.getDatabaseConnection();
-            PreparedStatement stmt = conn.prepareStatement(sql);
+        try (Connection conn = DatabaseConnection.getDatabaseConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
             
-            stmt.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now()));
+            stmt.setTimestamp(1, Timestamp.valueOf(logoutTime));
             stmt.setString(2, username);
             
             int affectedRows = stmt.executeUpdate();
@@ -160,4 +156,19 @@ public class UserSessionJdbcService {
             return false;
         }
     }
+
+    /**
+     * Read the user of a session row selected with SESSION_SELECT
+     * @param rs The result set, on the session row
+     * @return The user of the session, or null if it no longer exists
+     */
+    private static User readUser(ResultSet rs) throws SQLException {
+        String status = rs.getString("user_status");
+        if (status == null) {
+            return null;
+        }
+        User user = new User(rs.getString("username"));
+        user.setStatus(UserStatus.valueOf(status));
+        return user;
+    }
 }
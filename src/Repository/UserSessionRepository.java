@@ -0,0 +1,34 @@
+package Repository;
+
+import Entities.UserSession;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Storage of the login sessions
+ */
+public interface UserSessionRepository {
+    /**
+     * @return The ID of the new session, or -1 if failed
+     */
+    int createUserSession(UserSession session);
+
+    /**
+     * @return The sessions without a logout time, by username
+     */
+    Map<String, UserSession> getActiveSessions();
+
+    /**
+     * @return The ended sessions, grouped by username
+     */
+    Map<String, List<UserSession>> getInactiveSessions();
+
+    /**
+     * Set the logout time of the active sessions of a user
+     * @param logoutTime When the user logged out or was last active
+     * @return True if a session was ended
+     */
+    boolean endUserSession(String username, LocalDateTime logoutTime);
+}
@@ -0,0 +1,125 @@
+package Server;
+
+import Config.Constants;
+import Config.DatabaseConnection;
+import Entities.CommandHandler;
+import Repository.Repositories;
+import Services.ChatService;
+import Services.SessionService;
+import Utils.StorageBackend;
+import Utils.ThreadOutputRouter;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.SQLException;
+
+/**
+ * Runs a script of commands without the interactive prompt, for bulk loads.
+ * The output of the commands is discarded and, with MySQL, every BATCH_TRANSACTION_SIZE commands share one
+ * transaction. A summary with the throughput and the number of errors is printed at the end.
+ * Lines that are blank or start with # are skipped.
+ */
+public class BatchRunner {
+    private final CommandHandler handler;
+    private final boolean transactional;
+    private final ErrorCounter errors = new ErrorCounter();
+    private long commands = 0;
+    private long transactions = 0;
+    private long lostCommands = 0;
+
+    public BatchRunner(ChatService chatService, SessionService sessionService) {
+        this.handler = new CommandHandler(chatService, sessionService);
+        this.transactional = Repositories.getBackend() == StorageBackend.MYSQL;
+    }
+
+    public void run(BufferedReader reader) throws IOException {
+        ThreadOutputRouter.install();
+        PrintStream originalErr = System.err;
+        // The services report failures on System.err, each line there is counted as an error
+        System.setErr(new PrintStream(errors, true));
+        long start = System.nanoTime();
+        int pending = 0;
+
+        ThreadOutputRouter.bind(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            if (transactional) {
+                DatabaseConnection.beginThreadTransaction();
+            }
+            String input;
+            while ((input = reader.readLine()) != null) {
+                input = input.trim();
+                if (input.isEmpty() || input.startsWith("#")) {
+                    continue;
+                }
+                execute(input);
+                if (++pending == Constants.BATCH_TRANSACTION_SIZE) {
+                    commit(pending);
+                    pending = 0;
+                }
+            }
+            handler.endSession();
+            commit(pending);
+        } catch (SQLException e) {
+            System.err.println("Error starting batch transaction: " + e.getMessage());
+        } finally {
+            if (transactional) {
+                DatabaseConnection.endThreadTransaction();
+            }
+            ThreadOutputRouter.unbind();
+            System.setErr(originalErr);
+        }
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        System.out.printf("Batch finished: %d commands in %.3f s (%.0f commands/s), %d transactions, %d errors, %d commands lost%n",
+                commands, seconds, seconds > 0 ? commands / seconds : 0, transactions, errors.getCount(), lostCommands);
+    }
+
+    private void execute(String input) {
+        commands++;
+        try {
+            handler.readCommand(input);
+            handler.handleCommand();
+        } catch (RuntimeException e) {
+            System.err.println("Invalid command '" + input + "' - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Commit the current group. If the commit fails its commands are lost, and the caches,
+     * which may hold rows written by them, are emptied by the RollbackListeners.
+     */
+    private void commit(int pending) {
+        if (!transactional || pending == 0) {
+            return;
+        }
+        try {
+            DatabaseConnection.commitThreadTransaction();
+            transactions++;
+        } catch (SQLException e) {
+            System.err.println("Error committing batch of " + pending + " commands: " + e.getMessage());
+            lostCommands += pending;
+        }
+    }
+
+    /**
+     * Counts the lines written to it and forwards them to the console's error stream
+     */
+    private static class ErrorCounter extends OutputStream {
+        private final PrintStream console = System.err;
+        private volatile long count = 0;
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n') {
+                count++;
+            }
+            console.write(b);
+        }
+
+        private long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package Server;
+
+import Services.ChatService;
+import Services.SessionService;
+import Utils.ThreadOutputRouter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * TCP chat server: every client connection runs its own CommandHandler on a virtual thread,
+ * sharing the services and repositories with the other connections
+ */
+public class ChatServer {
+    private final int port;
+    private final int maxConnections;
+    private final Semaphore connectionSlots;
+    private final ChatService chatService;
+    private final SessionService sessionService;
+    private volatile boolean running = true;
+    private ServerSocket serverSocket;
+
+    public ChatServer(int port, int maxConnections, ChatService chatService, SessionService sessionService) {
+        this.port = port;
+        this.maxConnections = maxConnections;
+        this.connectionSlots = new Semaphore(maxConnections);
+        this.chatService = chatService;
+        this.sessionService = sessionService;
+    }
+
+    /**
+     * Accept connections until stop is called. Blocks the calling thread.
+     */
+    public void start() throws IOException {
+        ThreadOutputRouter.install();
+        serverSocket = new ServerSocket(port);
+        System.out.println("Chat server listening on port " + port + " (max " + maxConnections + " connections)");
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            while (running) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (running) {
+                        System.err.println("Error accepting connection: " + e.getMessage());
+                    }
+                    continue;
+                }
+
+                if (!connectionSlots.tryAcquire()) {
+                    reject(socket);
+                    continue;
+                }
+                executor.submit(() -> {
+                    try {
+                        new ClientConnection(socket, chatService, sessionService).run();
+                    } finally {
+                        connectionSlots.release();
+                    }
+                });
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing server socket: " + e.getMessage());
+        }
+    }
+
+    public int getActiveConnections() {
+        return maxConnections - connectionSlots.availablePermits();
+    }
+
+    private void reject(Socket socket) {
+        try (socket; OutputStream out = socket.getOutputStream()) {
+            out.write("Server is full, try again later\n".getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ignored) {
+            // The client is turned away either way
+        }
+    }
+}
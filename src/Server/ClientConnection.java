@@ -0,0 +1,70 @@
+package Server;
+
+import Config.Constants;
+import Entities.CommandHandler;
+import Services.ChatService;
+import Services.SessionService;
+import Utils.ThreadOutputRouter;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One client of the chat server, with its own command handler and login state.
+ * Output goes to a PrintStream of its own, buffered and sent once each command completes. Pushed messages
+ * are written to the same stream from the subscriber's thread; the stream's lock keeps each print whole.
+ */
+public class ClientConnection implements Runnable {
+    private final Socket socket;
+    private final CommandHandler handler;
+
+    public ClientConnection(Socket socket, ChatService chatService, SessionService sessionService) {
+        this.socket = socket;
+        this.handler = new CommandHandler(chatService, sessionService, false);
+    }
+
+    @Override
+    public void run() {
+        try (socket;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(new BufferedOutputStream(socket.getOutputStream(), Constants.SERVER_OUTPUT_BUFFER_SIZE),
+                     false, StandardCharsets.UTF_8)) {
+
+            ThreadOutputRouter.bind(out);
+            System.out.println("Connected to chat server. Type QUIT to disconnect.");
+
+            while (true) {
+                System.out.println("\nEnter command:");
+                out.flush();
+
+                String input = reader.readLine();
+                if (input == null || input.trim().equals("QUIT")) {
+                    break;
+                }
+                input = input.trim();
+                if (input.isEmpty()) {
+                    continue;
+                }
+                try {
+                    handler.readCommand(input);
+                    handler.handleCommand();
+                } catch (RuntimeException e) {
+                    // Malformed arguments must not end the connection
+                    System.out.println("Invalid command - " + e.getMessage());
+                }
+            }
+
+        } catch (IOException e) {
+            // The client went away, its session is closed below
+        } finally {
+            // Still bound, so whatever the logout prints does not reach the server console
+            handler.endSession();
+            ThreadOutputRouter.unbind();
+        }
+    }
+}
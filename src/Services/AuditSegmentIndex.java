@@ -0,0 +1,113 @@
+package Services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Summary of a closed audit segment, stored next to it as a .idx file: the time range of its entries
+ * and the commands and users that appear in it. Queries read it to skip segments that cannot match.
+ * Times are kept in the audit format, which sorts like the times themselves.
+ */
+class AuditSegmentIndex {
+    private String from = null;
+    private String to = null;
+    private long entries = 0;
+    private final Set<String> commands = new TreeSet<>();
+    // Null once the segment has more users than AUDIT_INDEX_MAX_USERS, then any user may be in it
+    private Set<String> users = new TreeSet<>();
+    private final int maxUsers;
+
+    AuditSegmentIndex(int maxUsers) {
+        this.maxUsers = maxUsers;
+    }
+
+    void add(String time, String command, String username) {
+        if (from == null) {
+            from = time;
+        }
+        to = time;
+        entries++;
+        commands.add(command);
+        if (users != null && username != null) {
+            users.add(username);
+            if (users.size() > maxUsers) {
+                users = null;
+            }
+        }
+    }
+
+    long getEntries() {
+        return entries;
+    }
+
+    /**
+     * @param command The command to look for, or null for any
+     * @param username The user to look for, or null for any
+     * @param from The start of the time window in the audit format, or null
+     * @param to The end of the time window in the audit format, or null
+     * @return False if no entry of the segment can match
+     */
+    boolean mayContain(String command, String username, String from, String to) {
+        if (entries == 0) {
+            return false;
+        }
+        if ((from != null && this.to.compareTo(from) < 0) || (to != null && this.from.compareTo(to) > 0)) {
+            return false;
+        }
+        if (command != null && !commands.contains(command)) {
+            return false;
+        }
+        return username == null || users == null || users.contains(username);
+    }
+
+    void write(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("from " + (from != null ? from : ""));
+        lines.add("to " + (to != null ? to : ""));
+        lines.add("entries " + entries);
+        lines.add("commands " + String.join(" ", commands));
+        lines.add("users " + (users != null ? String.join(" ", users) : "*"));
+        Files.write(file, lines, StandardCharsets.UTF_8);
+    }
+
+    static AuditSegmentIndex read(Path file, int maxUsers) throws IOException {
+        AuditSegmentIndex index = new AuditSegmentIndex(maxUsers);
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String[] parts = line.split(" ", 2);
+            String value = parts.length > 1 ? parts[1] : "";
+            switch (parts[0]) {
+                case "from":
+                    index.from = value.isEmpty() ? null : value;
+                    break;
+                case "to":
+                    index.to = value.isEmpty() ? null : value;
+                    break;
+                case "entries":
+                    index.entries = Long.parseLong(value);
+                    break;
+                case "commands":
+                    index.commands.addAll(words(value));
+                    break;
+                case "users":
+                    if (value.equals("*")) {
+                        index.users = null;
+                    } else {
+                        index.users.addAll(words(value));
+                    }
+                    break;
+            }
+        }
+        return index;
+    }
+
+    private static List<String> words(String value) {
+        return value.isEmpty() ? List.of() : Arrays.asList(value.split(" "));
+    }
+}
@@ -1,47 +1,417 @@
 package Services;
 
 import Config.Constants;
+import Utils.AuditOverflowPolicy;
 
-import java.io.FileWriter;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Singleton service that logs all CRUD operations to a CSV file
+ * Singleton service that logs all CRUD operations to segment files in the audit directory.
+ * Entries are queued in memory and written in batches by a background thread that keeps the current segment open,
+ * so logging never waits on the disk unless the queue is full and the overflow policy is BLOCK.
+ * A segment is closed once it reaches AUDIT_SEGMENT_MAX_BYTES or AUDIT_SEGMENT_MAX_MILLIS; closed segments get
+ * a .idx summary (AuditSegmentIndex) and are gzipped if AUDIT_COMPRESS_SEGMENTS is set.
+ * Each line is: time,command,user,description
  */
 public class AuditService {
-    private static AuditService instance;
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    
+    private static final DateTimeFormatter segmentNameFormatter = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS");
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPRESSED_SUFFIX = ".log.gz";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String NO_USER = "-";
+    private static final AuditService instance = new AuditService();
+
+    private final BlockingQueue<AuditEntry> queue = new ArrayBlockingQueue<>(Constants.AUDIT_QUEUE_CAPACITY);
+    private final Path directory = Paths.get(System.getProperty(Constants.AUDIT_DIR_PROPERTY, Constants.AUDIT_DIR));
+    private final Thread writerThread;
+    private volatile AuditOverflowPolicy overflowPolicy = Constants.AUDIT_OVERFLOW_POLICY;
+    private volatile boolean running = true;
+
+    // Entries lost to a full queue, and the part of them not yet reported in the file (COUNT policy)
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong unreportedDrops = new AtomicLong();
+
+    // The current segment, only touched by the writer thread
+    private Path segment;
+    private PrintWriter segmentWriter;
+    private AuditSegmentIndex segmentIndex;
+    private long segmentBytes;
+    private long segmentStart;
+    // Queries hold the read lock so a segment is not compressed and removed while they scan it
+    private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+
     private AuditService() {
-        // Private constructor to enforce singleton pattern
+        writerThread = new Thread(this::writeLoop, "audit-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "audit-shutdown"));
     }
-    
+
     public static AuditService getInstance() {
-        if (instance == null) {
-            instance = new AuditService();
-        }
         return instance;
     }
-    
+
     /**
-     * Logs a command and its description to the audit CSV file.
+     * Queues a command and its description for the audit log.
      * @param command The command executed (e.g., "REGISTER", "LOGIN").
      * @param description A description of the command's parameters or context (e.g., "user: john_doe").
      */
     public void log(String command, String description) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(Constants.AUDIT_FILE, true))) {
-            String timestamp = LocalDateTime.now().format(formatter);
-            String logEntry = command;
-            if (description != null && !description.isEmpty()) {
-                logEntry += " (" + description + ")";
+        log(command, null, description);
+    }
+
+    /**
+     * Queues a command and its description for the audit log.
+     * @param command The command executed (e.g., "REGISTER", "LOGIN").
+     * @param username The user the command is done by or for, or null if none, used to filter queries
+     * @param description A description of the command's parameters or context (e.g., "user: john_doe").
+     */
+    public void log(String command, String username, String description) {
+        AuditEntry entry = new AuditEntry(command, username, description, LocalDateTime.now());
+        if (!running) {
+            System.err.println("Audit service stopped, entry not logged: " + command);
+            return;
+        }
+
+        if (overflowPolicy == AuditOverflowPolicy.BLOCK) {
+            try {
+                queue.put(entry);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else if (!queue.offer(entry)) {
+            dropped.incrementAndGet();
+            if (overflowPolicy == AuditOverflowPolicy.COUNT) {
+                unreportedDrops.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Find audit entries, oldest first. Only the segments whose index allows a match are read, through memory mapping.
+     * Entries still buffered by the writer (at most AUDIT_FLUSH_INTERVAL_MILLIS old) are not seen.
+     * @param command Only entries of this command, or null for all
+     * @param username Only entries of this user, or null for all
+     * @param from Only entries at or after this time, or null
+     * @param to Only entries at or before this time, or null
+     * @param limit The maximum number of entries returned
+     * @return The matching lines
+     */
+    public List<String> query(String command, String username, LocalDateTime from, LocalDateTime to, int limit) {
+        String fromTime = from != null ? from.format(formatter) : null;
+        String toTime = to != null ? to.format(formatter) : null;
+        List<String> matches = new ArrayList<>();
+
+        segmentLock.readLock().lock();
+        try {
+            for (Path file : listSegments()) {
+                Path index = indexFile(file);
+                if (Files.exists(index) && !AuditSegmentIndex.read(index, Constants.AUDIT_INDEX_MAX_USERS)
+                        .mayContain(command, username, fromTime, toTime)) {
+                    continue;
+                }
+                if (!scan(file, command, username, fromTime, toTime, limit, matches)) {
+                    break;
+                }
             }
-            writer.println(logEntry + "," + timestamp);
         } catch (IOException e) {
-            System.err.println("Error writing to audit file: " + e.getMessage());
+            System.err.println("Error querying audit log: " + e.getMessage());
+        } finally {
+            segmentLock.readLock().unlock();
+        }
+        return matches;
+    }
+
+    /**
+     * @return False once the limit is reached
+     */
+    private boolean scan(Path file, String command, String username, String from, String to,
+                         int limit, List<String> matches) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            InputStream in = new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            if (file.toString().endsWith(COMPRESSED_SUFFIX)) {
+                in = new GZIPInputStream(in, Constants.AUDIT_READ_BUFFER_SIZE);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), Constants.AUDIT_READ_BUFFER_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(",", 4);
+                if (fields.length < 3
+                        || (from != null && fields[0].compareTo(from) < 0)
+                        || (to != null && fields[0].compareTo(to) > 0)
+                        || (command != null && !fields[1].equals(command))
+                        || (username != null && !fields[2].equals(username))) {
+                    continue;
+                }
+                matches.add(line);
+                if (matches.size() >= limit) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Drains the queue into the current segment, flushing after AUDIT_BATCH_SIZE entries
+     * or AUDIT_FLUSH_INTERVAL_MILLIS, whichever comes first, and rotating the segment when it is full or old
+     */
+    private void writeLoop() {
+        List<AuditEntry> batch = new ArrayList<>(Constants.AUDIT_BATCH_SIZE);
+        try {
+            Files.createDirectories(directory);
+            sealLeftoverSegments();
+            openSegment();
+            int unflushed = 0;
+            long lastFlush = System.currentTimeMillis();
+
+            while (running || !queue.isEmpty()) {
+                AuditEntry first = queue.poll(Constants.AUDIT_FLUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, Constants.AUDIT_BATCH_SIZE - 1);
+                    for (AuditEntry entry : batch) {
+                        write(entry);
+                    }
+                    unflushed += batch.size();
+                    batch.clear();
+                }
+
+                long drops = unreportedDrops.getAndSet(0);
+                if (drops > 0) {
+                    write(new AuditEntry("AUDIT_DROPPED", null, "count: " + drops, LocalDateTime.now()));
+                    unflushed++;
+                }
+
+                long now = System.currentTimeMillis();
+                if (unflushed > 0 && (unflushed >= Constants.AUDIT_BATCH_SIZE || now - lastFlush >= Constants.AUDIT_FLUSH_INTERVAL_MILLIS)) {
+                    segmentWriter.flush();
+                    if (segmentWriter.checkError()) {
+                        System.err.println("Error writing to audit file");
+                    }
+                    unflushed = 0;
+                    lastFlush = now;
+                }
+                if (segmentBytes >= Constants.AUDIT_SEGMENT_MAX_BYTES
+                        || (segmentBytes > 0 && now - segmentStart >= Constants.AUDIT_SEGMENT_MAX_MILLIS)) {
+                    sealSegment();
+                    openSegment();
+                }
+            }
+            sealSegment();
+        } catch (IOException e) {
+            System.err.println("Error opening audit file: " + e.getMessage());
             e.printStackTrace();
+            running = false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(AuditEntry entry) {
+        String line = entry.format();
+        segmentWriter.println(line);
+        segmentIndex.add(entry.formattedTime(), entry.command, entry.username);
+        // Close enough for the rotation threshold, most entries are ASCII
+        segmentBytes += line.length() + 1;
+    }
+
+    private void openSegment() throws IOException {
+        LocalDateTime now = LocalDateTime.now();
+        Path file = directory.resolve(SEGMENT_PREFIX + now.format(segmentNameFormatter) + SEGMENT_SUFFIX);
+        for (int i = 1; Files.exists(file) || Files.exists(compressedFile(file)); i++) {
+            file = directory.resolve(SEGMENT_PREFIX + now.format(segmentNameFormatter) + "-" + i + SEGMENT_SUFFIX);
+        }
+        segment = file;
+        segmentWriter = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8));
+        segmentIndex = new AuditSegmentIndex(Constants.AUDIT_INDEX_MAX_USERS);
+        segmentBytes = 0;
+        segmentStart = System.currentTimeMillis();
+    }
+
+    /**
+     * Close the current segment, write its index and compress it. An empty segment is removed.
+     */
+    private void sealSegment() throws IOException {
+        if (segment == null) {
+            return;
+        }
+        segmentWriter.close();
+        seal(segment, segmentIndex);
+        segment = null;
+    }
+
+    private void seal(Path file, AuditSegmentIndex index) throws IOException {
+        segmentLock.writeLock().lock();
+        try {
+            if (index.getEntries() == 0) {
+                Files.deleteIfExists(file);
+                return;
+            }
+            if (Constants.AUDIT_COMPRESS_SEGMENTS) {
+                try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressedFile(file)), Constants.AUDIT_READ_BUFFER_SIZE)) {
+                    Files.copy(file, out);
+                }
+                Files.delete(file);
+            }
+            index.write(indexFile(file));
+        } finally {
+            segmentLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A segment without an index was still open when the application last stopped; index it from its lines
+     */
+    private void sealLeftoverSegments() throws IOException {
+        for (Path file : listSegments()) {
+            if (!file.toString().endsWith(SEGMENT_SUFFIX) || Files.exists(indexFile(file))) {
+                continue;
+            }
+            AuditSegmentIndex index = new AuditSegmentIndex(Constants.AUDIT_INDEX_MAX_USERS);
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(",", 4);
+                    if (fields.length >= 3) {
+                        index.add(fields[0], fields[1], fields[2].equals(NO_USER) ? null : fields[2]);
+                    }
+                }
+            }
+            seal(file, index);
+        }
+    }
+
+    /**
+     * @return The segment files, plain or compressed, oldest first
+     */
+    private List<Path> listSegments() throws IOException {
+        TreeSet<Path> segments = new TreeSet<>();
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*{" + SEGMENT_SUFFIX + "," + COMPRESSED_SUFFIX + "}")) {
+            files.forEach(segments::add);
+        }
+        return new ArrayList<>(segments);
+    }
+
+    private static Path compressedFile(Path segment) {
+        return segment.resolveSibling(baseName(segment) + COMPRESSED_SUFFIX);
+    }
+
+    private static Path indexFile(Path segment) {
+        return segment.resolveSibling(baseName(segment) + INDEX_SUFFIX);
+    }
+
+    private static String baseName(Path segment) {
+        String name = segment.getFileName().toString();
+        return name.substring(0, name.length() - (name.endsWith(COMPRESSED_SUFFIX) ? COMPRESSED_SUFFIX.length() : SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Stops accepting entries and waits for the queued ones to be written and the segment to be sealed.
+     * Registered as a shutdown hook, so it also runs when the application exits.
+     */
+    public void shutdown() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            writerThread.join(Constants.AUDIT_FLUSH_INTERVAL_MILLIS * 5);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void setOverflowPolicy(AuditOverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    private static class AuditEntry {
+        private final String command;
+        private final String username;
+        private final String description;
+        private final LocalDateTime time;
+
+        private AuditEntry(String command, String username, String description, LocalDateTime time) {
+            this.command = command;
+            this.username = username;
+            this.description = description;
+            this.time = time;
+        }
+
+        private String formattedTime() {
+            return time.format(formatter);
+        }
+
+        private String format() {
+            // Only the description, the last field, may contain commas
+            return formattedTime() + "," + command.replace(',', ' ') + "," + (username != null ? username.replace(',', ' ') : NO_USER) + ","
+                    + (description != null ? description : "");
+        }
+    }
+
+    /**
+     * Reads a memory-mapped file
+     */
+    private static class MappedInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private MappedInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
         }
     }
 }
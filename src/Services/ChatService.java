@@ -1,18 +1,18 @@
 package Services;
 
+import Config.Constants;
 import Entities.*;
-import Repository.ChatRoomJdbcService;
-import Repository.MessageJdbcService;
-import Repository.UserJdbcService;
+import Repository.Repositories;
 import Utils.GroupPermission;
 import Utils.MessageStatus;
+import Utils.UserStatus;
 
 import java.util.*;
 
 public class ChatService {
 
     public User registerUser(String username) {
-        User newUser = UserJdbcService.getInstance().createUser(username);
+        User newUser = Repositories.users().createUser(username);
         if (newUser != null) {
             System.out.printf("Registered user: %s\n", username);
         }
@@ -21,7 +21,7 @@ public class ChatService {
 
     public PrivateChat createPrivateChat(User u1, User u2) {
         PrivateChat chat = new PrivateChat(u1, u2);
-        ChatRoomJdbcService.getInstance().createChatRoom(chat, "PRIVATE", 2);
+        Repositories.chatRooms().createChatRoom(chat, "PRIVATE", 2);
         System.out.println("Created private chat: " + chat.getName());
         return chat;
     }
@@ -29,41 +29,48 @@ public class ChatService {
     public GroupChat createGroupChat(String name, User creator) {
         GroupChat group = new GroupChat(name, creator);
         group.setPermissions(creator, GroupPermission.OWNER);
-        ChatRoomJdbcService.getInstance().createChatRoom(group, "GROUP", 50);
+        Repositories.chatRooms().createChatRoom(group, "GROUP", 50);
         System.out.println("Created group chat: " + name);
         return group;
     }
 
     public void sendMessage(ChatRoom room, User sender, String content) {
-        Set<User> participants = ChatRoomJdbcService.getInstance().getParticipants(room.getId());
         // check that the sender is part of the group
-        if (participants.stream().anyMatch(participant -> Objects.equals(participant.getUsername(), sender.getUsername()))) {
-            // create the message
+        if (Repositories.chatRooms().isParticipant(room.getId(), sender.getUsername())) {
+            // create the message, it is stored with the other messages sent at the same time
             Message msg = new Message(content, sender);
-            int message_id = MessageJdbcService.getInstance().createMessage(msg, room.getId());
-            // initialize and save the delivery statuses
-            msg.initializeStatus(participants);
-            MessageJdbcService.getInstance().addMessageDeliveryStatus(message_id, msg);
+            int message_id = MessageIngestor.getInstance().submit(room.getId(), msg).join();
+            if (message_id < 0) {
+                System.out.println("Message could not be sent");
+                return;
+            }
 
             System.out.println("Message sent");
+            // push to the online participants once the message is stored
+            MessageBroker.getInstance().publish(room.getId(), new Message(content, sender, msg.getTimestamp(), message_id));
             return;
         }
         System.out.println("User is not part of this group!");
     }
 
-    public List<Message> getChatHistory(int room_id) {
-        List<Message> messages = MessageJdbcService.getInstance().getMessagesByChatRoomId(room_id);
+    public List<Message> getChatHistory(int room_id, Integer beforeId) {
+        List<Message> messages = Repositories.messages()
+                .getMessagesPage(room_id, beforeId, null, Constants.MESSAGE_PAGE_SIZE);
         if (messages.isEmpty()) {
             System.out.println("No messages!");
         }
         else {
             messages.forEach(System.out::println);
+            if (messages.size() == Constants.MESSAGE_PAGE_SIZE) {
+                System.out.printf("Older messages: SHOW MSG %d %d\n", room_id, messages.get(0).getId());
+            }
         }
         return messages;
     }
 
     public Set<User> getChatParticipants(int room_id) {
-        Set<User> participants = ChatRoomJdbcService.getInstance().getParticipants(room_id);
+        Set<User> participants = Repositories.chatRooms().getParticipants(room_id);
+        applyPresence(participants);
         if (participants.isEmpty()) {
             System.out.println("No messages!");
         }
@@ -74,39 +81,68 @@ public class ChatService {
     }
 
     public void searchMessages(ChatRoom room, String keyword) {
-        List<Message> messages = MessageJdbcService.getInstance().getMessagesByChatRoomId(room.getId());
-        messages.stream()
-                .filter(msg -> msg.getContent().toLowerCase().contains(keyword.toLowerCase()))
-                .forEach(System.out::println);
+        List<SearchIndexService.SearchHit> hits = SearchIndexService.getInstance().search(room.getId(), keyword);
+        if (hits.isEmpty()) {
+            System.out.println("No messages found!");
+            return;
+        }
+        // Only the most recent matches are loaded from the database
+        List<Integer> messageIds = new ArrayList<>();
+        for (SearchIndexService.SearchHit hit : hits.subList(Math.max(0, hits.size() - Constants.SEARCH_RESULT_LIMIT), hits.size())) {
+            messageIds.add(hit.getMessageId());
+        }
+        Repositories.messages().getMessagesByIds(messageIds).forEach(System.out::println);
+        if (hits.size() > Constants.SEARCH_RESULT_LIMIT) {
+            System.out.printf("Showing the latest %d of %d matches\n", Constants.SEARCH_RESULT_LIMIT, hits.size());
+        }
     }
 
     public ChatRoom getRoomById(Integer roomId) {
-        return ChatRoomJdbcService.getInstance().getChatRoomById(roomId);
+        return Repositories.chatRooms().getChatRoomById(roomId);
     }
 
     public User getUserByName(String username) {
-        return UserJdbcService.getInstance().getUserByUsername(username);
+        return Repositories.users().getUserByUsername(username);
     }
 
     public List<User> getUsers() {
-        return UserJdbcService.getInstance().getAllUsers();
+        List<User> users = Repositories.users().getAllUsers();
+        applyPresence(users);
+        return users;
+    }
+
+    /**
+     * Take the online status from the presence registry, the stored one is written in the background
+     */
+    private void applyPresence(Collection<User> users) {
+        for (User user : users) {
+            user.setStatus(PresenceRegistry.getInstance().isOnline(user.getUsername()) ? UserStatus.ONLINE : UserStatus.OFFLINE);
+        }
     }
 
     public void showEmptySlots(int room_id) {
-        System.out.println("Number of empty slots: " + ChatRoomJdbcService.getInstance().getChatRoomById(room_id).emptySlots());
+        System.out.println("Number of empty slots: " + Repositories.chatRooms().getChatRoomById(room_id).emptySlots());
     }
 
     public List<String> getChatRoomNames() {
-        return ChatRoomJdbcService.getInstance().getAllChatRooms();
+        return Repositories.chatRooms().getAllChatRooms();
     }
 
-    public void getChatRoomsWithMember(User user) {
-        List<String> chatRooms = ChatRoomJdbcService.getInstance().getChatRoomsWithMember(user.getUsername());
-        if (chatRooms.isEmpty()) {
-            System.out.println("Not a part of any rooms!");
+    /**
+     * Print one page of a user's rooms, most recently active first, with their latest message and unread count
+     * @param page The page to print, starting at 1
+     */
+    public void showInbox(User user, int page) {
+        List<RoomSummary> summaries = Repositories.chatRooms().getRoomSummaries(user.getUsername(),
+                (page - 1) * Constants.INBOX_PAGE_SIZE, Constants.INBOX_PAGE_SIZE);
+        if (summaries.isEmpty()) {
+            System.out.println(page == 1 ? "Not a part of any rooms!" : "No more rooms!");
         }
         else {
-            chatRooms.forEach(System.out::println);
+            summaries.forEach(System.out::println);
+            if (summaries.size() == Constants.INBOX_PAGE_SIZE) {
+                System.out.println("More rooms: SHOW ROOMS " + (page + 1));
+            }
         }
     }
 }
@@ -0,0 +1,71 @@
+package Services;
+
+import Config.Constants;
+import Repository.MessageJdbcService;
+import Repository.Repositories;
+import Utils.StorageBackend;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton service that runs the periodic background jobs of the application
+ */
+public class MaintenanceService {
+    private static final MaintenanceService instance = new MaintenanceService();
+    private final ScheduledExecutorService scheduler;
+
+    private MaintenanceService() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static MaintenanceService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Schedule all background jobs. The unread counters are rebuilt right away and then periodically,
+     * to repair any drift from sends or reads that failed halfway.
+     * With MySQL, old messages are also moved to the archive periodically, starting at startup.
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::reconcileUnreadCounters,
+                0, Constants.UNREAD_RECONCILE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        if (Repositories.getBackend() == StorageBackend.MYSQL) {
+            scheduler.scheduleWithFixedDelay(this::archiveMessages,
+                    0, Constants.ARCHIVE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void reconcileUnreadCounters() {
+        try {
+            Repositories.messages().reconcileUnreadCounters();
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic job
+            System.err.println("Error in unread counter reconciliation: " + e.getMessage());
+        }
+    }
+
+    private void archiveMessages() {
+        try {
+            int archived = MessageJdbcService.getInstance().archiveMessages(LocalDateTime.now().minusDays(Constants.ARCHIVE_AFTER_DAYS));
+            if (archived > 0) {
+                System.err.println("Archived " + archived + " messages older than " + Constants.ARCHIVE_AFTER_DAYS + " days");
+                // Archived messages no longer count as unread
+                reconcileUnreadCounters();
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Error in message archival: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package Services;
+
+import Config.Constants;
+import Entities.Message;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Singleton in-memory publish/subscribe hub pushing new messages to the sessions of online participants.
+ * Every room is a topic; a session subscribes to the topics of its user's rooms when the user logs in.
+ * Each subscriber has a bounded queue drained by its own virtual thread, so a slow client never delays
+ * the sender or the other subscribers: when its queue is full new messages are skipped and the client is told.
+ */
+public class MessageBroker {
+    private static final MessageBroker instance = new MessageBroker();
+
+    private final Map<Integer, Set<Subscriber>> topics = new ConcurrentHashMap<>();
+    private final Map<String, Set<Subscriber>> subscribersByUser = new ConcurrentHashMap<>();
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    private MessageBroker() {
+    }
+
+    public static MessageBroker getInstance() {
+        return instance;
+    }
+
+    /**
+     * Register a logged in session and subscribe it to the given rooms
+     * @param username The user of the session
+     * @param sink Where pushed messages are written, the stream the session prints its own output to
+     * @param roomIds The rooms the user is part of
+     * @return The subscriber, to be passed to disconnect on logout
+     */
+    public Subscriber connect(String username, PrintStream sink, Iterable<Integer> roomIds) {
+        Subscriber subscriber = new Subscriber(username, sink);
+        subscribersByUser.computeIfAbsent(username, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        for (Integer roomId : roomIds) {
+            subscribe(roomId, subscriber);
+        }
+        subscriber.start();
+        return subscriber;
+    }
+
+    public void disconnect(Subscriber subscriber) {
+        subscriber.stop();
+        for (Integer roomId : subscriber.rooms) {
+            Set<Subscriber> topic = topics.get(roomId);
+            if (topic != null) {
+                topic.remove(subscriber);
+            }
+        }
+        Set<Subscriber> sessions = subscribersByUser.get(subscriber.username);
+        if (sessions != null) {
+            sessions.remove(subscriber);
+        }
+    }
+
+    /**
+     * Subscribe the online sessions of a user to a room they just joined
+     */
+    public void joinRoom(int roomId, String username) {
+        for (Subscriber subscriber : subscribersByUser.getOrDefault(username, Set.of())) {
+            subscribe(roomId, subscriber);
+        }
+    }
+
+    /**
+     * Unsubscribe the online sessions of a user from a room they left
+     */
+    public void leaveRoom(int roomId, String username) {
+        Set<Subscriber> topic = topics.get(roomId);
+        for (Subscriber subscriber : subscribersByUser.getOrDefault(username, Set.of())) {
+            subscriber.rooms.remove(roomId);
+            if (topic != null) {
+                topic.remove(subscriber);
+            }
+        }
+    }
+
+    public void closeRoom(int roomId) {
+        Set<Subscriber> topic = topics.remove(roomId);
+        if (topic != null) {
+            topic.forEach(subscriber -> subscriber.rooms.remove(roomId));
+        }
+    }
+
+    /**
+     * Push a persisted message to every subscriber of its room except the sender's own sessions
+     */
+    public void publish(int roomId, Message message) {
+        published.incrementAndGet();
+        Set<Subscriber> topic = topics.get(roomId);
+        if (topic == null) {
+            return;
+        }
+        String senderUsername = message.getSender().getUsername();
+        for (Subscriber subscriber : topic) {
+            if (!subscriber.username.equals(senderUsername)) {
+                subscriber.offer(roomId, message);
+            }
+        }
+    }
+
+    public long getPublishedCount() { return published.get(); }
+    public long getSkippedCount() { return skipped.get(); }
+
+    private void subscribe(int roomId, Subscriber subscriber) {
+        topics.computeIfAbsent(roomId, key -> ConcurrentHashMap.newKeySet()).add(subscriber);
+        subscriber.rooms.add(roomId);
+    }
+
+    /**
+     * One logged in session receiving pushed messages
+     */
+    public class Subscriber {
+        private final String username;
+        // Each message is one print call, serialized with the session's own output on the stream's lock
+        private final PrintStream sink;
+        private final Set<Integer> rooms = ConcurrentHashMap.newKeySet();
+        private final BlockingQueue<Delivery> queue = new ArrayBlockingQueue<>(Constants.SUBSCRIBER_QUEUE_CAPACITY);
+        // Messages skipped because the queue was full, not yet reported to the client
+        private final AtomicLong unreportedSkips = new AtomicLong();
+        private volatile Thread drainer;
+
+        private Subscriber(String username, PrintStream sink) {
+            this.username = username;
+            this.sink = sink;
+        }
+
+        private void start() {
+            drainer = Thread.ofVirtual().name("push-" + username).start(this::drain);
+        }
+
+        private void stop() {
+            Thread thread = drainer;
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        private void offer(int roomId, Message message) {
+            if (!queue.offer(new Delivery(roomId, message))) {
+                unreportedSkips.incrementAndGet();
+                skipped.incrementAndGet();
+            }
+        }
+
+        private void drain() {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Delivery delivery = queue.take();
+                    StringBuilder text = new StringBuilder();
+                    long skips = unreportedSkips.getAndSet(0);
+                    if (skips > 0) {
+                        text.append("[").append(skips).append(" new messages skipped, use SHOW MSG to catch up]\n");
+                    }
+                    text.append("\n[Room ").append(delivery.roomId).append("] ").append(delivery.message).append('\n');
+                    sink.print(text);
+                    sink.flush();
+                    if (sink.checkError()) {
+                        // The client is gone, the connection closes the session
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Logged out
+            }
+        }
+    }
+
+    private static class Delivery {
+        private final int roomId;
+        private final Message message;
+
+        private Delivery(int roomId, Message message) {
+            this.roomId = roomId;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package Services;
+
+import Config.Constants;
+import Config.DatabaseConnection;
+import Entities.Message;
+import Repository.Repositories;
+import Utils.StorageBackend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton group-commit stage for new messages.
+ * Sends are queued and written by a background thread, which collects them for up to INGEST_LINGER_MILLIS
+ * or INGEST_BATCH_SIZE messages and stores the whole batch in one transaction, so the cost of a commit
+ * is shared by every message of the batch instead of being paid several times per message.
+ * If the batch fails its messages are written again one at a time, so a bad message only fails its own send.
+ * Sends made inside a thread transaction (batch mode) or kept in memory are written right away by the caller.
+ */
+public class MessageIngestor {
+    private static final MessageIngestor instance = new MessageIngestor();
+
+    private final BlockingQueue<PendingMessage> queue = new ArrayBlockingQueue<>(Constants.INGEST_QUEUE_CAPACITY);
+
+    private MessageIngestor() {
+        Thread writerThread = new Thread(this::writeLoop, "message-ingest");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    public static MessageIngestor getInstance() {
+        return instance;
+    }
+
+    /**
+     * Queue a message to be stored with the next batch. Waits for room in the queue if it is full.
+     * @param chatRoomId The ID of the chat room the message belongs to
+     * @param message The message to store
+     * @return Completed with the ID of the message once its batch is committed, or with -1 if it could not be stored
+     */
+    public CompletableFuture<Integer> submit(int chatRoomId, Message message) {
+        PendingMessage pending = new PendingMessage(chatRoomId, message);
+        // Inside a batch transaction the room may not be committed yet, so the writer thread could not see it.
+        // The in-memory backend has no commit to share.
+        if (Repositories.getBackend() == StorageBackend.MEMORY || DatabaseConnection.inThreadTransaction()) {
+            write(List.of(pending));
+            return pending.result;
+        }
+        try {
+            queue.put(pending);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.result.complete(-1);
+        }
+        return pending.result;
+    }
+
+    private void writeLoop() {
+        List<PendingMessage> batch = new ArrayList<>(Constants.INGEST_BATCH_SIZE);
+        while (true) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Constants.INGEST_LINGER_MILLIS);
+                while (batch.size() < Constants.INGEST_BATCH_SIZE) {
+                    queue.drainTo(batch, Constants.INGEST_BATCH_SIZE - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= Constants.INGEST_BATCH_SIZE || remaining <= 0) {
+                        break;
+                    }
+                    PendingMessage next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                batch.forEach(pending -> pending.result.complete(-1));
+                return;
+            }
+
+            // The batch is written here rather than by the SEND commands, so it is measured as a command of its own.
+            // Writes made by the caller stay part of the caller's command.
+            long start = StatsService.getInstance().startCommand();
+            try {
+                write(batch);
+            } finally {
+                StatsService.getInstance().endCommand("SEND batch", start);
+            }
+            batch.clear();
+        }
+    }
+
+    void write(List<PendingMessage> batch) {
+        List<Message> messages = new ArrayList<>(batch.size());
+        List<Integer> chatRoomIds = new ArrayList<>(batch.size());
+        for (PendingMessage pending : batch) {
+            messages.add(pending.message);
+            chatRoomIds.add(pending.chatRoomId);
+        }
+
+        List<Integer> messageIds = null;
+        try {
+            messageIds = Repositories.messages().createMessages(messages, chatRoomIds);
+        } catch (RuntimeException e) {
+            System.err.println("Error storing message batch: " + e.getMessage());
+        }
+
+        if (messageIds == null && batch.size() > 1) {
+            // The transaction of the batch was rolled back as a whole, find the messages that can be stored
+            for (PendingMessage pending : batch) {
+                write(List.of(pending));
+            }
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).result.complete(messageIds != null ? messageIds.get(i) : -1);
+        }
+    }
+
+    static class PendingMessage {
+        private final int chatRoomId;
+        private final Message message;
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        PendingMessage(int chatRoomId, Message message) {
+            this.chatRoomId = chatRoomId;
+            this.message = message;
+        }
+    }
+}
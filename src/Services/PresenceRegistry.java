@@ -0,0 +1,256 @@
+package Services;
+
+import Config.Constants;
+import Config.DatabaseConnection;
+import Entities.User;
+import Entities.UserSession;
+import Repository.Repositories;
+import Utils.StorageBackend;
+import Utils.TimerWheel;
+import Utils.UserStatus;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Singleton registry of the users currently logged in, kept in memory.
+ * Every command of a logged in user is a heartbeat; a user silent for PRESENCE_TIMEOUT_MILLIS is logged out
+ * by a timer wheel. A user logged in on several connections has one session, which ends with the last of
+ * their logins. Session rows and user statuses are written by a background thread, in order,
+ * so logging in and out never waits for the database.
+ */
+public class PresenceRegistry {
+    private static final PresenceRegistry instance = new PresenceRegistry();
+
+    private final Map<String, Presence> presences = new ConcurrentHashMap<>();
+    private final TimerWheel<Presence> wheel = new TimerWheel<>(Constants.PRESENCE_WHEEL_SLOTS, Constants.PRESENCE_TICK_MILLIS);
+    private final ScheduledExecutorService timer;
+    private final ExecutorService writer;
+
+    private PresenceRegistry() {
+        timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "presence-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "presence-shutdown"));
+    }
+
+    public static PresenceRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * Close the sessions left open by a previous run that did not shut down cleanly, then start expiring idle users
+     */
+    public void start() {
+        LocalDateTime now = LocalDateTime.now();
+        Map<String, UserSession> orphaned = Repositories.sessions().getActiveSessions();
+        for (UserSession session : orphaned.values()) {
+            Repositories.sessions().endUserSession(session.getUser().getUsername(), now);
+            session.getUser().setStatus(UserStatus.OFFLINE);
+            Repositories.users().updateUser(session.getUser());
+        }
+        if (!orphaned.isEmpty()) {
+            System.err.println("Closed " + orphaned.size() + " sessions left open by the previous run");
+        }
+        timer.scheduleAtFixedRate(this::tick, wheel.getTickMillis(), wheel.getTickMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Register a login of a user. If the user is not online yet, they are marked online and a new session
+     * is persisted; otherwise the login joins the user's session.
+     * @return The login, to be passed to heartbeat and logout
+     */
+    public synchronized Login login(User user) {
+        String username = user.getUsername();
+        Presence presence = presences.get(username);
+        if (presence != null) {
+            presence.logins++;
+            presence.lastSeen = System.currentTimeMillis();
+            return new Login(presence);
+        }
+        UserSession session = new UserSession(user);
+        Presence created = new Presence(session);
+        presences.put(username, created);
+        wheel.schedule(created, Constants.PRESENCE_TIMEOUT_MILLIS);
+        persist(() -> {
+            Repositories.sessions().createUserSession(session);
+            updateStatus(user, UserStatus.ONLINE);
+        });
+        return new Login(created);
+    }
+
+    /**
+     * End a login. The user goes offline and the session end is persisted when it was their last login.
+     * A login whose session already expired changes nothing.
+     */
+    public void logout(Login login) {
+        Presence presence = login.presence;
+        synchronized (this) {
+            if (login.ended) {
+                return;
+            }
+            login.ended = true;
+            String username = presence.session.getUser().getUsername();
+            if (presences.get(username) != presence || --presence.logins > 0) {
+                return;
+            }
+            presences.remove(username);
+        }
+        end(presence, LocalDateTime.now());
+    }
+
+    /**
+     * Record activity of a login
+     * @return False if the login is over, e.g. because the session expired
+     */
+    public boolean heartbeat(Login login) {
+        Presence presence = login.presence;
+        if (login.ended || presences.get(presence.session.getUser().getUsername()) != presence) {
+            return false;
+        }
+        presence.lastSeen = System.currentTimeMillis();
+        return true;
+    }
+
+    public boolean isOnline(String username) {
+        return presences.containsKey(username);
+    }
+
+    /**
+     * @return The session of every online user, by username
+     */
+    public Map<String, UserSession> getActiveSessions() {
+        Map<String, UserSession> sessions = new TreeMap<>();
+        presences.forEach((username, presence) -> sessions.put(username, presence.session));
+        return sessions;
+    }
+
+    /**
+     * Wait until the session writes queued so far are stored, for reads of the stored sessions
+     */
+    public void awaitPendingWrites() {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            // Nothing queued can still be written
+        }
+    }
+
+    /**
+     * Wait for the queued session writes, at most PRESENCE_SHUTDOWN_WAIT_MILLIS
+     */
+    public void shutdown() {
+        timer.shutdownNow();
+        writer.shutdown();
+        try {
+            writer.awaitTermination(Constants.PRESENCE_SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void tick() {
+        try {
+            wheel.advance(this::checkExpired);
+        } catch (RuntimeException e) {
+            // An exception would cancel the periodic job
+            System.err.println("Error expiring idle sessions: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Heartbeats only move lastSeen, so a due presence is expired only if nothing happened since it was scheduled;
+     * otherwise it is scheduled again for the rest of its timeout
+     */
+    private void checkExpired(Presence presence) {
+        String username = presence.session.getUser().getUsername();
+        long idleMillis = System.currentTimeMillis() - presence.lastSeen;
+        if (idleMillis < Constants.PRESENCE_TIMEOUT_MILLIS) {
+            if (presences.get(username) == presence) {
+                wheel.schedule(presence, Constants.PRESENCE_TIMEOUT_MILLIS - idleMillis);
+            }
+            return;
+        }
+        boolean expired;
+        synchronized (this) {
+            expired = presences.remove(username, presence);
+        }
+        if (expired) {
+            end(presence, LocalDateTime.ofInstant(Instant.ofEpochMilli(presence.lastSeen), ZoneId.systemDefault()));
+        }
+    }
+
+    private void end(Presence presence, LocalDateTime logoutTime) {
+        User user = presence.session.getUser();
+        persist(() -> {
+            Repositories.sessions().endUserSession(user.getUsername(), logoutTime);
+            updateStatus(user, UserStatus.OFFLINE);
+        });
+    }
+
+    private void updateStatus(User user, UserStatus status) {
+        User copy = new User(user.getUsername());
+        copy.setStatus(status);
+        Repositories.users().updateUser(copy);
+    }
+
+    /**
+     * Run a write on the writer thread, or right away inside a batch transaction,
+     * where the rows it depends on may not be committed yet
+     */
+    private void persist(Runnable write) {
+        if (Repositories.getBackend() == StorageBackend.MYSQL && DatabaseConnection.inThreadTransaction()) {
+            write.run();
+            return;
+        }
+        writer.execute(() -> {
+            try {
+                write.run();
+            } catch (RuntimeException e) {
+                System.err.println("Error persisting session: " + e.getMessage());
+            }
+        });
+    }
+
+    private static class Presence {
+        private final UserSession session;
+        private volatile long lastSeen = System.currentTimeMillis();
+        // Logins sharing the session, changed with the registry locked
+        private int logins = 1;
+
+        private Presence(UserSession session) {
+            this.session = session;
+        }
+    }
+
+    /**
+     * One login of a user, such as a client connection, holding its share of the user's session
+     */
+    public static class Login {
+        private final Presence presence;
+        private volatile boolean ended = false;
+
+        private Login(Presence presence) {
+            this.presence = presence;
+        }
+    }
+}
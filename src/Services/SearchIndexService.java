@@ -0,0 +1,339 @@
+package Services;
+
+import Repository.Repositories;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Singleton in-memory inverted index over message content, kept per chat room.
+ * A room is indexed from the database the first time it is searched and is then kept up to date
+ * by the message repository when messages are created or edited, once their transaction commits.
+ */
+public class SearchIndexService {
+    private static final SearchIndexService instance = new SearchIndexService();
+
+    private final Map<Integer, RoomIndex> rooms = new ConcurrentHashMap<>();
+    // Room and distinct terms of every indexed message, needed to unindex it when it is edited
+    private final Map<Integer, IndexedMessage> indexedMessages = new ConcurrentHashMap<>();
+
+    private SearchIndexService() {
+    }
+
+    public static SearchIndexService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Find the messages of a room containing every term of the query.
+     * Terms are matched whole and case-insensitively, a term ending in '*' matches any word starting with it.
+     * @param chatRoomId The ID of the chat room
+     * @param query One or more terms separated by spaces
+     * @return The matching messages with the word positions of the matched terms, oldest first
+     */
+    public List<SearchHit> search(int chatRoomId, String query) {
+        List<QueryTerm> terms = parseQuery(query);
+        if (terms.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        RoomIndex room = getRoomIndex(chatRoomId);
+        room.lock.readLock().lock();
+        try {
+            // Start from the rarest term so the intersection stays small
+            List<Map<Integer, int[]>> matches = new ArrayList<>();
+            for (QueryTerm term : terms) {
+                Map<Integer, int[]> termMatches = room.match(term);
+                if (termMatches.isEmpty()) {
+                    return new ArrayList<>();
+                }
+                matches.add(termMatches);
+            }
+            matches.sort(Comparator.comparingInt(Map::size));
+
+            List<SearchHit> hits = new ArrayList<>();
+            for (Map.Entry<Integer, int[]> candidate : matches.get(0).entrySet()) {
+                int[] positions = candidate.getValue();
+                boolean matchesAll = true;
+                for (int i = 1; i < matches.size() && matchesAll; i++) {
+                    int[] other = matches.get(i).get(candidate.getKey());
+                    if (other == null) {
+                        matchesAll = false;
+                    } else {
+                        positions = mergePositions(positions, other);
+                    }
+                }
+                if (matchesAll) {
+                    hits.add(new SearchHit(candidate.getKey(), positions));
+                }
+            }
+            hits.sort(Comparator.comparingInt(SearchHit::getMessageId));
+            return hits;
+        } finally {
+            room.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Index a newly created message, if its room is already indexed
+     */
+    public void onMessageCreated(int chatRoomId, int messageId, String content) {
+        RoomIndex room = rooms.get(chatRoomId);
+        if (room == null) {
+            // Not searched yet, the message will be read with the rest of the room
+            return;
+        }
+        room.lock.writeLock().lock();
+        try {
+            room.index(messageId, content);
+        } finally {
+            room.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reindex a message whose content changed, if its room is already indexed
+     */
+    public void onMessageUpdated(int messageId, String newContent) {
+        IndexedMessage indexed = indexedMessages.get(messageId);
+        if (indexed == null) {
+            return;
+        }
+        onMessageCreated(indexed.chatRoomId, messageId, newContent);
+    }
+
+    /**
+     * Forget the index of a deleted room
+     */
+    public void onRoomDeleted(int chatRoomId) {
+        RoomIndex room = rooms.remove(chatRoomId);
+        if (room != null) {
+            room.lock.writeLock().lock();
+            try {
+                room.clear();
+            } finally {
+                room.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Forget every index, rooms are read again on their next search.
+     * Used when rows an index may have read are rolled back.
+     */
+    public void clear() {
+        for (Integer chatRoomId : new ArrayList<>(rooms.keySet())) {
+            onRoomDeleted(chatRoomId);
+        }
+    }
+
+    private RoomIndex getRoomIndex(int chatRoomId) {
+        RoomIndex room = rooms.get(chatRoomId);
+        if (room != null) {
+            return room;
+        }
+        // Register the room first so messages created while it loads are indexed too, after the load
+        RoomIndex created = new RoomIndex(chatRoomId);
+        created.lock.writeLock().lock();
+        try {
+            room = rooms.putIfAbsent(chatRoomId, created);
+            if (room != null) {
+                return room;
+            }
+            if (!Repositories.messages().scanMessageContents(chatRoomId, created::index)) {
+                // Do not keep a partial index, the next search will try again
+                rooms.remove(chatRoomId, created);
+                created.clear();
+            }
+            return created;
+        } finally {
+            created.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Split text into lowercase words made of letters and digits
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static List<QueryTerm> parseQuery(String query) {
+        List<QueryTerm> terms = new ArrayList<>();
+        for (String part : query.trim().split("\\s+")) {
+            boolean prefix = part.endsWith("*");
+            for (String token : tokenize(part)) {
+                terms.add(new QueryTerm(token, false));
+            }
+            if (prefix && !terms.isEmpty()) {
+                QueryTerm last = terms.remove(terms.size() - 1);
+                terms.add(new QueryTerm(last.text, true));
+            }
+        }
+        return terms;
+    }
+
+    private static int[] mergePositions(int[] first, int[] second) {
+        int[] merged = new int[first.length + second.length];
+        System.arraycopy(first, 0, merged, 0, first.length);
+        System.arraycopy(second, 0, merged, first.length, second.length);
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    /**
+     * The index of one room: each term maps to the messages containing it and the word positions in each
+     */
+    private class RoomIndex {
+        private final int chatRoomId;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final NavigableMap<String, PostingList> postings = new TreeMap<>();
+
+        private RoomIndex(int chatRoomId) {
+            this.chatRoomId = chatRoomId;
+        }
+
+        private void index(int messageId, String content) {
+            unindex(messageId);
+
+            Map<String, List<Integer>> positionsByTerm = new HashMap<>();
+            List<String> tokens = tokenize(content);
+            for (int position = 0; position < tokens.size(); position++) {
+                positionsByTerm.computeIfAbsent(tokens.get(position), term -> new ArrayList<>()).add(position);
+            }
+
+            for (Map.Entry<String, List<Integer>> entry : positionsByTerm.entrySet()) {
+                int[] positions = entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+                postings.computeIfAbsent(entry.getKey(), term -> new PostingList()).add(messageId, positions);
+            }
+            indexedMessages.put(messageId, new IndexedMessage(chatRoomId, positionsByTerm.keySet().toArray(new String[0])));
+        }
+
+        private void unindex(int messageId) {
+            IndexedMessage previous = indexedMessages.remove(messageId);
+            if (previous == null) {
+                return;
+            }
+            for (String term : previous.terms) {
+                PostingList list = postings.get(term);
+                if (list != null && list.remove(messageId) && list.size == 0) {
+                    postings.remove(term);
+                }
+            }
+        }
+
+        private Map<Integer, int[]> match(QueryTerm term) {
+            Map<Integer, int[]> matches = new HashMap<>();
+            Collection<PostingList> lists = term.prefix
+                    ? postings.subMap(term.text, true, term.text + Character.MAX_VALUE, false).values()
+                    : Collections.singletonList(postings.get(term.text));
+            for (PostingList list : lists) {
+                if (list == null) {
+                    continue;
+                }
+                for (int i = 0; i < list.size; i++) {
+                    matches.merge(list.messageIds[i], list.positions[i], SearchIndexService::mergePositions);
+                }
+            }
+            return matches;
+        }
+
+        private void clear() {
+            for (PostingList list : postings.values()) {
+                for (int i = 0; i < list.size; i++) {
+                    indexedMessages.remove(list.messageIds[i]);
+                }
+            }
+            postings.clear();
+        }
+    }
+
+    /**
+     * Message IDs containing a term, sorted, with the positions of the term in each message.
+     * New messages have the highest IDs, so adding one is normally an append.
+     */
+    private static class PostingList {
+        private int[] messageIds = new int[2];
+        private int[][] positions = new int[2][];
+        private int size = 0;
+
+        private void add(int messageId, int[] messagePositions) {
+            int index = Arrays.binarySearch(messageIds, 0, size, messageId);
+            if (index >= 0) {
+                positions[index] = messagePositions;
+                return;
+            }
+            index = -index - 1;
+            if (size == messageIds.length) {
+                messageIds = Arrays.copyOf(messageIds, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            System.arraycopy(messageIds, index, messageIds, index + 1, size - index);
+            System.arraycopy(positions, index, positions, index + 1, size - index);
+            messageIds[index] = messageId;
+            positions[index] = messagePositions;
+            size++;
+        }
+
+        private boolean remove(int messageId) {
+            int index = Arrays.binarySearch(messageIds, 0, size, messageId);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(messageIds, index + 1, messageIds, index, size - index - 1);
+            System.arraycopy(positions, index + 1, positions, index, size - index - 1);
+            size--;
+            positions[size] = null;
+            return true;
+        }
+    }
+
+    private static class IndexedMessage {
+        private final int chatRoomId;
+        private final String[] terms;
+
+        private IndexedMessage(int chatRoomId, String[] terms) {
+            this.chatRoomId = chatRoomId;
+            this.terms = terms;
+        }
+    }
+
+    private static class QueryTerm {
+        private final String text;
+        private final boolean prefix;
+
+        private QueryTerm(String text, boolean prefix) {
+            this.text = text;
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * A message matching a search, with the word positions of the matched terms
+     */
+    public static class SearchHit {
+        private final int messageId;
+        private final int[] positions;
+
+        public SearchHit(int messageId, int[] positions) {
+            this.messageId = messageId;
+            this.positions = positions;
+        }
+
+        public int getMessageId() { return messageId; }
+        public int[] getPositions() { return positions; }
+    }
+}
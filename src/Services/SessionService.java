@@ -2,27 +2,23 @@ package Services;
 
 import Entities.User;
 import Entities.UserSession;
-import Repository.UserSessionJdbcService;
+import Repository.Repositories;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class SessionService {
 
-    public void login(User user) {
-        UserSession session = new UserSession(user);
-        UserSessionJdbcService.getInstance().createUserSession(session);
+    public PresenceRegistry.Login login(User user) {
+        return PresenceRegistry.getInstance().login(user);
     }
 
-    public void logout(User user) {
-        String username = user.getUsername();
-        UserSessionJdbcService.getInstance().endUserSession(username);
+    public void logout(PresenceRegistry.Login login) {
+        PresenceRegistry.getInstance().logout(login);
     }
 
     public void showActiveSessions() {
-        Map<String, UserSession> activeSessions = UserSessionJdbcService.getInstance().getActiveSessions();
+        Map<String, UserSession> activeSessions = PresenceRegistry.getInstance().getActiveSessions();
         if (activeSessions.isEmpty()) {
             System.out.println("No active sessions");
             return;
@@ -32,7 +28,8 @@ public class SessionService {
     }
 
     public void showInactiveSessions() {
-        Map<String, List<UserSession>> inactiveSessions = UserSessionJdbcService.getInstance().getInactiveSessions();
+        PresenceRegistry.getInstance().awaitPendingWrites();
+        Map<String, List<UserSession>> inactiveSessions = Repositories.sessions().getInactiveSessions();
         if (inactiveSessions.isEmpty()) {
             System.out.println("No inactive sessions");
             return;
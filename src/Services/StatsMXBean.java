@@ -0,0 +1,31 @@
+package Services;
+
+import java.util.Map;
+
+/**
+ * Management interface of StatsService, registered as Chat:type=Stats.
+ * Latencies are in microseconds.
+ */
+public interface StatsMXBean {
+    String getReport();
+
+    Map<String, Long> getCommandCounts();
+
+    Map<String, Long> getCommandP99Micros();
+
+    Map<String, Double> getAverageStatementsPerCommand();
+
+    Map<String, Long> getRepositoryCallCounts();
+
+    Map<String, Long> getRepositoryP99Micros();
+
+    double getUserCacheHitRate();
+
+    double getRoomCacheHitRate();
+
+    double getAclCacheHitRate();
+
+    double getStatementCacheHitRate();
+
+    void reset();
+}
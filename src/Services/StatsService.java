@@ -0,0 +1,168 @@
+package Services;
+
+import Config.DatabaseConnection;
+import Repository.ChatRoomJdbcService;
+import Repository.Repositories;
+import Repository.UserJdbcService;
+import Utils.LatencyHistogram;
+import Utils.QueryCounter;
+import Utils.StorageBackend;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Singleton collecting latency histograms per command and per repository method,
+ * together with the SQL statements and round trips each command needed.
+ * Shown by the STATS command and exposed over JMX.
+ */
+public class StatsService implements StatsMXBean {
+    private static final StatsService instance = new StatsService();
+
+    private final Map<String, CommandStats> commands = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> repositoryCalls = new ConcurrentHashMap<>();
+
+    private StatsService() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("Chat:type=Stats"));
+        } catch (Exception e) {
+            System.err.println("Error registering stats MBean: " + e.getMessage());
+        }
+    }
+
+    public static StatsService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Start measuring a command on the current thread
+     * @return The start time, to be given back to endCommand
+     */
+    public long startCommand() {
+        QueryCounter.reset();
+        return System.nanoTime();
+    }
+
+    /**
+     * Record a command started with startCommand on the same thread
+     * @param command The command type, such as "SHOW MSG"
+     * @param start The value returned by startCommand
+     */
+    public void endCommand(String command, long start) {
+        long elapsed = System.nanoTime() - start;
+        CommandStats stats = commands.computeIfAbsent(command, key -> new CommandStats());
+        stats.latency.record(elapsed);
+        long statements = QueryCounter.getStatements();
+        stats.statements.add(statements);
+        stats.roundTrips.add(QueryCounter.getRoundTrips());
+        stats.maxStatements.accumulateAndGet(statements, Math::max);
+    }
+
+    /**
+     * @param method The repository method, such as "MessageRepository.getMessagesPage"
+     * @param nanos How long the call took
+     */
+    public void recordRepositoryCall(String method, long nanos) {
+        repositoryCalls.computeIfAbsent(method, key -> new LatencyHistogram()).record(nanos);
+    }
+
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-22s %8s %9s %9s %9s %9s %8s %8s %8s%n",
+                "Command", "count", "p50 ms", "p90 ms", "p99 ms", "max ms", "sql/cmd", "max sql", "trips"));
+        new TreeMap<>(commands).forEach((command, stats) -> {
+            long count = stats.latency.getCount();
+            report.append(String.format("%-22s %8d %9.3f %9.3f %9.3f %9.3f %8.1f %8d %8.1f%n",
+                    command, count, millis(stats.latency.getValueAtPercentile(50)), millis(stats.latency.getValueAtPercentile(90)),
+                    millis(stats.latency.getValueAtPercentile(99)), millis(stats.latency.getMaxNanos()),
+                    average(stats.statements.sum(), count), stats.maxStatements.get(), average(stats.roundTrips.sum(), count)));
+        });
+
+        report.append(String.format("%n%-50s %8s %9s %9s %9s%n", "Repository method", "count", "p50 ms", "p99 ms", "max ms"));
+        new TreeMap<>(repositoryCalls).forEach((method, latency) -> report.append(String.format("%-50s %8d %9.3f %9.3f %9.3f%n",
+                method, latency.getCount(), millis(latency.getValueAtPercentile(50)),
+                millis(latency.getValueAtPercentile(99)), millis(latency.getMaxNanos()))));
+
+        report.append(String.format("%nCache hit rates: users %.1f%%, rooms %.1f%%, room ACLs %.1f%%, statements %.1f%%",
+                getUserCacheHitRate() * 100, getRoomCacheHitRate() * 100, getAclCacheHitRate() * 100, getStatementCacheHitRate() * 100));
+        return report.toString();
+    }
+
+    public Map<String, Long> getCommandCounts() {
+        return commandMetric(stats -> stats.latency.getCount());
+    }
+
+    public Map<String, Long> getCommandP99Micros() {
+        return commandMetric(stats -> stats.latency.getValueAtPercentile(99) / 1000);
+    }
+
+    public Map<String, Double> getAverageStatementsPerCommand() {
+        return commandMetric(stats -> average(stats.statements.sum(), stats.latency.getCount()));
+    }
+
+    public Map<String, Long> getRepositoryCallCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        repositoryCalls.forEach((method, latency) -> counts.put(method, latency.getCount()));
+        return counts;
+    }
+
+    public Map<String, Long> getRepositoryP99Micros() {
+        Map<String, Long> latencies = new TreeMap<>();
+        repositoryCalls.forEach((method, latency) -> latencies.put(method, latency.getValueAtPercentile(99) / 1000));
+        return latencies;
+    }
+
+    public double getUserCacheHitRate() {
+        return UserJdbcService.getInstance().getUserCache().getHitRate();
+    }
+
+    public double getRoomCacheHitRate() {
+        return ChatRoomJdbcService.getInstance().getRoomCache().getHitRate();
+    }
+
+    public double getAclCacheHitRate() {
+        return ChatRoomJdbcService.getInstance().getAclCache().getHitRate();
+    }
+
+    public double getStatementCacheHitRate() {
+        // The in-memory backend never opens the pool, do not start it just to report on it
+        if (Repositories.getBackend() != StorageBackend.MYSQL) {
+            return 0;
+        }
+        long hits = DatabaseConnection.getPool().getStatementCacheHits();
+        long total = hits + DatabaseConnection.getPool().getStatementCacheMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void reset() {
+        commands.clear();
+        repositoryCalls.clear();
+    }
+
+    private <T> Map<String, T> commandMetric(Function<CommandStats, T> metric) {
+        Map<String, T> values = new TreeMap<>();
+        commands.forEach((command, stats) -> values.put(command, metric.apply(stats)));
+        return values;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private static double average(long total, long count) {
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    private static class CommandStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder statements = new LongAdder();
+        private final LongAdder roundTrips = new LongAdder();
+        private final AtomicLong maxStatements = new AtomicLong();
+    }
+}
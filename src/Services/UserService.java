@@ -4,9 +4,7 @@ import Entities.ChatRoom;
 import Entities.GroupChat;
 import Entities.Message;
 import Entities.User;
-import Repository.ChatRoomJdbcService;
-import Repository.MessageJdbcService;
-import Repository.UserJdbcService;
+import Repository.Repositories;
 import Utils.GroupPermission;
 import Utils.MessageStatus;
 import Utils.UserStatus;
@@ -21,30 +19,31 @@ public class UserService {
         this.user = user;
     }
 
+    // The stored status is written by PresenceRegistry together with the session
     public void login() {
         user.setStatus(UserStatus.ONLINE);
-        UserJdbcService.getInstance().updateUser(user);
         System.out.println(user.getUsername() + " logged in.");
     }
 
     public void logout() {
         user.setStatus(UserStatus.OFFLINE);
-        UserJdbcService.getInstance().updateUser(user);
         System.out.println(user.getUsername() + " logged out.");
     }
 
     public void simulateReading(ChatRoom room) {
-        for (Message msg : MessageJdbcService.getInstance().getMessagesByChatRoomId(room.getId())) {
-            if (!msg.getSender().getUsername().equals(user.getUsername())) {
-                MessageJdbcService.getInstance().updateMessageStatus(msg.getId(), user.getUsername(), MessageStatus.READ);
-            }
+        // Messages arriving after this point stay unread
+        int latestId = Repositories.messages().getLatestMessageId(room.getId());
+        int changed = Repositories.messages().markRoomRead(room.getId(), user.getUsername(), latestId);
+        if (changed < 0) {
+            return;
         }
-        System.out.println(user.getUsername() + " read all messages in " + room.getName());
+        Repositories.messages().decrementUnreadCounter(room.getId(), user.getUsername(), changed);
+        System.out.println(user.getUsername() + " read all messages in " + room.getName() + " (" + changed + " new)");
     }
 
     public void showMessageStatus(ChatRoom room) {
         System.out.println("Message Status for " + user.getUsername() + " in chat " + room.getName() + ":");
-        for (Message msg : MessageJdbcService.getInstance().getMessagesByChatRoomId(room.getId())) {
+        for (Message msg : Repositories.messages().getMessagesByChatRoomId(room.getId())) {
             if (msg.getStatus(user.getUsername()) != null) {
                 System.out.println(msg + " [Status: " + msg.getStatus(user.getUsername()) + "]");
             }
@@ -53,74 +52,62 @@ public class UserService {
 
     public void showUnreadMessages(ChatRoom room) {
         System.out.println("Unread messages for " + user.getUsername() + " in chat " + room.getName() + ":");
-        List<Message> messages = MessageJdbcService.getInstance().getMessagesByChatRoomId(room.getId());
-        boolean hasUnread = false;
-        for (Message msg : messages) {
-            if (msg.getStatus(user.getUsername()) == MessageStatus.RECEIVED) {
-                System.out.println(msg);
-                hasUnread = true;
-            }
-        }
-        if (!hasUnread) {
+        List<Message> messages = Repositories.messages().getUnreadMessages(room.getId(), user.getUsername());
+        if (messages.isEmpty()) {
             System.out.println("No unread messages.");
+            return;
         }
+        messages.forEach(System.out::println);
     }
 
     public int getUnreadMessageCount(ChatRoom room) {
         System.out.println("Number of unread messages for " + user.getUsername() + " in chat " + room.getName() + ":");
-        List<Message> messages = MessageJdbcService.getInstance().getMessagesByChatRoomId(room.getId());
-        int count = 0;
-        for (Message msg : messages) {
-            if (msg.getStatus(user.getUsername()) == MessageStatus.RECEIVED) {
-                count++;
-            }
-        }
-        return count;
+        return Repositories.messages().getUnreadCount(room.getId(), user.getUsername());
     }
 
     public void addUserToGroup(GroupChat group, User otherUser) {
-        if (ChatRoomJdbcService.getInstance().getParticipantPermission(group.getId(), user.getUsername()) == GroupPermission.MEMBER) {
+        if (Repositories.chatRooms().getParticipantPermission(group.getId(), user.getUsername()) == GroupPermission.MEMBER) {
             System.out.println("Only the owner and admins can add new members!");
             return;
         }
         group.addParticipant(otherUser);
-        ChatRoomJdbcService.getInstance().addParticipant(group.getId(), otherUser.getUsername(), GroupPermission.MEMBER);
+        Repositories.chatRooms().addParticipant(group.getId(), otherUser.getUsername(), GroupPermission.MEMBER);
         System.out.println("Added new member " + otherUser);
     }
 
     public void kickUserFromGroup(GroupChat group, User otherUser) {
-        if (ChatRoomJdbcService.getInstance().getParticipantPermission(group.getId(), user.getUsername()) == GroupPermission.MEMBER) {
+        if (Repositories.chatRooms().getParticipantPermission(group.getId(), user.getUsername()) == GroupPermission.MEMBER) {
             System.out.println("Only the owner and admins can kick members!");
             return;
         }
-        if (ChatRoomJdbcService.getInstance().getParticipantPermission(group.getId(), otherUser.getUsername()) == GroupPermission.OWNER) {
+        if (Repositories.chatRooms().getParticipantPermission(group.getId(), otherUser.getUsername()) == GroupPermission.OWNER) {
             System.out.println("Cannot kick the owner!");
             return;
         }
         group.removeParticipant(otherUser);
-        ChatRoomJdbcService.getInstance().removeParticipant(group.getId(), otherUser.getUsername());
+        Repositories.chatRooms().removeParticipant(group.getId(), otherUser.getUsername());
     }
 
     public void makeUserAdmin(GroupChat group, User otherUser) {
-        if (ChatRoomJdbcService.getInstance().getParticipantPermission(group.getId(), user.getUsername()) != GroupPermission.OWNER) {
+        if (Repositories.chatRooms().getParticipantPermission(group.getId(), user.getUsername()) != GroupPermission.OWNER) {
             System.out.println("Only the owner can make users admins!");
             return;
         }
-        ChatRoomJdbcService.getInstance().updateParticipantPermission(group.getId(), otherUser.getUsername(), GroupPermission.ADMIN);
+        Repositories.chatRooms().updateParticipantPermission(group.getId(), otherUser.getUsername(), GroupPermission.ADMIN);
         System.out.println("Made user " + otherUser + " an admin");
     }
 
     public void removeUserAdmin(GroupChat group, User otherUser) {
-        if (ChatRoomJdbcService.getInstance().getParticipantPermission(group.getId(), user.getUsername()) != GroupPermission.OWNER) {
+        if (Repositories.chatRooms().getParticipantPermission(group.getId(), user.getUsername()) != GroupPermission.OWNER) {
             System.out.println("Only the owner can take away roles!");
             return;
         }
-        ChatRoomJdbcService.getInstance().updateParticipantPermission(group.getId(), otherUser.getUsername(), GroupPermission.MEMBER);
+        Repositories.chatRooms().updateParticipantPermission(group.getId(), otherUser.getUsername(), GroupPermission.MEMBER);
         System.out.println("Removed user's " + user + " admin role");
     }
 
     public void updateMessageContent(int messageId, String newContent) {
-        Message message = MessageJdbcService.getInstance().getMessageById(messageId);
+        Message message = Repositories.messages().getMessageById(messageId);
         if (message == null) {
             System.out.println("Message with given id does not exist!");
             return;
@@ -129,17 +116,20 @@ public class UserService {
             System.out.println("Only the sender may change this message!");
             return;
         }
-        MessageJdbcService.getInstance().updateMessageContent(messageId, newContent);
+        if (!Repositories.messages().updateMessageContent(messageId, newContent)) {
+            System.out.println("Message content could not be updated");
+            return;
+        }
         System.out.println("Message content updated");
     }
 
     public void deleteGroup(int roomId) {
-        GroupPermission permission = ChatRoomJdbcService.getInstance().getParticipantPermission(roomId, user.getUsername());
+        GroupPermission permission = Repositories.chatRooms().getParticipantPermission(roomId, user.getUsername());
         if (permission != GroupPermission.OWNER) {
             System.out.println("Only the owner can delete the room!");
             return;
         }
-        ChatRoomJdbcService.getInstance().deleteChatRoom(roomId);
+        Repositories.chatRooms().deleteChatRoom(roomId);
         System.out.println("Deleted room with id " + roomId);
     }
 
@@ -0,0 +1,5 @@
+package Utils;
+
+public enum AuditOverflowPolicy {
+    BLOCK, DROP, COUNT
+}
@@ -0,0 +1,43 @@
+package Utils;
+
+/**
+ * Counts the SQL statements executed and the database round trips made by the current thread,
+ * so the cost of a single command can be measured. Fed by the connection pool.
+ */
+public class QueryCounter {
+    // [statements, round trips]
+    private static final ThreadLocal<long[]> counts = ThreadLocal.withInitial(() -> new long[2]);
+
+    private QueryCounter() {
+    }
+
+    /**
+     * Record one round trip that executed the given number of statements (more than one for a batch)
+     */
+    public static void executed(int statements) {
+        long[] current = counts.get();
+        current[0] += statements;
+        current[1]++;
+    }
+
+    /**
+     * Record a round trip that executes no statement of its own, such as a commit
+     */
+    public static void roundTrip() {
+        counts.get()[1]++;
+    }
+
+    public static long getStatements() {
+        return counts.get()[0];
+    }
+
+    public static long getRoundTrips() {
+        return counts.get()[1];
+    }
+
+    public static void reset() {
+        long[] current = counts.get();
+        current[0] = 0;
+        current[1] = 0;
+    }
+}
@@ -0,0 +1,5 @@
+package Utils;
+
+public enum StorageBackend {
+    MYSQL, MEMORY
+}
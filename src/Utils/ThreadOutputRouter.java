@@ -0,0 +1,240 @@
+package Utils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * PrintStream installed as System.out that forwards every call to the stream bound to the current thread,
+ * or to the original console when none is bound. This lets the services keep printing with
+ * System.out while each client connection of the server receives only its own output.
+ * Every method is overridden so the stream is picked before any lock is taken: the only lock held while
+ * printing is the one of the target stream, so a slow client blocks nobody but its own connection.
+ */
+public class ThreadOutputRouter extends PrintStream {
+    private static final ThreadLocal<PrintStream> boundStream = new ThreadLocal<>();
+    private static volatile PrintStream console;
+
+    private ThreadOutputRouter(PrintStream console) {
+        super(console, true);
+    }
+
+    /**
+     * Replace System.out with a routing stream. Safe to call more than once.
+     */
+    public static synchronized void install() {
+        if (console == null) {
+            console = System.out;
+            System.setOut(new ThreadOutputRouter(console));
+        }
+    }
+
+    /**
+     * Send everything the current thread prints to the given stream, until unbind is called.
+     * Other threads writing to the same stream (pushed messages) are serialized with it on the stream's lock.
+     */
+    public static void bind(PrintStream stream) {
+        boundStream.set(stream);
+    }
+
+    public static void unbind() {
+        boundStream.remove();
+    }
+
+    /**
+     * @return The stream bound to the current thread, or the console when none is bound
+     */
+    public static PrintStream current() {
+        PrintStream stream = boundStream.get();
+        if (stream != null) {
+            return stream;
+        }
+        return console != null ? console : System.out;
+    }
+
+    private static PrintStream target() {
+        PrintStream stream = boundStream.get();
+        return stream != null ? stream : console;
+    }
+
+    @Override
+    public void write(int b) {
+        target().write(b);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) {
+        target().write(buf, off, len);
+    }
+
+    @Override
+    public void write(byte[] buf) throws IOException {
+        target().write(buf);
+    }
+
+    @Override
+    public void writeBytes(byte[] buf) {
+        target().writeBytes(buf);
+    }
+
+    @Override
+    public void print(boolean b) {
+        target().print(b);
+    }
+
+    @Override
+    public void print(char c) {
+        target().print(c);
+    }
+
+    @Override
+    public void print(int i) {
+        target().print(i);
+    }
+
+    @Override
+    public void print(long l) {
+        target().print(l);
+    }
+
+    @Override
+    public void print(float f) {
+        target().print(f);
+    }
+
+    @Override
+    public void print(double d) {
+        target().print(d);
+    }
+
+    @Override
+    public void print(char[] s) {
+        target().print(s);
+    }
+
+    @Override
+    public void print(String s) {
+        target().print(s);
+    }
+
+    @Override
+    public void print(Object obj) {
+        target().print(obj);
+    }
+
+    @Override
+    public void println() {
+        target().println();
+    }
+
+    @Override
+    public void println(boolean x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(char x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(int x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(long x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(float x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(double x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(char[] x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(String x) {
+        target().println(x);
+    }
+
+    @Override
+    public void println(Object x) {
+        target().println(x);
+    }
+
+    @Override
+    public PrintStream printf(String format, Object... args) {
+        target().printf(format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream printf(Locale l, String format, Object... args) {
+        target().printf(l, format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream format(String format, Object... args) {
+        target().format(format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream format(Locale l, String format, Object... args) {
+        target().format(l, format, args);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq) {
+        target().append(csq);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(CharSequence csq, int start, int end) {
+        target().append(csq, start, end);
+        return this;
+    }
+
+    @Override
+    public PrintStream append(char c) {
+        target().append(c);
+        return this;
+    }
+
+    /**
+     * Bound streams are buffered per connection and flushed by their owner once a command completes,
+     * so only the console is flushed here
+     */
+    @Override
+    public void flush() {
+        if (boundStream.get() == null) {
+            console.flush();
+        }
+    }
+
+    @Override
+    public boolean checkError() {
+        return target().checkError();
+    }
+
+    /**
+     * The console and the bound streams are closed by their owners
+     */
+    @Override
+    public void close() {
+        flush();
+    }
+}
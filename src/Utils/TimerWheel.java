@@ -0,0 +1,71 @@
+package Utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel: timeouts are kept in a ring of slots, one per tick, so scheduling is O(1)
+ * and each tick only looks at the timeouts of its own slot. Timeouts further away than one turn
+ * of the wheel stay in their slot until the turn in which they are due.
+ * Thread-safe for scheduling; advance is called by a single timer thread.
+ */
+public class TimerWheel<T> {
+    private final List<Queue<Timeout<T>>> slots;
+    private final long tickMillis;
+    private volatile long tick = 0;
+
+    public TimerWheel(int slotCount, long tickMillis) {
+        this.slots = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            slots.add(new ConcurrentLinkedQueue<>());
+        }
+        this.tickMillis = tickMillis;
+    }
+
+    /**
+     * @param item What to hand to advance once the delay has passed
+     * @param delayMillis The delay, rounded up to whole ticks
+     */
+    public void schedule(T item, long delayMillis) {
+        long deadline = tick + Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        slots.get((int) (deadline % slots.size())).add(new Timeout<>(item, deadline));
+    }
+
+    /**
+     * Move the wheel forward by one tick
+     * @param expired Receives every item whose delay has passed
+     */
+    public void advance(Consumer<T> expired) {
+        long now = ++tick;
+        Queue<Timeout<T>> slot = slots.get((int) (now % slots.size()));
+        // Timeouts added meanwhile land in later ticks, so only the ones present now are looked at
+        for (int pending = slot.size(); pending > 0; pending--) {
+            Timeout<T> timeout = slot.poll();
+            if (timeout == null) {
+                break;
+            }
+            if (timeout.deadline <= now) {
+                expired.accept(timeout.item);
+            } else {
+                slot.add(timeout);
+            }
+        }
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    private static class Timeout<T> {
+        private final T item;
+        private final long deadline;
+
+        private Timeout(T item, long deadline) {
+            this.item = item;
+            this.deadline = deadline;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package Utils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Singleton dictionary giving every username a small int ID for the life of the process,
+ * so bulk structures can keep ints instead of a copy of the username per entry.
+ * IDs are never reused; the dictionary only grows with the number of distinct usernames seen.
+ */
+public class UsernameDictionary {
+    private static final UsernameDictionary instance = new UsernameDictionary();
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] usernames = new String[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private UsernameDictionary() {
+    }
+
+    public static UsernameDictionary getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return The ID of a username, assigned on its first use
+     */
+    public int idOf(String username) {
+        Integer id = ids.get(username);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(username);
+            if (id != null) {
+                return id;
+            }
+            if (size == usernames.length) {
+                usernames = Arrays.copyOf(usernames, size * 2);
+            }
+            // Stored before the ID is published, so whoever sees the ID can resolve it
+            usernames[size] = username;
+            ids.put(username, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @return The ID of a username, or -1 if it has none yet
+     */
+    public int findId(String username) {
+        return ids.getOrDefault(username, -1);
+    }
+
+    /**
+     * @return The username of an ID returned by idOf
+     */
+    public String usernameOf(int id) {
+        return usernames[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
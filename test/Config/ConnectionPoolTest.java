@@ -0,0 +1,106 @@
+package Config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+    private static final String URL = "jdbc:h2:mem:pool-test;DB_CLOSE_DELAY=-1";
+    private static final int MAX_SIZE = 2;
+    private static final long MAX_WAIT_MILLIS = 200;
+
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void createPool() {
+        pool = new ConnectionPool(URL, "sa", "", MAX_SIZE, 0, MAX_WAIT_MILLIS, 60_000, 8);
+    }
+
+    @AfterEach
+    void shutdownPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void borrowTimesOutWhenThePoolIsExhausted() throws SQLException {
+        try (Connection first = pool.borrow(); Connection second = pool.borrow()) {
+            assertNotSame(first, second);
+            assertEquals(MAX_SIZE, pool.getActiveCount());
+
+            long start = System.nanoTime();
+            SQLException timeout = assertThrows(SQLException.class, pool::borrow);
+            long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertTrue(timeout.getMessage().contains("Timed out"), timeout.getMessage());
+            assertTrue(waitedMillis >= MAX_WAIT_MILLIS - 20, "gave up after " + waitedMillis + " ms");
+            assertEquals(1, pool.getTimeoutCount());
+            assertEquals(MAX_SIZE, pool.getActiveCount());
+        }
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    void waitingBorrowGetsTheConnectionReturnedMeanwhile() throws Exception {
+        Connection first = pool.borrow();
+        Connection second = pool.borrow();
+
+        CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.borrow();
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(MAX_WAIT_MILLIS / 4);
+        assertFalse(waiting.isDone());
+
+        first.close();
+        try (Connection third = waiting.get(MAX_WAIT_MILLIS * 5, TimeUnit.MILLISECONDS)) {
+            assertFalse(third.isClosed());
+            // Reused, not opened beyond the limit
+            assertEquals(MAX_SIZE, pool.getCreatedCount());
+        }
+        second.close();
+        assertEquals(0, pool.getTimeoutCount());
+    }
+
+    @Test
+    void returnedConnectionDropsItsUnfinishedTransaction() throws SQLException {
+        try (Connection conn = pool.borrow(); Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS pool_rows (id INT PRIMARY KEY)");
+            stmt.execute("DELETE FROM pool_rows");
+        }
+        try (Connection conn = pool.borrow(); Statement stmt = conn.createStatement()) {
+            conn.setAutoCommit(false);
+            stmt.execute("INSERT INTO pool_rows (id) VALUES (1)");
+            // Closed without commit
+        }
+        try (Connection conn = pool.borrow(); Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM pool_rows")) {
+            assertTrue(conn.getAutoCommit());
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+        }
+    }
+
+    @Test
+    void closingTwiceReturnsTheConnectionOnce() throws SQLException {
+        Connection conn = pool.borrow();
+        conn.close();
+        conn.close();
+        assertEquals(0, pool.getActiveCount());
+        try (Connection first = pool.borrow(); Connection second = pool.borrow()) {
+            assertNotSame(first, second);
+            assertEquals(MAX_SIZE, pool.getActiveCount());
+        }
+    }
+}
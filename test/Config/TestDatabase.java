@@ -0,0 +1,47 @@
+package Config;
+
+import Repository.Repositories;
+import Utils.StorageBackend;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Embedded H2 database (MySQL mode) behind DatabaseConnection for the tests of the JDBC code.
+ * DatabaseConnection reads its settings once per JVM, so every test class shares the database
+ * created here by the migrations and works on rows of its own.
+ */
+public class TestDatabase {
+    private static boolean started = false;
+
+    private TestDatabase() {
+    }
+
+    /**
+     * Create the database on the first call and select the MySQL repositories
+     */
+    public static synchronized void start() throws IOException, SQLException {
+        Repositories.select(StorageBackend.MYSQL);
+        if (started) {
+            return;
+        }
+        Path properties = Files.createTempFile("chat-test", ".properties");
+        properties.toFile().deleteOnExit();
+        Files.write(properties, List.of(
+                "jdbc:h2:mem:chat-test;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                "sa",
+                "",
+                Constants.POOL_MAX_WAIT_MILLIS + "=2000"));
+        System.setProperty(Constants.FISIER_DB_PROPERTY, properties.toString());
+        System.setProperty(Constants.AUDIT_DIR_PROPERTY, Files.createTempDirectory("chat-test-audit").toString());
+        System.setProperty(Constants.ARCHIVE_DIR_PROPERTY, Files.createTempDirectory("chat-test-archive").toString());
+
+        if (!MigrationRunner.migrate()) {
+            throw new SQLException("Could not create the test schema");
+        }
+        started = true;
+    }
+}
@@ -0,0 +1,121 @@
+package Entities;
+
+import Utils.MessageStatus;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageBlockTest {
+    private static final LocalDateTime START = LocalDateTime.of(2024, 5, 1, 8, 30, 15, 987_654_321);
+
+    private final User alice = new User("block-alice");
+    private final User bob = new User("block-bob");
+
+    @Test
+    void viewsReadTheirRow() {
+        MessageBlock block = block(3);
+
+        assertEquals(3, block.size());
+        for (int i = 0; i < 3; i++) {
+            Message message = block.get(i);
+            assertEquals(i + 1, message.getId());
+            assertEquals("message " + (i + 1), message.getContent());
+            assertEquals(START.plusSeconds(i + 1), message.getTimestamp());
+        }
+        assertSame(alice, block.get(0).getSender());
+        assertSame(bob, block.get(1).getSender());
+        // One User object per sender, whichever object a later row was added with
+        assertSame(alice, block.get(2).getSender());
+        assertThrows(IndexOutOfBoundsException.class, () -> block.get(3));
+    }
+
+    @Test
+    void statusesMarkedThroughAViewAreKeptByTheBlock() {
+        MessageBlock block = block(2);
+
+        block.get(0).markStatus(bob, MessageStatus.RECEIVED);
+        block.get(1).markStatus(alice, MessageStatus.READ);
+        block.get(0).markStatus(bob, MessageStatus.READ);
+
+        assertEquals(MessageStatus.READ, block.get(0).getStatus(bob.getUsername()));
+        assertNull(block.get(0).getStatus(alice.getUsername()));
+        assertEquals(MessageStatus.READ, block.get(1).getStatus(alice.getUsername()));
+        assertNull(block.get(1).getStatus(bob.getUsername()));
+        assertNull(block.get(1).getStatus("block-nobody"));
+        assertEquals(Map.of(bob.getUsername(), MessageStatus.READ), block.get(0).getDeliveryStatus());
+    }
+
+    @Test
+    void growingKeepsRowsAndStatuses() {
+        MessageBlock block = new MessageBlock(1);
+        block.add(1, alice, START, "first");
+        block.get(0).markStatus(bob, MessageStatus.RECEIVED);
+        for (int id = 2; id <= 40; id++) {
+            block.add(id, id % 2 == 0 ? bob : alice, START.plusSeconds(id), "message " + id);
+        }
+        block.get(39).markStatus(alice, MessageStatus.READ);
+
+        assertEquals(40, block.size());
+        assertEquals("first", block.get(0).getContent());
+        assertEquals(MessageStatus.RECEIVED, block.get(0).getStatus(bob.getUsername()));
+        assertEquals(40, block.get(39).getId());
+        assertEquals(MessageStatus.READ, block.get(39).getStatus(alice.getUsername()));
+        assertNull(block.get(20).getStatus(bob.getUsername()));
+    }
+
+    @Test
+    void reverseMovesEveryColumnOfARow() {
+        MessageBlock block = block(5);
+        block.get(0).markStatus(bob, MessageStatus.READ);
+        block.get(3).markStatus(alice, MessageStatus.RECEIVED);
+
+        block.reverse();
+
+        assertEquals(List.of(5, 4, 3, 2, 1), block.stream().map(Message::getId).toList());
+        assertEquals("message 5", block.get(0).getContent());
+        assertEquals(START.plusSeconds(1), block.get(4).getTimestamp());
+        assertSame(alice, block.get(4).getSender());
+        assertEquals(MessageStatus.READ, block.get(4).getStatus(bob.getUsername()));
+        assertEquals(MessageStatus.RECEIVED, block.get(1).getStatus(alice.getUsername()));
+        assertNull(block.get(0).getStatus(bob.getUsername()));
+    }
+
+    @Test
+    void watermarksFollowTheirRowsWhenOnlySomeRowsUseThem() {
+        MessageBlock block = block(4);
+        Map<String, ReadWatermark> watermarks = Map.of(bob.getUsername(), new ReadWatermark(0, 4, 2));
+        // Only the first two rows have watermarks, the list is shorter than the block
+        block.get(0).useWatermarks(watermarks);
+        block.get(1).useWatermarks(watermarks);
+
+        assertEquals(MessageStatus.READ, block.get(0).getStatus(bob.getUsername()));
+        assertEquals(MessageStatus.SENT, block.get(0).getStatus(alice.getUsername()));
+        assertNull(block.get(3).getStatus(bob.getUsername()));
+
+        block.reverse();
+
+        // Message 2 is bob's own, which only the watermark path reports as SENT; message 4 has no watermarks
+        assertEquals(2, block.get(2).getId());
+        assertEquals(MessageStatus.SENT, block.get(2).getStatus(bob.getUsername()));
+        assertEquals(1, block.get(3).getId());
+        assertEquals(MessageStatus.READ, block.get(3).getStatus(bob.getUsername()));
+        assertEquals(4, block.get(0).getId());
+        assertNull(block.get(0).getStatus(bob.getUsername()));
+    }
+
+    /**
+     * Messages 1 to count, sent alternately by alice and bob
+     */
+    private MessageBlock block(int count) {
+        MessageBlock block = new MessageBlock(2);
+        for (int id = 1; id <= count; id++) {
+            User sender = id % 2 == 1 ? (id == 1 ? alice : new User(alice.getUsername())) : bob;
+            block.add(id, sender, START.plusSeconds(id), "message " + id);
+        }
+        return block;
+    }
+}
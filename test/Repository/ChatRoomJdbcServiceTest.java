@@ -0,0 +1,164 @@
+package Repository;
+
+import Config.DatabaseConnection;
+import Config.TestDatabase;
+import Entities.ChatRoom;
+import Entities.GroupChat;
+import Entities.User;
+import Utils.GroupPermission;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatRoomJdbcServiceTest {
+    private final ChatRoomJdbcService chatRooms = ChatRoomJdbcService.getInstance();
+    private User owner;
+    private User member;
+    private int chatRoomId;
+
+    @BeforeEach
+    void createRoom() throws IOException, SQLException {
+        TestDatabase.start();
+        String prefix = "acl" + System.nanoTime() % 1_000_000_000 + "-";
+        owner = UserJdbcService.getInstance().createUser(prefix + "owner");
+        member = UserJdbcService.getInstance().createUser(prefix + "member");
+        chatRoomId = chatRooms.createChatRoom(new GroupChat("acl", owner), "GROUP", 50);
+        assertTrue(chatRoomId > 0);
+    }
+
+    @Test
+    void cachedAclFollowsParticipantChanges() {
+        // Load the ACL and the room into the caches
+        assertFalse(chatRooms.isParticipant(chatRoomId, member.getUsername()));
+        assertEquals(1, chatRooms.getChatRoomById(chatRoomId).getParticipants().size());
+
+        assertTrue(chatRooms.addParticipant(chatRoomId, member.getUsername(), GroupPermission.MEMBER));
+        assertTrue(chatRooms.isParticipant(chatRoomId, member.getUsername()));
+        assertEquals(GroupPermission.MEMBER, chatRooms.getParticipantPermission(chatRoomId, member.getUsername()));
+        assertEquals(2, chatRooms.getChatRoomById(chatRoomId).getParticipants().size());
+
+        assertTrue(chatRooms.updateParticipantPermission(chatRoomId, member.getUsername(), GroupPermission.ADMIN));
+        assertEquals(GroupPermission.ADMIN, chatRooms.getParticipantPermission(chatRoomId, member.getUsername()));
+
+        assertTrue(chatRooms.removeParticipant(chatRoomId, member.getUsername()));
+        assertFalse(chatRooms.isParticipant(chatRoomId, member.getUsername()));
+        assertNull(chatRooms.getParticipantPermission(chatRoomId, member.getUsername()));
+        assertEquals(1, chatRooms.getChatRoomById(chatRoomId).getParticipants().size());
+    }
+
+    @Test
+    void rolledBackParticipantIsDroppedFromTheCaches() throws SQLException {
+        assertFalse(chatRooms.isParticipant(chatRoomId, member.getUsername()));
+
+        DatabaseConnection.beginThreadTransaction();
+        try {
+            assertTrue(chatRooms.addParticipant(chatRoomId, member.getUsername(), GroupPermission.MEMBER));
+            // Seen by the batch itself, and cached while its transaction is open
+            assertTrue(chatRooms.isParticipant(chatRoomId, member.getUsername()));
+            assertEquals(2, chatRooms.getChatRoomById(chatRoomId).getParticipants().size());
+        } finally {
+            DatabaseConnection.endThreadTransaction();
+        }
+
+        assertFalse(chatRooms.isParticipant(chatRoomId, member.getUsername()));
+        assertNull(chatRooms.getParticipantPermission(chatRoomId, member.getUsername()));
+        ChatRoom room = chatRooms.getChatRoomById(chatRoomId);
+        assertEquals(1, room.getParticipants().size());
+        assertEquals(owner.getUsername(), room.getParticipants().iterator().next().getUsername());
+    }
+
+    @Test
+    void committedParticipantIsKept() throws SQLException {
+        DatabaseConnection.beginThreadTransaction();
+        try {
+            assertTrue(chatRooms.addParticipant(chatRoomId, member.getUsername(), GroupPermission.MEMBER));
+            DatabaseConnection.commitThreadTransaction();
+        } finally {
+            DatabaseConnection.endThreadTransaction();
+        }
+
+        assertTrue(chatRooms.isParticipant(chatRoomId, member.getUsername()));
+        assertEquals(2, chatRooms.getChatRoomById(chatRoomId).getParticipants().size());
+    }
+
+    @Test
+    void cachesMatchTheDatabaseAfterConcurrentMembershipChanges() throws Exception {
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                AtomicBoolean changing = new AtomicBoolean(true);
+                CountDownLatch started = new CountDownLatch(4);
+                List<Future<?>> reads = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    reads.add(readers.submit(() -> {
+                        started.countDown();
+                        while (changing.get()) {
+                            chatRooms.getChatRoomById(chatRoomId);
+                            chatRooms.isParticipant(chatRoomId, member.getUsername());
+                        }
+                        return null;
+                    }));
+                }
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+
+                // Each change lands while the readers keep reloading the room and its ACL
+                for (int change = 0; change < 10; change++) {
+                    if (change % 2 == 0) {
+                        assertTrue(chatRooms.addParticipant(chatRoomId, member.getUsername(), GroupPermission.MEMBER));
+                    } else {
+                        assertTrue(chatRooms.removeParticipant(chatRoomId, member.getUsername()));
+                    }
+                }
+                boolean memberLast = round % 2 == 0;
+                if (memberLast) {
+                    assertTrue(chatRooms.addParticipant(chatRoomId, member.getUsername(), GroupPermission.MEMBER));
+                }
+                changing.set(false);
+                for (Future<?> read : reads) {
+                    read.get(5, TimeUnit.SECONDS);
+                }
+
+                // Whatever the readers left in the caches must be what the database holds
+                Set<String> stored = usernames(chatRooms.getParticipants(chatRoomId));
+                assertEquals(memberLast, stored.contains(member.getUsername()));
+                assertEquals(stored, usernames(chatRooms.getChatRoomById(chatRoomId).getParticipants()), "round " + round);
+                assertEquals(memberLast, chatRooms.isParticipant(chatRoomId, member.getUsername()), "round " + round);
+
+                if (memberLast) {
+                    assertTrue(chatRooms.removeParticipant(chatRoomId, member.getUsername()));
+                }
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    @Test
+    void roomIsNotCreatedWhenAnOwnerCannotBeAdded() {
+        String name = "orphan" + System.nanoTime();
+        GroupChat room = new GroupChat(name, owner);
+        room.addParticipant(new User(name + "-nobody"));
+
+        assertEquals(-1, chatRooms.createChatRoom(room, "GROUP", 50));
+        assertFalse(chatRooms.getAllChatRooms().contains(name));
+        assertFalse(chatRooms.getChatRoomsWithMember(owner.getUsername()).contains(name));
+    }
+
+    private static Set<String> usernames(Set<User> users) {
+        return users.stream().map(User::getUsername).collect(Collectors.toSet());
+    }
+}
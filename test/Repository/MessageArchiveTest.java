@@ -0,0 +1,135 @@
+package Repository;
+
+import Config.Constants;
+import Entities.Message;
+import Entities.User;
+import Utils.MessageStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageArchiveTest {
+    private static final int ROOM_ID = 7;
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 12, 0, 0, 123_456_789);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void appendedMessagesReadBackWithTheirStatuses() throws IOException {
+        MessageArchive archive = new MessageArchive(directory);
+        List<Message> messages = messages(1, Constants.ARCHIVE_BLOCK_MESSAGES + 10);
+        messages.get(0).markStatus("bob", MessageStatus.READ);
+
+        archive.append(ROOM_ID, messages, true);
+
+        assertEquals(messages.size(), archive.getLastId(ROOM_ID));
+        List<Message> read = archive.getMessages(ROOM_ID, 0, Integer.MAX_VALUE, Integer.MAX_VALUE, false, User::new);
+        assertEquals(messages.size(), read.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(messages.get(i).getId(), read.get(i).getId());
+            assertEquals(messages.get(i).getContent(), read.get(i).getContent());
+            assertEquals(messages.get(i).getTimestamp(), read.get(i).getTimestamp());
+            assertEquals("alice", read.get(i).getSender().getUsername());
+        }
+        assertEquals(MessageStatus.READ, read.get(0).getStatus("bob"));
+
+        // A page of the newest messages before a cursor, spanning both blocks
+        List<Message> page = archive.getMessages(ROOM_ID, 0, Constants.ARCHIVE_BLOCK_MESSAGES + 5, 10, true, User::new);
+        assertEquals(10, page.size());
+        assertEquals(Constants.ARCHIVE_BLOCK_MESSAGES - 5, page.get(0).getId());
+        assertEquals(Constants.ARCHIVE_BLOCK_MESSAGES + 4, page.get(page.size() - 1).getId());
+
+        Map<Integer, List<Message>> byIds = archive.getMessagesByIds(List.of(3, messages.size(), 10_000), User::new);
+        assertEquals(List.of(3, messages.size()), byIds.get(ROOM_ID).stream().map(Message::getId).toList());
+    }
+
+    @Test
+    void reloadedArchiveSeesWhatWasAppended() throws IOException {
+        new MessageArchive(directory).append(ROOM_ID, messages(1, 5), false);
+
+        MessageArchive reloaded = new MessageArchive(directory);
+        assertEquals(5, reloaded.getLastId(ROOM_ID));
+        assertEquals(5, reloaded.getMessages(ROOM_ID, 0, Integer.MAX_VALUE, 100, false, User::new).size());
+    }
+
+    @Test
+    void tornIndexEntryDropsOnlyTheLastBlock() throws IOException {
+        MessageArchive archive = new MessageArchive(directory);
+        archive.append(ROOM_ID, messages(1, 3), false);
+        archive.append(ROOM_ID, messages(4, 6), false);
+
+        // A crash while writing the entry of the second block leaves part of it in the index
+        Path index = onlyFile(".idx");
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 7);
+        }
+
+        MessageArchive reloaded = new MessageArchive(directory);
+        assertEquals(3, reloaded.getLastId(ROOM_ID));
+        assertEquals(List.of(1, 2, 3), ids(reloaded.getMessages(ROOM_ID, 0, Integer.MAX_VALUE, 100, false, User::new)));
+
+        // The lost block is archived again over the bytes it left behind, and appends continue after it
+        reloaded.append(ROOM_ID, messages(4, 6), false);
+        reloaded.append(ROOM_ID, messages(7, 8), false);
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7, 8),
+                ids(reloaded.getMessages(ROOM_ID, 0, Integer.MAX_VALUE, 100, false, User::new)));
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7, 8),
+                ids(new MessageArchive(directory).getMessages(ROOM_ID, 0, Integer.MAX_VALUE, 100, false, User::new)));
+    }
+
+    @Test
+    void appendingAlreadyArchivedMessagesFails() throws IOException {
+        MessageArchive archive = new MessageArchive(directory);
+        archive.append(ROOM_ID, messages(1, 3), false);
+
+        assertThrows(IOException.class, () -> archive.append(ROOM_ID, messages(3, 4), false));
+        assertEquals(3, archive.getLastId(ROOM_ID));
+    }
+
+    @Test
+    void deletedRoomLeavesNoFiles() throws IOException {
+        MessageArchive archive = new MessageArchive(directory);
+        archive.append(ROOM_ID, messages(1, 3), false);
+
+        archive.deleteRoom(ROOM_ID);
+
+        assertEquals(0, archive.getLastId(ROOM_ID));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    private static List<Message> messages(int firstId, int lastId) {
+        User sender = new User("alice");
+        List<Message> messages = new ArrayList<>();
+        for (int id = firstId; id <= lastId; id++) {
+            messages.add(new Message("message " + id, sender, START.plusMinutes(id), id));
+        }
+        return messages;
+    }
+
+    private static List<Integer> ids(List<Message> messages) {
+        return messages.stream().map(Message::getId).toList();
+    }
+
+    private Path onlyFile(String suffix) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            List<Path> found = files.filter(path -> path.toString().endsWith(suffix)).toList();
+            assertEquals(1, found.size());
+            return found.get(0);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package Repository;
+
+import Config.DatabaseConnection;
+import Config.TestDatabase;
+import Entities.GroupChat;
+import Entities.Message;
+import Entities.User;
+import Services.SearchIndexService;
+import Utils.MessageStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageJdbcServiceTest {
+    private final MessageJdbcService messages = MessageJdbcService.getInstance();
+    private final SearchIndexService search = SearchIndexService.getInstance();
+    private User sender;
+    private int chatRoomId;
+
+    @BeforeEach
+    void createRoom() throws IOException, SQLException {
+        TestDatabase.start();
+        sender = UserJdbcService.getInstance().createUser("search" + System.nanoTime() % 1_000_000_000);
+        chatRoomId = ChatRoomJdbcService.getInstance().createChatRoom(new GroupChat("search", sender), "GROUP", 50);
+        // Build the room's index while it is empty, so new messages are added to it
+        assertEquals(List.of(), search.search(chatRoomId, "hello"));
+    }
+
+    @Test
+    void messageOutsideATransactionIsSearchableRightAway() {
+        int messageId = messages.createMessage(new Message("hello outside", sender), chatRoomId);
+
+        assertEquals(List.of(messageId), hitIds("hello"));
+    }
+
+    @Test
+    void messageOfATransactionIsSearchableOnceItCommits() throws SQLException {
+        int messageId;
+        DatabaseConnection.beginThreadTransaction();
+        try {
+            messageId = messages.createMessage(new Message("hello committed", sender), chatRoomId);
+            assertTrue(messageId > 0);
+            assertEquals(List.of(), hitIds("committed"));
+            DatabaseConnection.commitThreadTransaction();
+        } finally {
+            DatabaseConnection.endThreadTransaction();
+        }
+
+        assertEquals(List.of(messageId), hitIds("committed"));
+    }
+
+    @Test
+    void messageOfARolledBackTransactionIsNeverSearchable() throws SQLException {
+        DatabaseConnection.beginThreadTransaction();
+        try {
+            assertTrue(messages.createMessage(new Message("hello lost", sender), chatRoomId) > 0);
+            messages.createMessages(List.of(new Message("hello lost again", sender)), List.of(chatRoomId));
+        } finally {
+            DatabaseConnection.endThreadTransaction();
+        }
+
+        assertEquals(List.of(), hitIds("lost"));
+        assertEquals(List.of(), messages.getMessagesByChatRoomId(chatRoomId));
+    }
+
+    @Test
+    void batchOfAnySizeIsStoredInOrderWithItsStatuses() {
+        // Split into inserts of several bucket sizes, and more IDs than one status batch
+        List<Message> batch = IntStream.range(0, 57).mapToObj(i -> new Message("batch " + i, sender)).toList();
+
+        List<Integer> messageIds = messages.createMessages(batch, Collections.nCopies(batch.size(), chatRoomId));
+
+        assertEquals(batch.size(), messageIds.size());
+        List<Message> stored = messages.getMessagesByChatRoomId(chatRoomId);
+        assertEquals(messageIds, stored.stream().map(Message::getId).toList());
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals("batch " + i, stored.get(i).getContent());
+            assertEquals(MessageStatus.SENT, stored.get(i).getStatus(sender.getUsername()));
+        }
+    }
+
+    private List<Integer> hitIds(String query) {
+        return search.search(chatRoomId, query).stream().map(SearchIndexService.SearchHit::getMessageId).toList();
+    }
+}
@@ -0,0 +1,87 @@
+package Repository;
+
+import Config.TestDatabase;
+import Entities.User;
+import Utils.UserStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserJdbcServiceTest {
+    private final UserJdbcService users = UserJdbcService.getInstance();
+    private User user;
+
+    @BeforeEach
+    void createUser() throws IOException, SQLException {
+        TestDatabase.start();
+        user = users.createUser("cache" + System.nanoTime() % 1_000_000_000);
+        assertNotNull(user);
+    }
+
+    @Test
+    void updatedStatusIsReadBack() {
+        user.setStatus(UserStatus.ONLINE);
+        assertTrue(users.updateUser(user));
+        assertEquals(UserStatus.ONLINE, users.getUserByUsername(user.getUsername()).getStatus());
+
+        users.getUserCache().invalidate(user.getUsername());
+        assertEquals(UserStatus.ONLINE, users.getUserByUsername(user.getUsername()).getStatus());
+    }
+
+    @Test
+    void cacheMatchesTheDatabaseAfterConcurrentUpdates() throws Exception {
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 20; round++) {
+                AtomicBoolean changing = new AtomicBoolean(true);
+                CountDownLatch started = new CountDownLatch(4);
+                List<Future<?>> reads = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    reads.add(readers.submit(() -> {
+                        started.countDown();
+                        // Keep missing the cache, so every read is a load racing the updates
+                        while (changing.get()) {
+                            users.getUserCache().invalidate(user.getUsername());
+                            users.getUserByUsername(user.getUsername());
+                        }
+                        return null;
+                    }));
+                }
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+
+                for (int change = 0; change < 11; change++) {
+                    user.setStatus(change % 2 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE);
+                    assertTrue(users.updateUser(user));
+                }
+                changing.set(false);
+                for (Future<?> read : reads) {
+                    read.get(5, TimeUnit.SECONDS);
+                }
+
+                // Whatever the readers left in the cache must be the last update
+                User stored = users.getAllUsers().stream()
+                        .filter(candidate -> candidate.getUsername().equals(user.getUsername()))
+                        .findFirst().orElseThrow();
+                assertEquals(UserStatus.ONLINE, stored.getStatus());
+                assertEquals(UserStatus.ONLINE, users.getUserByUsername(user.getUsername()).getStatus(), "round " + round);
+
+                user.setStatus(UserStatus.OFFLINE);
+                assertTrue(users.updateUser(user));
+            }
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+}
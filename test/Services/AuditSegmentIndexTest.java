@@ -0,0 +1,103 @@
+package Services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditSegmentIndexTest {
+    private static final String NINE = "2024-03-01 09:00:00";
+    private static final String TEN = "2024-03-01 10:00:00";
+    private static final String ELEVEN = "2024-03-01 11:00:00";
+    private static final String NOON = "2024-03-01 12:00:00";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void emptySegmentMatchesNothing() {
+        AuditSegmentIndex index = new AuditSegmentIndex(10);
+
+        assertFalse(index.mayContain(null, null, null, null));
+    }
+
+    @Test
+    void segmentIsSkippedOutsideItsTimeRange() {
+        AuditSegmentIndex index = segment(10);
+
+        assertTrue(index.mayContain(null, null, null, null));
+        assertTrue(index.mayContain(null, null, NINE, TEN));
+        assertTrue(index.mayContain(null, null, ELEVEN, null));
+        assertFalse(index.mayContain(null, null, NOON, null));
+        assertFalse(index.mayContain(null, null, null, NINE));
+        assertTrue(index.mayContain(null, null, "2024-03-01 10:40:00", "2024-03-01 10:45:00"));
+    }
+
+    @Test
+    void segmentIsSkippedForAbsentCommandsAndUsers() {
+        AuditSegmentIndex index = segment(10);
+
+        assertTrue(index.mayContain("LOGIN", "alice", null, null));
+        assertTrue(index.mayContain("SEND", null, null, null));
+        assertFalse(index.mayContain("DELETE", null, null, null));
+        assertFalse(index.mayContain(null, "carol", null, null));
+        // An entry without a user does not make the segment match every user
+        assertFalse(index.mayContain("CREATE ROOM", "carol", null, null));
+    }
+
+    @Test
+    void tooManyUsersMakesAnyUserPossible() {
+        AuditSegmentIndex index = segment(1);
+
+        assertTrue(index.mayContain(null, "carol", null, null));
+        assertFalse(index.mayContain("DELETE", "carol", null, null));
+    }
+
+    @Test
+    void indexReadBackFromItsFileSkipsTheSameSegments() throws IOException {
+        for (int maxUsers : new int[]{1, 10}) {
+            AuditSegmentIndex written = segment(maxUsers);
+            Path file = directory.resolve("segment-" + maxUsers + ".idx");
+            written.write(file);
+
+            AuditSegmentIndex read = AuditSegmentIndex.read(file, maxUsers);
+
+            assertEquals(written.getEntries(), read.getEntries());
+            String[] commands = {null, "LOGIN", "SEND", "DELETE"};
+            String[] users = {null, "alice", "bob", "carol"};
+            String[][] windows = {{null, null}, {NINE, TEN}, {NOON, null}, {null, NINE}};
+            for (String command : commands) {
+                for (String user : users) {
+                    for (String[] window : windows) {
+                        assertEquals(written.mayContain(command, user, window[0], window[1]),
+                                read.mayContain(command, user, window[0], window[1]),
+                                command + " " + user + " " + window[0] + " " + window[1]);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void emptyIndexReadBackStaysEmpty() throws IOException {
+        Path file = directory.resolve("empty.idx");
+        new AuditSegmentIndex(10).write(file);
+
+        AuditSegmentIndex read = AuditSegmentIndex.read(file, 10);
+
+        assertEquals(0, read.getEntries());
+        assertFalse(read.mayContain(null, null, null, null));
+    }
+
+    private static AuditSegmentIndex segment(int maxUsers) {
+        AuditSegmentIndex index = new AuditSegmentIndex(maxUsers);
+        index.add(TEN, "LOGIN", "alice");
+        index.add(TEN, "CREATE ROOM", null);
+        index.add("2024-03-01 10:30:00", "SEND", "bob");
+        index.add(ELEVEN, "LOGOUT", "alice");
+        return index;
+    }
+}
@@ -0,0 +1,184 @@
+package Services;
+
+import Config.Constants;
+import Entities.Message;
+import Entities.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageBrokerTest {
+    private static final AtomicInteger nextRoomId = new AtomicInteger(1_000_000);
+
+    private final MessageBroker broker = MessageBroker.getInstance();
+    private final List<MessageBroker.Subscriber> subscribers = new ArrayList<>();
+    private final int roomId = nextRoomId.getAndIncrement();
+    private final String prefix = "broker" + roomId + "-";
+
+    @AfterEach
+    void disconnect() {
+        subscribers.forEach(broker::disconnect);
+        broker.closeRoom(roomId);
+    }
+
+    @Test
+    void publishReachesTheOtherMembersButNotTheSender() throws InterruptedException {
+        Inbox alice = new Inbox();
+        Inbox aliceOtherSession = new Inbox();
+        Inbox bob = new Inbox();
+        connect("alice", alice, roomId);
+        connect("alice", aliceOtherSession, roomId);
+        connect("bob", bob, roomId);
+
+        broker.publish(roomId, message("alice", "from alice"));
+        broker.publish(roomId, message("bob", "from bob"));
+
+        bob.await("from alice");
+        alice.await("from bob");
+        aliceOtherSession.await("from bob");
+        // Each session drains its queue in order, so the earlier message would have been printed first
+        assertFalse(alice.text().contains("from alice"));
+        assertFalse(aliceOtherSession.text().contains("from alice"));
+        assertFalse(bob.text().contains("from bob"));
+        assertTrue(bob.text().contains("[Room " + roomId + "]"));
+    }
+
+    @Test
+    void leavingARoomStopsItsMessages() throws InterruptedException {
+        int otherRoomId = nextRoomId.getAndIncrement();
+        Inbox bob = new Inbox();
+        connect("bob", bob, roomId, otherRoomId);
+
+        broker.leaveRoom(roomId, prefix + "bob");
+        broker.publish(roomId, message("alice", "after leaving"));
+        broker.publish(otherRoomId, message("alice", "other room"));
+
+        bob.await("other room");
+        assertFalse(bob.text().contains("after leaving"));
+        broker.closeRoom(otherRoomId);
+    }
+
+    @Test
+    void joiningARoomSubscribesTheOnlineSessions() throws InterruptedException {
+        Inbox bob = new Inbox();
+        connect("bob", bob);
+
+        broker.joinRoom(roomId, prefix + "bob");
+        broker.publish(roomId, message("alice", "after joining"));
+
+        bob.await("after joining");
+    }
+
+    @Test
+    void disconnectedSessionGetsNothing() throws InterruptedException {
+        Inbox bob = new Inbox();
+        Inbox carol = new Inbox();
+        MessageBroker.Subscriber bobSession = connect("bob", bob, roomId);
+        connect("carol", carol, roomId);
+
+        broker.disconnect(bobSession);
+        broker.publish(roomId, message("alice", "after logout"));
+
+        carol.await("after logout");
+        assertFalse(bob.text().contains("after logout"));
+    }
+
+    @Test
+    void fullQueueSkipsMessagesWithoutBlockingThePublisher() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Inbox slow = new Inbox(writing, release);
+        connect("slow", slow, roomId);
+
+        // The first message holds the slow session's drainer inside its write
+        broker.publish(roomId, message("alice", "first"));
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        // Returns although the session cannot take any of them
+        long skippedBefore = broker.getSkippedCount();
+        int extra = 5;
+        for (int i = 0; i < Constants.SUBSCRIBER_QUEUE_CAPACITY + extra; i++) {
+            broker.publish(roomId, message("alice", "burst " + i));
+        }
+        assertEquals(extra, broker.getSkippedCount() - skippedBefore);
+
+        release.countDown();
+        slow.await("burst " + (Constants.SUBSCRIBER_QUEUE_CAPACITY - 1));
+        assertTrue(slow.text().contains("[" + extra + " new messages skipped"));
+        assertFalse(slow.text().contains("burst " + Constants.SUBSCRIBER_QUEUE_CAPACITY + "\n"));
+    }
+
+    private MessageBroker.Subscriber connect(String username, Inbox inbox, Integer... roomIds) {
+        MessageBroker.Subscriber subscriber = broker.connect(prefix + username, inbox.stream, List.of(roomIds));
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    private Message message(String sender, String content) {
+        return new Message(content, new User(prefix + sender));
+    }
+
+    /**
+     * Collects what the broker pushes to one session. Can hold the first write until released.
+     */
+    private static class Inbox extends OutputStream {
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private final CountDownLatch writing;
+        private final CountDownLatch release;
+        private final PrintStream stream = new PrintStream(this, false, StandardCharsets.UTF_8);
+
+        private Inbox() {
+            this(new CountDownLatch(0), new CountDownLatch(0));
+        }
+
+        private Inbox(CountDownLatch writing, CountDownLatch release) {
+            this.writing = writing;
+            this.release = release;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (this) {
+                received.write(b, off, len);
+                notifyAll();
+            }
+        }
+
+        private synchronized String text() {
+            return received.toString(StandardCharsets.UTF_8);
+        }
+
+        private synchronized void await(String expected) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!text().contains(expected)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    fail("\"" + expected + "\" was not pushed, got: " + text());
+                }
+                wait(remaining);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package Services;
+
+import Entities.GroupChat;
+import Entities.Message;
+import Entities.User;
+import Repository.Repositories;
+import Utils.QueryCounter;
+import Utils.StorageBackend;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageIngestorTest {
+    private User sender;
+    private int chatRoomId;
+
+    @BeforeEach
+    void createRoom() {
+        Repositories.select(StorageBackend.MEMORY);
+        sender = Repositories.users().createUser("ingest-" + System.nanoTime());
+        chatRoomId = Repositories.chatRooms().createChatRoom(new GroupChat("ingest", sender), "GROUP", 50);
+    }
+
+    @Test
+    void badMessageOnlyFailsItsOwnSend() {
+        MessageIngestor.PendingMessage first = pending(chatRoomId, "first");
+        MessageIngestor.PendingMessage unknownRoom = pending(Integer.MAX_VALUE, "lost");
+        MessageIngestor.PendingMessage last = pending(chatRoomId, "last");
+
+        MessageIngestor.getInstance().write(List.of(first, unknownRoom, last));
+
+        int firstId = first.result.join();
+        int lastId = last.result.join();
+        assertEquals(-1, unknownRoom.result.join());
+        assertTrue(firstId > 0);
+        assertTrue(lastId > firstId);
+        assertEquals("first", Repositories.messages().getMessageById(firstId).getContent());
+        assertEquals("last", Repositories.messages().getMessageById(lastId).getContent());
+        assertEquals(2, Repositories.messages().getMessagesByChatRoomId(chatRoomId).size());
+    }
+
+    @Test
+    void goodBatchIsStoredInOrder() {
+        List<MessageIngestor.PendingMessage> batch = List.of(
+                pending(chatRoomId, "a"), pending(chatRoomId, "b"), pending(chatRoomId, "c"));
+
+        MessageIngestor.getInstance().write(batch);
+
+        List<Message> stored = Repositories.messages().getMessagesByChatRoomId(chatRoomId);
+        assertEquals(List.of("a", "b", "c"), stored.stream().map(Message::getContent).toList());
+        for (int i = 0; i < batch.size(); i++) {
+            assertEquals(stored.get(i).getId(), batch.get(i).result.join());
+        }
+    }
+
+    @Test
+    void submitInMemoryCompletesRightAway() {
+        assertTrue(MessageIngestor.getInstance().submit(chatRoomId, new Message("now", sender)).isDone());
+        assertEquals(-1, MessageIngestor.getInstance().submit(Integer.MAX_VALUE, new Message("lost", sender)).join());
+    }
+
+    @Test
+    void inlineSubmitKeepsTheCallersQueryCount() {
+        QueryCounter.reset();
+        QueryCounter.executed(3);
+
+        MessageIngestor.getInstance().submit(chatRoomId, new Message("counted", sender)).join();
+
+        // Written as part of the caller's command, so its counts must not be reset
+        assertEquals(3, QueryCounter.getStatements());
+        assertEquals(1, QueryCounter.getRoundTrips());
+    }
+
+    private MessageIngestor.PendingMessage pending(int roomId, String content) {
+        return new MessageIngestor.PendingMessage(roomId, new Message(content, sender));
+    }
+}
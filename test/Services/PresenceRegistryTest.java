@@ -0,0 +1,77 @@
+package Services;
+
+import Entities.User;
+import Repository.Repositories;
+import Utils.StorageBackend;
+import Utils.UserStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PresenceRegistryTest {
+    private final PresenceRegistry registry = PresenceRegistry.getInstance();
+    private User user;
+
+    @BeforeEach
+    void createUser() {
+        Repositories.select(StorageBackend.MEMORY);
+        user = Repositories.users().createUser("presence-" + System.nanoTime());
+    }
+
+    @Test
+    void sessionEndsWithTheLastLogin() {
+        PresenceRegistry.Login first = registry.login(user);
+        PresenceRegistry.Login second = registry.login(user);
+        assertTrue(registry.isOnline(user.getUsername()));
+        assertStored(true, UserStatus.ONLINE);
+
+        registry.logout(first);
+        assertTrue(registry.isOnline(user.getUsername()));
+        assertFalse(registry.heartbeat(first));
+        assertTrue(registry.heartbeat(second));
+        assertStored(true, UserStatus.ONLINE);
+
+        registry.logout(second);
+        assertFalse(registry.isOnline(user.getUsername()));
+        assertFalse(registry.heartbeat(second));
+        assertStored(false, UserStatus.OFFLINE);
+    }
+
+    @Test
+    void loggingOutTwiceCountsOnce() {
+        PresenceRegistry.Login first = registry.login(user);
+        PresenceRegistry.Login second = registry.login(user);
+
+        registry.logout(first);
+        registry.logout(first);
+
+        assertTrue(registry.isOnline(user.getUsername()));
+        assertTrue(registry.heartbeat(second));
+        registry.logout(second);
+        assertFalse(registry.isOnline(user.getUsername()));
+    }
+
+    @Test
+    void loginOfAnEndedSessionDoesNotTouchTheNextOne() {
+        PresenceRegistry.Login old = registry.login(user);
+        registry.logout(old);
+        PresenceRegistry.Login current = registry.login(user);
+
+        assertFalse(registry.heartbeat(old));
+        registry.logout(old);
+
+        assertTrue(registry.isOnline(user.getUsername()));
+        assertTrue(registry.heartbeat(current));
+        assertEquals(1, registry.getActiveSessions().keySet().stream()
+                .filter(user.getUsername()::equals).count());
+        registry.logout(current);
+        assertFalse(registry.isOnline(user.getUsername()));
+    }
+
+    private void assertStored(boolean sessionOpen, UserStatus status) {
+        registry.awaitPendingWrites();
+        assertEquals(sessionOpen, Repositories.sessions().getActiveSessions().containsKey(user.getUsername()));
+        assertEquals(status, Repositories.users().getUserByUsername(user.getUsername()).getStatus());
+    }
+}
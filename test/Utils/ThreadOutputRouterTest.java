@@ -0,0 +1,135 @@
+package Utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThreadOutputRouterTest {
+    private static final int LINES = 2000;
+
+    @BeforeAll
+    static void install() {
+        ThreadOutputRouter.install();
+    }
+
+    @AfterEach
+    void unbind() {
+        ThreadOutputRouter.unbind();
+    }
+
+    @Test
+    void eachThreadPrintsToItsOwnStream() throws Exception {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+
+        CompletableFuture.allOf(
+                CompletableFuture.runAsync(() -> printBound(first, "first")),
+                CompletableFuture.runAsync(() -> printBound(second, "second"))
+        ).get(5, TimeUnit.SECONDS);
+
+        assertEquals("first" + System.lineSeparator(), first.toString(StandardCharsets.UTF_8));
+        assertEquals("second" + System.lineSeparator(), second.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void currentIsTheBoundStream() {
+        PrintStream stream = new PrintStream(OutputStream.nullOutputStream());
+        assertNotSame(stream, ThreadOutputRouter.current());
+
+        ThreadOutputRouter.bind(stream);
+        assertSame(stream, ThreadOutputRouter.current());
+
+        ThreadOutputRouter.unbind();
+        assertNotSame(stream, ThreadOutputRouter.current());
+    }
+
+    @Test
+    void blockedStreamOnlyBlocksItsOwnThread() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // A client that stopped reading: writes wait until released
+        OutputStream stalled = new OutputStream() {
+            @Override
+            public void write(int b) {
+                writing.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        CompletableFuture<Void> slow = CompletableFuture.runAsync(() -> {
+            ThreadOutputRouter.bind(new PrintStream(stalled, true, StandardCharsets.UTF_8));
+            try {
+                System.out.println("stuck");
+            } finally {
+                ThreadOutputRouter.unbind();
+            }
+        });
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        try {
+            ByteArrayOutputStream other = new ByteArrayOutputStream();
+            CompletableFuture.runAsync(() -> printBound(other, "not blocked")).get(5, TimeUnit.SECONDS);
+            assertEquals("not blocked" + System.lineSeparator(), other.toString(StandardCharsets.UTF_8));
+            assertFalse(slow.isDone());
+        } finally {
+            release.countDown();
+        }
+        slow.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void linesOfTheConnectionAndThePusherAreNotMixed() throws Exception {
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        PrintStream sink = new PrintStream(received, false, StandardCharsets.UTF_8);
+        String command = "command output line";
+        String pushed = "[Room 1] pushed message line";
+
+        CompletableFuture<Void> connection = CompletableFuture.runAsync(() -> {
+            ThreadOutputRouter.bind(sink);
+            try {
+                for (int i = 0; i < LINES; i++) {
+                    System.out.println(command);
+                }
+            } finally {
+                ThreadOutputRouter.unbind();
+            }
+        });
+        // The broker writes to the sink directly, one print call per message
+        CompletableFuture<Void> pusher = CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < LINES; i++) {
+                sink.print(pushed + System.lineSeparator());
+            }
+        });
+        CompletableFuture.allOf(connection, pusher).get(10, TimeUnit.SECONDS);
+        sink.flush();
+
+        String[] lines = received.toString(StandardCharsets.UTF_8).split(System.lineSeparator());
+        assertEquals(2 * LINES, lines.length);
+        for (String line : lines) {
+            assertTrue(line.equals(command) || line.equals(pushed), line);
+        }
+    }
+
+    private static void printBound(OutputStream out, String text) {
+        PrintStream stream = new PrintStream(out, true, StandardCharsets.UTF_8);
+        ThreadOutputRouter.bind(stream);
+        try {
+            System.out.println(text);
+        } finally {
+            ThreadOutputRouter.unbind();
+        }
+    }
+}
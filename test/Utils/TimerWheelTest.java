@@ -0,0 +1,79 @@
+package Utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimerWheelTest {
+    private static final int SLOTS = 8;
+    private static final long TICK_MILLIS = 100;
+
+    private final TimerWheel<String> wheel = new TimerWheel<>(SLOTS, TICK_MILLIS);
+    private final List<String> expired = new ArrayList<>();
+
+    @Test
+    void itemExpiresOnTheTickItIsDue() {
+        wheel.schedule("a", 3 * TICK_MILLIS);
+
+        advance(2);
+        assertEquals(List.of(), expired);
+        advance(1);
+        assertEquals(List.of("a"), expired);
+        advance(SLOTS * 2);
+        assertEquals(List.of("a"), expired);
+    }
+
+    @Test
+    void delayIsRoundedUpToWholeTicks() {
+        wheel.schedule("zero", 0);
+        wheel.schedule("partial", TICK_MILLIS + 1);
+
+        // At least one tick, and two for a little more than one
+        advance(1);
+        assertEquals(List.of("zero"), expired);
+        advance(1);
+        assertEquals(List.of("zero", "partial"), expired);
+    }
+
+    @Test
+    void delayLongerThanOneTurnWaitsForItsTurn() {
+        long ticks = SLOTS * 2 + 3;
+        wheel.schedule("far", ticks * TICK_MILLIS);
+        // Shares the slot of the far item on the first turn
+        wheel.schedule("near", 3 * TICK_MILLIS);
+
+        advance(3);
+        assertEquals(List.of("near"), expired);
+        advance((int) ticks - 4);
+        assertEquals(List.of("near"), expired);
+        advance(1);
+        assertEquals(List.of("near", "far"), expired);
+    }
+
+    @Test
+    void itemScheduledAgainFromTheCallbackExpiresLater() {
+        wheel.schedule("again", TICK_MILLIS);
+        List<Long> expiredAt = new ArrayList<>();
+        long[] tick = {0};
+
+        for (int i = 0; i < 10; i++) {
+            tick[0]++;
+            wheel.advance(item -> {
+                expiredAt.add(tick[0]);
+                if (expiredAt.size() < 3) {
+                    wheel.schedule(item, 2 * TICK_MILLIS);
+                }
+            });
+        }
+        assertEquals(List.of(1L, 3L, 5L), expiredAt);
+    }
+
+    private void advance(int ticks) {
+        for (int i = 0; i < ticks; i++) {
+            wheel.advance(expired::add);
+        }
+    }
+}